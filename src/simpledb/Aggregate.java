@@ -1,22 +1,61 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
  * min). Note that we only support aggregates over a single column, grouped by a
  * single column.
+ * <p>
+ * The groups may take up to a memory budget. Once there are too many of them,
+ * tuples of the groups already in memory are still aggregated there, while
+ * tuples of new groups are split into NUM_PARTITIONS partitions by the hash
+ * of their group-by value and written to {@link SpillFile}s. After the
+ * results of the groups in memory, each partition is aggregated in turn by
+ * another Aggregate with the same budget, which may spill again, up to
+ * MAX_DEPTH times.
  */
 public class Aggregate extends Operator {
 
+	/** Memory budget of an aggregate that is not given one: 32 MB. */
+	public static final long DEFAULT_MEMORY_BUDGET = 32L << 20;
+
+	/** Number of partitions the tuples of new groups are split into. */
+	public static final int NUM_PARTITIONS = 16;
+
+	/**
+	 * Number of times the tuples of a partition are partitioned again before
+	 * they are aggregated in memory whatever the number of their groups.
+	 */
+	public static final int MAX_DEPTH = 4;
+
+	/** Estimated bytes a group takes in memory, besides its group value. */
+	public static final int GROUP_OVERHEAD = 64;
+
 	private DbIterator tupleIterator;
 	private DbIterator child;
 	private Aggregator.Op aop;
 	private int gfield;
 	private int afield;
+	private TupleDesc td;
+	private final long memoryBudget;
+	private final int depth;
+
+	// spill files of the partitions of the tuples of new groups, null as
+	// long as the groups fit in memory
+	private SpillFile[] files;
+	// once the results in memory are returned: the next partition to
+	// aggregate, and the aggregate of the current one
+	private int partition;
+	private Aggregate subAggregate;
+
+	// spill statistics of partitions already deleted
+	private long spilledBytes;
+	private int spilledPartitions;
 
 	/**
-	 * Constructor.
+	 * Constructor. The child is not read until the aggregate is opened.
 	 * 
 	 * Implementation hint: depending on the type of afield, you will want to
 	 * construct an IntAggregator or StringAggregator to help you with your
@@ -34,53 +73,76 @@ public class Aggregate extends Operator {
 	 *            The aggregation operator to use
 	 */
 	public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
-		// some code goes here
+		this(child, afield, gfield, aop, DEFAULT_MEMORY_BUDGET);
+	}
 
+	/**
+	 * Constructor for an aggregate whose groups may take up to memoryBudget
+	 * bytes before the tuples of new groups are spilled to disk.
+	 *
+	 * @see #Aggregate(DbIterator, int, int, Aggregator.Op)
+	 */
+	public Aggregate(DbIterator child, int afield, int gfield,
+			Aggregator.Op aop, long memoryBudget) {
+		this(child, afield, gfield, aop, memoryBudget, 0);
+	}
+
+	private Aggregate(DbIterator child, int afield, int gfield,
+			Aggregator.Op aop, long memoryBudget, int depth) {
+		this.memoryBudget = memoryBudget;
+		this.depth = depth;
 		this.child = child;
+		this.afield = afield;
+		this.gfield = gfield;
+		this.aop = aop;
+		this.td = tupleDesc(child.getTupleDesc(), afield, gfield, aop);
+		// fails with an IllegalArgumentException now, rather than in open(),
+		// if the aggregate is not supported over the type of afield
+		newAggregator();
+	}
 
-		
-		TupleDesc td = child.getTupleDesc();
-		Type aFieldType = td.getFieldType(afield);
-		Type gbFieldType=null;
-		Aggregator agg;
-		this.aop=aop;
-		this.gfield=gfield;
-
-		if (gfield == -1) {
-			gfield = Aggregator.NO_GROUPING;
-			
-		} else {
-			gbFieldType=td.getFieldType(gfield);
-			
-		}
-		
-		//make a new integer or string operator based on type of aggregate field
-		if (aFieldType == Type.INT_TYPE) {
-			agg = new IntegerAggregator(gfield, gbFieldType, afield, aop);
-		} else {
-			agg = new StringAggregator(gfield, gbFieldType, afield, aop);
-		}
-		try {
-			this.child.open();
-			while (child.hasNext()) {
+	/**
+	 * @return a new aggregator for the aggregate field and grouping of this
+	 *         aggregate
+	 */
+	private Aggregator newAggregator() {
+		return newAggregator(child.getTupleDesc(), afield, gfield, aop);
+	}
 
-				Tuple next = child.next();
-				agg.mergeTupleIntoGroup(next);
+	/**
+	 * @return the TupleDesc of the results of an aggregate over tuples of
+	 *         childTd
+	 */
+	static TupleDesc tupleDesc(TupleDesc childTd, int afield, int gfield,
+			Aggregator.Op aop) {
+		String aggName = aop + "(" + childTd.getFieldName(afield) + ")";
+		if (gfield == -1)
+			return new TupleDesc(new Type[] { Type.INT_TYPE },
+					new String[] { aggName });
+		return new TupleDesc(new Type[] { childTd.getFieldType(gfield),
+				Type.INT_TYPE }, new String[] { childTd.getFieldName(gfield),
+				aggName });
+	}
 
-			}
-			tupleIterator = agg.iterator();
-		} catch (NoSuchElementException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (DbException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (TransactionAbortedException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} finally {
-			this.child.close();
+	/**
+	 * @return a new aggregator for an aggregate over tuples of childTd
+	 * @throws IllegalArgumentException
+	 *             if the aggregate is not supported over the type of afield
+	 */
+	static Aggregator newAggregator(TupleDesc childTd, int afield,
+			int gfield, Aggregator.Op aop) {
+		int gbfield = Aggregator.NO_GROUPING;
+		Type gbFieldType = null;
+		if (gfield != -1) {
+			gbfield = gfield;
+			gbFieldType = childTd.getFieldType(gfield);
 		}
+
+		//make a new integer or string operator based on type of aggregate field
+		if (childTd.getFieldType(afield) == Type.INT_TYPE)
+			return new IntegerAggregator(gbfield, gbFieldType, afield, aop);
+		else
+			return new StringAggregator(gbfield, gbFieldType, afield, aop);
 	}
 
 	public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -99,9 +161,94 @@ public class Aggregate extends Operator {
 		return "";
 	}
 
+	/**
+	 * @return the number of bytes the groups may take in memory
+	 */
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * @return the number of bytes of tuples written to spill files so far,
+	 *         by this aggregate and the aggregates of its partitions
+	 */
+	public long getSpilledBytes() {
+		long bytes = spilledBytes;
+		if (files != null) {
+			for (SpillFile f : files)
+				bytes += f.numBytes();
+		}
+		if (subAggregate != null)
+			bytes += subAggregate.getSpilledBytes();
+		return bytes;
+	}
+
+	/**
+	 * @return the number of partitions written to spill files so far, by
+	 *         this aggregate and the aggregates of its partitions
+	 */
+	public int getSpilledPartitions() {
+		int n = spilledPartitions;
+		if (files != null) {
+			for (SpillFile f : files) {
+				if (f.numTuples() > 0)
+					n++;
+			}
+		}
+		if (subAggregate != null)
+			n += subAggregate.getSpilledPartitions();
+		return n;
+	}
+
+	/**
+	 * Reads the whole child into a new aggregator, spilling the tuples of new
+	 * groups once the groups outgrow the memory budget, so that opening the
+	 * aggregate again computes it again.
+	 */
 	public void open() throws NoSuchElementException, DbException,
 			TransactionAbortedException {
+		closeSpill();
+		Aggregator agg = newAggregator();
+		long groupBytes = GROUP_OVERHEAD;
+		if (gfield != -1)
+			groupBytes += td.getFieldType(0).getLen();
+		child.open();
+		try {
+			while (child.hasNext()) {
+				Tuple t = child.next();
+				if (files == null) {
+					agg.mergeTupleIntoGroup(t);
+					if (gfield != -1 && depth < MAX_DEPTH
+							&& agg.numGroups() * groupBytes > memoryBudget) {
+						files = new SpillFile[NUM_PARTITIONS];
+						for (int i = 0; i < NUM_PARTITIONS; i++)
+							files[i] = new SpillFile(child.getTupleDesc());
+					}
+				} else if (!agg.mergeTupleIntoExistingGroup(t)) {
+					files[partitionOf(t.getField(gfield))].add(t);
+				}
+			}
+		} catch (IOException e) {
+			throw new DbException("could not spill aggregate: " + e);
+		} finally {
+			child.close();
+		}
+		tupleIterator = agg.iterator();
 		tupleIterator.open();
+		partition = 0;
+	}
+
+	/**
+	 * @return the partition of a group-by value. The hash is mixed with the
+	 *         depth of the aggregate, so that the partitions of a partition
+	 *         are split differently again.
+	 */
+	private int partitionOf(Field key) {
+		int h = (key.hashCode() + depth) * 0x9E3779B9;
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		return (h & 0x7fffffff) % NUM_PARTITIONS;
 	}
 
 	/**
@@ -113,13 +260,71 @@ public class Aggregate extends Operator {
 	 */
 	protected Tuple fetchNext() throws TransactionAbortedException, DbException {
 
-		if (tupleIterator.hasNext())
+		if (tupleIterator != null && tupleIterator.hasNext())
 			return tupleIterator.next();
-		return null;
+		if (files == null)
+			return null;
+		// the groups in memory are done; aggregate the partitions
+		while (true) {
+			if (subAggregate != null) {
+				if (subAggregate.hasNext())
+					return subAggregate.next();
+				closeSubAggregate();
+			}
+			if (partition == NUM_PARTITIONS)
+				return null;
+			SpillFile f = files[partition++];
+			if (f.numTuples() == 0)
+				continue;
+			try {
+				subAggregate = new Aggregate(f.iterator(), afield, gfield, aop,
+						memoryBudget, depth + 1);
+			} catch (IOException e) {
+				throw new DbException("could not read aggregate spill: " + e);
+			}
+			subAggregate.open();
+		}
 	}
 
+	/**
+	 * Returns the results again, without reading the child again; spilled
+	 * partitions are aggregated again from their spill files.
+	 */
 	public void rewind() throws DbException, TransactionAbortedException {
-		tupleIterator.rewind();
+		if (tupleIterator != null)
+			tupleIterator.rewind();
+		closeSubAggregate();
+		partition = 0;
+	}
+
+	/**
+	 * Closes the aggregate of the current partition, adding its spills to
+	 * the spill statistics.
+	 */
+	private void closeSubAggregate() {
+		if (subAggregate == null)
+			return;
+		spilledBytes += subAggregate.getSpilledBytes();
+		spilledPartitions += subAggregate.getSpilledPartitions();
+		subAggregate.close();
+		subAggregate = null;
+	}
+
+	/**
+	 * Closes and deletes the spill files, and the aggregate of the current
+	 * partition, adding them to the spill statistics.
+	 */
+	private void closeSpill() {
+		closeSubAggregate();
+		if (files == null)
+			return;
+		for (SpillFile f : files) {
+			spilledBytes += f.numBytes();
+			if (f.numTuples() > 0)
+				spilledPartitions++;
+			f.close();
+		}
+		files = null;
 	}
 
 	/**
@@ -134,25 +339,18 @@ public class Aggregate extends Operator {
 	 * iterator.
 	 */
 	public TupleDesc getTupleDesc() {
-		TupleDesc td=tupleIterator.getTupleDesc();
-		int length=td.fieldAr.length;
-		String[] fieldAr=new String[length];
-		
-		Type[] typeAr=td.typeAr;
-
-			if (this.gfield==-1){
-				fieldAr[0]=this.aop+"("+child.getTupleDesc().getFieldName(afield)+")";
-			}
-			else{
-				fieldAr[0]=child.getTupleDesc().getFieldName(gfield);
-				fieldAr[1]=this.aop+"("+child.getTupleDesc().getFieldName(afield)+")";
-			}
-			
-		
-		return new TupleDesc(typeAr,fieldAr);
+		return td;
 	}
 
+	/**
+	 * Closes the aggregate and releases its results and spill files.
+	 */
 	public void close() {
-		tupleIterator.close();
+		super.close();
+		if (tupleIterator != null) {
+			tupleIterator.close();
+			tupleIterator = null;
+		}
+		closeSpill();
 	}
 }
@@ -40,6 +40,32 @@ public interface Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge a new tuple into the aggregate for its group value only if that
+     * group value has been encountered already.
+     *
+     * @param tup the Tuple containing an aggregate field and a group-by field
+     * @return false if the tuple's group is new, in which case the tuple is
+     *         not merged
+     */
+    public boolean mergeTupleIntoExistingGroup(Tuple tup);
+
+    /**
+     * @return the number of distinct group values encountered so far
+     */
+    public int numGroups();
+
+    /**
+     * Merge the partial state of an aggregator that aggregated other tuples
+     * into this one, so that this aggregator's results are those of all the
+     * tuples of both. Aggregators of different slices of an input can so
+     * run on different threads, and be merged once they are done.
+     *
+     * @param partial an aggregator of the same class, fields and operator
+     * @throws IllegalArgumentException if partial aggregates differently
+     */
+    public void mergePartial(Aggregator partial);
+
     /**
      * Create a DbIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
@@ -0,0 +1,185 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+
+/**
+ * The BlockNestedLoopJoin operator implements a join on any predicate by
+ * nested loops, like Join, but reads child1 (the outer relation) a block of
+ * tuples at a time and scans child2 (the inner relation) once per block
+ * rather than once per outer tuple, every inner tuple being compared with
+ * the whole block.
+ * <p>
+ * Unless it is given one, the block takes as many pages of outer tuples as
+ * the buffer pool has free frames when the join is created, and at least
+ * half as many pages as the pool holds; the other frames are left to cache
+ * the inner relation.
+ */
+public class BlockNestedLoopJoin extends Operator {
+
+	JoinPredicate p;
+	DbIterator child1;
+	DbIterator child2;
+	private TupleDesc td;
+	private final int blockTuples;
+
+	// the block of outer tuples being joined
+	private ArrayList<Tuple> block = new ArrayList<Tuple>();
+	// the inner tuple being compared with the block, and the next tuple of
+	// the block to compare it with
+	private Tuple next2;
+	private int nextOuter;
+
+	private int innerScans;
+
+	/**
+	 * Constructor. Accepts to children to join and the predicate to join them
+	 * on, with a block size derived from the free frames of the buffer pool.
+	 *
+	 * @param p
+	 *            The predicate to use to join the children
+	 * @param child1
+	 *            Iterator for the left(outer) relation to join
+	 * @param child2
+	 *            Iterator for the right(inner) relation to join
+	 */
+	public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1,
+			DbIterator child2) {
+		this(p, child1, child2, defaultBlockPages()
+				* HeapPage.slotsPerPage(child1.getTupleDesc()));
+	}
+
+	/**
+	 * Constructor for a join that reads child1 blockTuples tuples at a time.
+	 *
+	 * @see #BlockNestedLoopJoin(JoinPredicate, DbIterator, DbIterator)
+	 */
+	public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1,
+			DbIterator child2, int blockTuples) {
+		if (blockTuples < 1)
+			throw new IllegalArgumentException("empty block");
+		this.p = p;
+		this.child1 = child1;
+		this.child2 = child2;
+		this.td = TupleDesc.merge(child1.getTupleDesc(),
+				child2.getTupleDesc());
+		this.blockTuples = blockTuples;
+	}
+
+	/**
+	 * @return the number of pages of outer tuples a block takes by default:
+	 *         the free frames of the buffer pool, but at least half of its
+	 *         frames
+	 */
+	public static int defaultBlockPages() {
+		BufferPool pool = Database.getBufferPool();
+		return Math.max(1, Math.max(pool.getFreePages(),
+				pool.getNumPages() / 2));
+	}
+
+	/**
+	 * @see simpledb.TupleDesc#merge(TupleDesc, TupleDesc) for possible
+	 *      implementation logic.
+	 */
+	public TupleDesc getTupleDesc() {
+		return td;
+	}
+
+	/**
+	 * @return the number of outer tuples read at a time
+	 */
+	public int getBlockTuples() {
+		return blockTuples;
+	}
+
+	/**
+	 * @return the number of times child2 has been scanned since the join was
+	 *         opened
+	 */
+	public int getInnerScans() {
+		return innerScans;
+	}
+
+	public void open() throws DbException, NoSuchElementException,
+			TransactionAbortedException {
+		child1.open();
+		child2.open();
+		innerScans = 0;
+		readBlock();
+	}
+
+	public void close() {
+		super.close();
+		child1.close();
+		child2.close();
+		block.clear();
+		next2 = null;
+	}
+
+	public void rewind() throws DbException, TransactionAbortedException {
+		child1.rewind();
+		child2.rewind();
+		innerScans = 0;
+		readBlock();
+	}
+
+	/**
+	 * Reads the next block of outer tuples.
+	 *
+	 * @return false if child1 is exhausted
+	 */
+	private boolean readBlock() throws DbException,
+			TransactionAbortedException {
+		block.clear();
+		next2 = null;
+		while (block.size() < blockTuples && child1.hasNext())
+			block.add(child1.next());
+		if (block.isEmpty())
+			return false;
+		innerScans++;
+		return true;
+	}
+
+	/**
+	 * Returns the next tuple generated by the join, or null if there are no
+	 * more tuples: the concatenation of the next tuple of the block with the
+	 * current inner tuple that satisfies the join predicate, moving on to
+	 * the next inner tuple once the block is done, and to the next block and
+	 * a new scan of child2 once child2 is exhausted.
+	 *
+	 * @return The next matching tuple.
+	 * @see JoinPredicate#filter
+	 */
+	protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+		if (block.isEmpty())
+			return null;
+		while (true) {
+			if (next2 != null) {
+				while (nextOuter < block.size()) {
+					Tuple t1 = block.get(nextOuter++);
+					if (p.filter(t1, next2))
+						return merge(t1, next2);
+				}
+			}
+			if (child2.hasNext()) {
+				next2 = child2.next();
+				nextOuter = 0;
+			} else {
+				if (!readBlock())
+					return null;
+				child2.rewind();
+			}
+		}
+	}
+
+	private Tuple merge(Tuple t1, Tuple t2) {
+		Tuple result = new Tuple(td);
+		int numFields = t1.getTupleDesc().numFields();
+		for (int i = 0; i < numFields; i++)
+			result.setField(i, t1.getField(i));
+		for (int j = 0; j < t2.getTupleDesc().numFields(); j++)
+			result.setField(j + numFields, t2.getField(j));
+		return result;
+	}
+
+}
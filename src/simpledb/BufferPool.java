@@ -2,7 +2,15 @@ package simpledb;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.List;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.PageLock.LockType;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from disk.
@@ -12,6 +20,14 @@ import java.util.List;
  * The BufferPool is also responsible for locking; when a transaction fetches a
  * page, BufferPool checks that the transaction has the appropriate locks to
  * read/write the page.
+ * <p>
+ * The pool is split into partitions; every page is hashed to one partition by
+ * its PageId, and each partition caches and evicts its pages independently
+ * under its own latch. Threads working on pages of different partitions (for
+ * instance, scans of different tables) therefore do not serialize on the
+ * pool.
+ * 
+ * @see BufferPoolPartition
  */
 public class BufferPool {
 	/** Bytes per page, including header. */
@@ -24,12 +40,65 @@ public class BufferPool {
 	 */
 	public static final int DEFAULT_PAGES = 50;
 
+	/**
+	 * Smallest number of pages per partition when the pool picks its own
+	 * number of partitions. Keeps small pools in a single partition, so that
+	 * a handful of dirty pages cannot fill up one partition while others are
+	 * empty.
+	 */
+	public static final int MIN_PARTITION_PAGES = 64;
+
+	/** Default number of frames of the ring of a bulk read. */
+	public static final int DEFAULT_RING_PAGES = 32;
+
+	/**
+	 * Default number of pages sequential scans read ahead of the page they
+	 * are on.
+	 */
+	public static final int DEFAULT_PREFETCH_PAGES = 8;
+
+	/** Replacement policy used unless the constructor is given one. */
+	public static final ReplacementPolicy.Kind DEFAULT_POLICY =
+		ReplacementPolicy.Kind.LRU;
+
 	int numPages;
-	List<Page> pages;
-	int numPagesUsed;
+
+	private BufferPoolPartition[] partitions;
+
+	// pages each transaction has fetched with READ_WRITE permissions, i.e. the
+	// only pages it can have dirtied. Guarded by its own monitor.
+	private HashMap<TransactionId, Set<PageId>> writablePages;
+
+	// pages each transaction has appended to files with bulk inserts, which
+	// are emptied again if it aborts. Guarded by its own monitor.
+	private HashMap<TransactionId, ArrayList<PageId>> loadedPages;
 
 	//Locking Structure that keeps track of all locks and transactions
 	private LockTracker transactionPool; 
+
+	// size of the rings handed out to bulk reads
+	private volatile int ringPages = DEFAULT_RING_PAGES;
+
+	// pages returned to bulk reads from their ring rather than the pool
+	private final AtomicLong ringPagesServed = new AtomicLong();
+
+	// how far sequential scans read ahead; 0 turns prefetching off
+	private volatile int prefetchPages = DEFAULT_PREFETCH_PAGES;
+
+	// pages read into the pool by the prefetcher
+	private final AtomicLong pagesPrefetched = new AtomicLong();
+
+	// reads pages in the background for all pools. The threads are daemons,
+	// so they never keep the VM alive
+	private static final ExecutorService prefetcher = Executors
+			.newFixedThreadPool(Math.max(2, Runtime.getRuntime()
+					.availableProcessors()), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "BufferPool prefetcher");
+					t.setDaemon(true);
+					return t;
+				}
+			});
 	
 	/**
 	 * Creates a BufferPool that caches up to numPages pages.
@@ -38,12 +107,111 @@ public class BufferPool {
 	 *            maximum number of pages in this buffer pool.
 	 */
 	public BufferPool(int numPages) {
+		this(numPages, defaultPartitions(numPages));
+	}
+
+	/**
+	 * Creates a BufferPool that caches up to numPages pages and evicts them
+	 * with the given replacement policy.
+	 * 
+	 * @param numPages
+	 *            maximum number of pages in this buffer pool.
+	 * @param policy
+	 *            the page replacement policy.
+	 */
+	public BufferPool(int numPages, ReplacementPolicy.Kind policy) {
+		this(numPages, defaultPartitions(numPages), policy);
+	}
+
+	/**
+	 * Creates a BufferPool that caches up to numPages pages, split into the
+	 * given number of partitions. A single partition behaves like a pool
+	 * guarded by one global latch.
+	 * 
+	 * @param numPages
+	 *            maximum number of pages in this buffer pool.
+	 * @param numPartitions
+	 *            number of independently latched partitions.
+	 */
+	public BufferPool(int numPages, int numPartitions) {
+		this(numPages, numPartitions, DEFAULT_POLICY);
+	}
+
+	/**
+	 * Creates a BufferPool that caches up to numPages pages, split into the
+	 * given number of partitions that each evict their pages with the given
+	 * replacement policy.
+	 * 
+	 * @param numPages
+	 *            maximum number of pages in this buffer pool.
+	 * @param numPartitions
+	 *            number of independently latched partitions.
+	 * @param policy
+	 *            the page replacement policy.
+	 */
+	public BufferPool(int numPages, int numPartitions,
+			ReplacementPolicy.Kind policy) {
+		if (numPartitions < 1 || numPartitions > numPages)
+			throw new IllegalArgumentException("cannot split " + numPages
+					+ " pages into " + numPartitions + " partitions");
+
 		this.numPages = numPages;
-		this.pages = new ArrayList<Page>(numPages);
-		numPagesUsed = 0;
+		this.partitions = new BufferPoolPartition[numPartitions];
+		for (int i = 0; i < numPartitions; i++) {
+			// spread the remainder over the first partitions
+			int capacity = numPages / numPartitions
+					+ (i < numPages % numPartitions ? 1 : 0);
+			partitions[i] = new BufferPoolPartition(capacity, policy);
+		}
+		this.writablePages = new HashMap<TransactionId, Set<PageId>>();
+		this.loadedPages = new HashMap<TransactionId, ArrayList<PageId>>();
 		this.transactionPool = new LockTracker();
 	}
 
+	/**
+	 * @return the number of partitions used for a pool of numPages pages: one
+	 *         per available core, as long as every partition gets at least
+	 *         MIN_PARTITION_PAGES pages.
+	 */
+	static int defaultPartitions(int numPages) {
+		int cores = Runtime.getRuntime().availableProcessors();
+		return Math.max(1, Math.min(cores, numPages / MIN_PARTITION_PAGES));
+	}
+
+	/**
+	 * @return the number of partitions of this pool
+	 */
+	public int getNumPartitions() {
+		return partitions.length;
+	}
+
+	/**
+	 * @return the number of pages this pool caches at most
+	 */
+	public int getNumPages() {
+		return numPages;
+	}
+
+	/**
+	 * @return the number of pages this pool can read in without evicting
+	 *         any
+	 */
+	public int getFreePages() {
+		int used = 0;
+		for (BufferPoolPartition part : partitions)
+			used += part.size();
+		return Math.max(0, numPages - used);
+	}
+
+	/**
+	 * @return the partition that caches the page with the given id
+	 */
+	private BufferPoolPartition partitionFor(PageId pid) {
+		int h = pid.hashCode();
+		h ^= (h >>> 16);
+		return partitions[(h & 0x7fffffff) % partitions.length];
+	}
+
 	/**
 	 * Retrieve the specified page with the associated permissions. Will acquire
 	 * a lock and may block if that lock is held by another transaction.
@@ -61,126 +229,185 @@ public class BufferPool {
 	 * @param perm
 	 *            the requested permissions on the page
 	 */
-	public synchronized Page getPage(TransactionId tid, PageId pid,
-			Permissions perm) throws TransactionAbortedException, DbException {
-		// find page in buffer pool
-		for (Page p : this.pages) {
-			if (p.getId().equals(pid)) {
-				// page already in buffer pool so put it at beginning of list as
-				// it is most recently accessed
-				/*
-				 * If you need an exclusive Lock, check if you can get an
-				 * exclusive Lock for the transaction. If you cannot get it, then 
-				 * wait for some time before trying to obtain lock again.
-				 */
-				if (perm == Permissions.READ_WRITE) {
-					int i = 0;
-					boolean aquired = false;
-					while (i < 200) {
-						if (transactionPool.canTransactionGetXLock(tid, pid)) {
-							transactionPool.giveXLockToTransaction(tid, pid);
-							aquired = true;
-							break;
-						} else
-							try {
-								wait(1);
-							} catch (InterruptedException e) {
-								// TODO Auto-generated catch block
-								e.printStackTrace();
-							}
-						i++;
-					}
-					if (!aquired)
-						throw new TransactionAbortedException();
-				}
-
-				else if (perm == Permissions.READ_ONLY) {
-					int i = 0;
-					boolean aquired = false;
-					while (i < 200) {
-						if (transactionPool.canTransactionGetSLock(tid, pid)) {
-							transactionPool.giveSLockToTransaction(tid, pid);
-							aquired = true;
-							break;
-						} else
-							try {
-								wait(1);
-							} catch (InterruptedException e) {
-								// TODO Auto-generated catch block
-								e.printStackTrace();
-							}
-						i++;
-					}
-					if (!aquired)
-						throw new TransactionAbortedException();
+	public Page getPage(TransactionId tid, PageId pid, Permissions perm)
+			throws TransactionAbortedException, DbException {
+
+		// lock before touching the partition, so that waiting for a lock
+		// never holds up other users of the partition
+		acquireLock(tid, pid, perm);
+
+		boolean writable = perm == Permissions.READ_WRITE && tid != null;
+		if (writable) {
+			synchronized (writablePages) {
+				Set<PageId> pids = writablePages.get(tid);
+				if (pids == null) {
+					pids = new HashSet<PageId>();
+					writablePages.put(tid, pids);
 				}
-
-				this.pages.remove(p);
-				this.pages.add(0, p);
-				return p;
+				pids.add(pid);
 			}
+		}
 
+		return partitionFor(pid).getPage(pid, writable);
+	}
+
+	/**
+	 * Retrieve the specified page for a bulk read that uses the given ring.
+	 * Locks are acquired like in {@link #getPage(TransactionId, PageId,
+	 * Permissions)}. If the page is in the buffer pool it is returned from
+	 * there; otherwise it is returned from the ring, and read from disk into
+	 * the ring if needed, without entering the buffer pool. Pages requested
+	 * with READ_WRITE permissions, or without a ring, are fetched normally.
+	 * 
+	 * @param ring
+	 *            the ring of the bulk read, or null
+	 */
+	public Page getPage(TransactionId tid, PageId pid, Permissions perm,
+			BufferRing ring) throws TransactionAbortedException, DbException {
+		if (ring == null || perm == Permissions.READ_WRITE)
+			return getPage(tid, pid, perm);
+
+		acquireLock(tid, pid, perm);
+
+		Page p = partitionFor(pid).getResidentPage(pid);
+		if (p != null)
+			return p;
+
+		p = ring.get(pid);
+		if (p == null) {
+			DbFile table = Database.getCatalog().getDbFile(pid.getTableId());
+			p = table.readPage(pid);
+			ring.add(p);
 		}
+		ringPagesServed.incrementAndGet();
+		return p;
+	}
 
-		// buffer pool full capacity, so cannot retreive more pages from disk,
-		// instead evict a page!
-		if (numPagesUsed >= numPages)
-			evictPage();
+	/**
+	 * @return a new ring for a bulk read, of the size set with
+	 *         {@link #setRingPages}
+	 */
+	public BufferRing newRing() {
+		return new BufferRing(ringPages);
+	}
 
-		// get page from disk
-		int tableID = pid.getTableId();
-		Catalog catalog = Database.getCatalog();
-		DbFile table = catalog.getDbFile(tableID);
+	/**
+	 * Sets the number of frames of the rings handed out to bulk reads from now
+	 * on.
+	 */
+	public void setRingPages(int ringPages) {
+		if (ringPages < 1)
+			throw new IllegalArgumentException("ring needs at least one frame");
+		this.ringPages = ringPages;
+	}
 
-		Page p = table.readPage(pid);
-		pages.add(0,p);
+	/**
+	 * @return the number of frames of the rings handed out to bulk reads
+	 */
+	public int getRingPages() {
+		return ringPages;
+	}
 
-		transactionPool.createLockForPage(pid);
-		
-		if (perm == Permissions.READ_WRITE) {
-			int i = 0;
-			boolean aquired = false;
-			while (i < 200) {
-				if (transactionPool.canTransactionGetXLock(tid, pid)) {
-					transactionPool.giveXLockToTransaction(tid, pid);
-					aquired = true;
-					break;
-				} else
-					try {
-						wait(1);
-					} catch (InterruptedException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
-				i++;
+	/**
+	 * @return the number of pages bulk reads got from their rings, instead of
+	 *         from the buffer pool
+	 */
+	public long getRingPagesServed() {
+		return ringPagesServed.get();
+	}
+
+	/**
+	 * Asks for a page to be read into the buffer pool in the background,
+	 * because it is likely to be requested soon. Does nothing if the page is
+	 * resident already. No lock is acquired: the page is only cached, and
+	 * whoever requests it still has to lock it through getPage. The page is
+	 * not read if that would take evicting a dirty or pinned page.
+	 * 
+	 * @param pid
+	 *            the ID of the page to read
+	 */
+	public void prefetchPage(final PageId pid) {
+		final BufferPoolPartition partition = partitionFor(pid);
+		if (partition.isResident(pid))
+			return;
+
+		prefetcher.execute(new Runnable() {
+			public void run() {
+				try {
+					if (partition.prefetchPage(pid))
+						pagesPrefetched.incrementAndGet();
+				} catch (RuntimeException e) {
+					// only a hint; the page is read when it is requested
+				}
 			}
-			if (!aquired)
-				throw new TransactionAbortedException();
-		}
+		});
+	}
+
+	/**
+	 * Sets how many pages sequential scans read ahead of the page they are
+	 * on; 0 turns prefetching off.
+	 */
+	public void setPrefetchPages(int prefetchPages) {
+		if (prefetchPages < 0)
+			throw new IllegalArgumentException("negative prefetch depth");
+		this.prefetchPages = prefetchPages;
+	}
+
+	/**
+	 * @return how many pages sequential scans read ahead
+	 */
+	public int getPrefetchPages() {
+		return prefetchPages;
+	}
 
-		else if (perm == Permissions.READ_ONLY) {
-			int i = 0;
-			boolean aquired = false;
-			while (i < 200) {
-				if (transactionPool.canTransactionGetSLock(tid, pid)) {
-					transactionPool.giveSLockToTransaction(tid, pid);
-					aquired = true;
-					break;
-				} else
-					try {
-						wait(1);
-					} catch (InterruptedException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
-				i++;
+	/**
+	 * @return the number of pages read into the pool by the prefetcher
+	 */
+	public long getPagesPrefetched() {
+		return pagesPrefetched.get();
+	}
+
+	/**
+	 * @return true if the page with the given id is in the buffer pool
+	 */
+	boolean isResident(PageId pid) {
+		return partitionFor(pid).isResident(pid);
+	}
+
+	/**
+	 * Acquires a lock of the type implied by perm on a page for a transaction,
+	 * blocking until the lock is granted or the transaction is aborted to
+	 * break a deadlock. Requests without a transaction are not locked.
+	 */
+	private void acquireLock(TransactionId tid, PageId pid, Permissions perm)
+			throws TransactionAbortedException {
+		if (tid == null)
+			return;
+
+		LockType type = perm == Permissions.READ_WRITE ? LockType.EXCLUSIVE
+				: LockType.SHARED;
+		transactionPool.acquireLock(tid, pid, type);
+	}
+
+	/**
+	 * Locks a page that a bulk insert of tid is appending to its file, and
+	 * remembers it so that the page is emptied again if tid aborts. The page
+	 * does not enter the buffer pool.
+	 */
+	void lockLoadedPage(TransactionId tid, PageId pid)
+			throws TransactionAbortedException {
+		if (tid == null)
+			return;
+
+		acquireLock(tid, pid, Permissions.READ_WRITE);
+		synchronized (loadedPages) {
+			ArrayList<PageId> pids = loadedPages.get(tid);
+			if (pids == null) {
+				pids = new ArrayList<PageId>();
+				loadedPages.put(tid, pids);
 			}
-			if (!aquired)
-				throw new TransactionAbortedException();
+			pids.add(pid);
 		}
-		numPagesUsed++; // increment pages in buffer pool
-		return p;
-
 	}
 
 	/**
@@ -193,7 +420,7 @@ public class BufferPool {
 	 * @param pid
 	 *            the ID of the page to unlock
 	 */
-	public synchronized  void releasePage(TransactionId tid, PageId pid) {
+	public void releasePage(TransactionId tid, PageId pid) {
 		// some code goes here
 		// not necessary for lab1|lab2
 		transactionPool.releaseLock(tid, pid);
@@ -205,7 +432,7 @@ public class BufferPool {
 	 * @param tid
 	 *            the ID of the transaction requesting the unlock
 	 */
-	public  synchronized  void transactionComplete(TransactionId tid) throws IOException {
+	public void transactionComplete(TransactionId tid) throws IOException {
 		// some code goes here
 		// not necessary for lab1|lab2
 		transactionComplete(tid, true);
@@ -215,12 +442,33 @@ public class BufferPool {
 	/**
 	 * Return true if the specified transaction has a lock on the specified page
 	 */
-	public  synchronized boolean holdsLock(TransactionId tid, PageId p) {
+	public boolean holdsLock(TransactionId tid, PageId p) {
 		// some code goes here
 		// not necessary for lab1|lab2
 		return transactionPool.hasLock(tid, p);
 	}
 
+	/**
+	 * Chooses how the transaction aborted to break a deadlock is picked.
+	 */
+	public void setDeadlockVictimPolicy(LockTracker.VictimPolicy policy) {
+		transactionPool.setVictimPolicy(policy);
+	}
+
+	/**
+	 * @return the number of deadlocks detected so far
+	 */
+	public long getDeadlocksDetected() {
+		return transactionPool.getDeadlocksDetected();
+	}
+
+	/**
+	 * @return the number of transactions aborted so far to break deadlocks
+	 */
+	public long getDeadlockVictimsAborted() {
+		return transactionPool.getVictimsAborted();
+	}
+
 	/**
 	 * Commit or abort a given transaction; release all locks associated to the
 	 * transaction.
@@ -230,41 +478,46 @@ public class BufferPool {
 	 * @param commit
 	 *            a flag indicating whether we should commit or abort
 	 */
-	public synchronized  void transactionComplete(TransactionId tid, boolean commit)
+	public void transactionComplete(TransactionId tid, boolean commit)
 			throws IOException {
 		// some code goes here
 		// not necessary for lab1|lab2
 
-		if (commit) { // transaction has to commit, release lock and flush
-			// pages
-			// dirtied by this transaction
-
-			this.flushPages(tid);
-			transactionPool.releaseAllLocksForTransaction(tid);
-		} else {
-
-			// transaction has to abort to release locks and remove pages
-			// dirtied by the transaction from the buffer pool
-			List<Page> pagesToRemove = new ArrayList<Page>();
-			for (Page p : this.pages) {
-				TransactionId t = p.isDirty();
-
-				if (t != null) {
-					if (t.equals(tid)) {
-						pagesToRemove.add(p);
-					}
+		// on commit flush the pages dirtied by this transaction, on abort
+		// remove them from the buffer pool
+		Set<PageId> pids;
+		synchronized (writablePages) {
+			pids = writablePages.remove(tid);
+		}
+		if (pids != null) {
+			for (PageId pid : pids) {
+				partitionFor(pid).completeTransaction(pid, tid, commit);
+				// an aborted insert may have filled the page
+				if (!commit) {
+					DbFile file = Database.getCatalog().getDbFile(
+							pid.getTableId());
+					if (file instanceof HeapFile)
+						((HeapFile) file).rolledBack(pid);
 				}
-
 			}
+		}
 
-			for (Page p : pagesToRemove) {
-				this.pages.remove(p);
-				this.numPagesUsed--;
+		// the pages of an aborted bulk insert are on disk already: empty
+		// them, and drop any copies read into the pool (e.g. by a prefetch)
+		ArrayList<PageId> loaded;
+		synchronized (loadedPages) {
+			loaded = loadedPages.remove(tid);
+		}
+		if (loaded != null && !commit) {
+			for (PageId pid : loaded) {
+				HeapFile file = (HeapFile) Database.getCatalog().getDbFile(
+						pid.getTableId());
+				file.unload(pid);
+				discardPage(pid);
 			}
-
-			transactionPool.releaseAllLocksForTransaction(tid);
 		}
 
+		transactionPool.releaseAllLocksForTransaction(tid);
 	}
 
 	/**
@@ -283,7 +536,7 @@ public class BufferPool {
 	 * @param t
 	 *            the tuple to add
 	 */
-	public  synchronized void insertTuple(TransactionId tid, int tableId, Tuple t)
+	public void insertTuple(TransactionId tid, int tableId, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
 
 		Catalog catalog = Database.getCatalog();
@@ -301,6 +554,30 @@ public class BufferPool {
 
 	}
 
+	/**
+	 * Adds all the tuples of child to the specified table on behalf of
+	 * transaction tid, as one bulk load. Tuples added to a HeapFile are packed
+	 * into new pages that are written straight to the file with large writes,
+	 * instead of being added one at a time to pages of the pool; see
+	 * {@link HeapFile#bulkInsert}. Tuples added to other files go through
+	 * insertTuple.
+	 * 
+	 * @return the number of tuples added
+	 */
+	public int bulkInsert(TransactionId tid, int tableId, DbIterator child)
+			throws DbException, IOException, TransactionAbortedException {
+		DbFile table = Database.getCatalog().getDbFile(tableId);
+		if (table instanceof HeapFile)
+			return ((HeapFile) table).bulkInsert(tid, child);
+
+		int count = 0;
+		while (child.hasNext()) {
+			insertTuple(tid, tableId, child.next());
+			count++;
+		}
+		return count;
+	}
+
 	/**
 	 * Remove the specified tuple from the buffer pool. Will acquire a write
 	 * lock on the page the tuple is removed from. May block if the lock cannot
@@ -316,7 +593,7 @@ public class BufferPool {
 	 * @param t
 	 *            the tuple to add
 	 */
-	public synchronized void deleteTuple(TransactionId tid, Tuple t) throws DbException,
+	public void deleteTuple(TransactionId tid, Tuple t) throws DbException,
 			TransactionAbortedException {
 		
 		PageId pid = t.getRecordId().getPageId();
@@ -340,11 +617,10 @@ public class BufferPool {
 	 * writes dirty data to disk so will break simpledb if running in NO STEAL
 	 * mode.
 	 */
-	public synchronized void flushAllPages() throws IOException {
+	public void flushAllPages() throws IOException {
 
-		for (Page p : this.pages) {
-			this.flushPage(p.getId());
-		}
+		for (BufferPoolPartition partition : partitions)
+			partition.flushAllPages();
 
 	}
 
@@ -353,76 +629,28 @@ public class BufferPool {
 	 * manager to ensure that the buffer pool doesn't keep a rolled back page in
 	 * its cache.
 	 */
-	public synchronized void discardPage(PageId pid) {
-		// some code goes here
-		// only necessary for lab5
-	}
-
-	/**
-	 * Flushes a certain page to disk
-	 * 
-	 * @param pid
-	 *            an ID indicating the page to flush
-	 */
-	private synchronized void flushPage(PageId pid) throws IOException {
-
-		int tableid = pid.getTableId();
-
-		Catalog catalog = Database.getCatalog();
-		DbFile table = catalog.getDbFile(tableid);
-		for (Page p : this.pages) {
-			if (p.getId().equals(pid)) {
-				table.writePage(p);
-				this.transactionPool.releaseAllLocksOnPage(pid);
-				p.markDirty(false, null);
-				break;
-			}
-		}
-
+	public void discardPage(PageId pid) {
+		partitionFor(pid).discardPage(pid);
 	}
 
 	/**
 	 * Write all pages of the specified transaction to disk.
 	 */
-	public synchronized void flushPages(TransactionId tid) throws IOException {
+	public void flushPages(TransactionId tid) throws IOException {
 		// some code goes here
 		// not necessary for lab1|lab2
 
 		// flush all pages dirtied by this transaction
-		for (Page p : this.pages) {
-
-			TransactionId t = p.isDirty();
-			if (t != null) {
-				if (t.equals(tid))
-					this.flushPage(p.getId());
-				;
-			}
-
-		}
-
-	}
-
-	/**
-	 * Discards a page from the buffer pool. Flushes the page to disk to ensure
-	 * dirty pages are updated on disk.
-	 */
-	private synchronized void evictPage() throws DbException {
-
-		for (int i = numPages - 1; i >= 0; i--) {
-			Page page = this.pages.get(i);
-			// PageId pageid = page.getId();
-
-			if (page.isDirty() == null) {
-				// if not dirty, evict!
-				this.pages.remove(i);
-				numPagesUsed--;
+		ArrayList<PageId> pids;
+		synchronized (writablePages) {
+			Set<PageId> writable = writablePages.get(tid);
+			if (writable == null)
 				return;
-			}
-
+			pids = new ArrayList<PageId>(writable);
 		}
-		// all pages in buffer pool dirty so cannot evict any, throw exception!
 
-		throw new DbException("All pages dirty, cannot evict!");
+		for (PageId pid : pids)
+			partitionFor(pid).flushPage(pid, tid);
 
 	}
 
@@ -0,0 +1,329 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * One partition of the BufferPool. Pages are hashed to partitions by their
+ * PageId, and every partition has its own frame table, replacement policy and
+ * latch (its monitor), so accesses to pages that live in different partitions
+ * never contend with each other. Pages are read from disk without holding the
+ * latch, so a miss does not hold up the hits of its partition.
+ *
+ * @see BufferPool
+ */
+class BufferPoolPartition {
+
+	private final int capacity;
+
+	// frame table: maps the id of every resident page to the frame holding it
+	private final HashMap<PageId, Frame> frames;
+
+	// decides which page to evict; told about every page added, prefetched,
+	// hit and removed
+	private final ReplacementPolicy policy;
+
+	// bumped whenever a page of the partition is written to disk or dropped
+	// with changes, so a read from disk can tell that its copy may be stale
+	private long writes;
+
+	// pages being read from disk right now, by a request or the prefetcher;
+	// other requests for them wait for the read instead of reading them again
+	private final HashSet<PageId> reading = new HashSet<PageId>();
+
+	// pages also read by a request that stopped waiting for the read in
+	// flight, which may have added, written and evicted the page before the
+	// first read completed
+	private final HashSet<PageId> raced = new HashSet<PageId>();
+
+	/**
+	 * A slot of the partition holding one resident page.
+	 */
+	private static class Frame {
+		Page page;
+		// set while a live transaction holds the page with READ_WRITE
+		// permissions, so it is not evicted under the transaction's feet
+		boolean pinned;
+
+		Frame(Page page) {
+			this.page = page;
+		}
+	}
+
+	// only clean, unpinned pages may be evicted
+	private final ReplacementPolicy.Frames evictable = new ReplacementPolicy.Frames() {
+		public boolean isEvictable(PageId pid) {
+			Frame f = frames.get(pid);
+			return f != null && f.page.isDirty() == null && !f.pinned;
+		}
+	};
+
+	/**
+	 * Creates a partition that caches up to capacity pages and evicts them
+	 * with a policy of the given kind.
+	 */
+	BufferPoolPartition(int capacity, ReplacementPolicy.Kind policy) {
+		this.capacity = capacity;
+		this.frames = new HashMap<PageId, Frame>();
+		this.policy = policy.create(capacity);
+	}
+
+	/**
+	 * Returns the page with the given id, reading it from disk (and evicting
+	 * a page if the partition is full) if it is not resident. The read from
+	 * disk happens without the latch, so requests for resident pages of the
+	 * partition do not wait for it, and requests for the same page wait for
+	 * the read in flight instead of reading the page a second time.
+	 *
+	 * @param pin
+	 *            true if the page is fetched for writing and must stay
+	 *            resident until its transaction completes
+	 */
+	Page getPage(PageId pid, boolean pin) throws DbException {
+		while (true) {
+			boolean first;
+			long before;
+			synchronized (this) {
+				Frame f = frames.get(pid);
+				while (f == null && reading.contains(pid)) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						// read the page here instead, but leave the thread
+						// interrupted
+						Thread.currentThread().interrupt();
+						break;
+					}
+					f = frames.get(pid);
+				}
+				if (f != null)
+					return hit(f, pin);
+
+				first = reading.add(pid);
+				if (!first)
+					raced.add(pid);
+				before = writes;
+			}
+
+			Page p;
+			try {
+				DbFile table = Database.getCatalog().getDbFile(pid.getTableId());
+				p = table.readPage(pid);
+			} catch (RuntimeException e) {
+				if (first)
+					doneReading(pid);
+				throw e;
+			}
+
+			synchronized (this) {
+				// only a read that raced with another may be stale
+				boolean stale = first ? doneReading(pid) && writes != before
+						: writes != before;
+				Frame f = frames.get(pid);
+				if (f != null)
+					return hit(f, pin);
+				if (!stale) {
+					if (frames.size() >= capacity)
+						evictPage();
+					f = new Frame(p);
+					frames.put(pid, f);
+					policy.pageAdded(pid);
+					if (pin)
+						f.pinned = true;
+					return f.page;
+				}
+			}
+			// the copy may be older than a write of the page: read it again
+		}
+	}
+
+	/**
+	 * Counts a request for a resident page as a hit.
+	 *
+	 * @return the page
+	 */
+	private Page hit(Frame f, boolean pin) {
+		policy.pageAccessed(f.page.getId());
+		if (pin)
+			f.pinned = true;
+		return f.page;
+	}
+
+	/**
+	 * Ends a read of a page from disk, waking up the requests waiting for it.
+	 *
+	 * @return true if another request read the page without waiting for it
+	 */
+	private synchronized boolean doneReading(PageId pid) {
+		reading.remove(pid);
+		notifyAll();
+		return raced.remove(pid);
+	}
+
+	/**
+	 * Returns the page with the given id if it is resident, counting the
+	 * request as a hit, and null otherwise.
+	 */
+	synchronized Page getResidentPage(PageId pid) {
+		Frame f = frames.get(pid);
+		if (f == null)
+			return null;
+		policy.pageAccessed(pid);
+		return f.page;
+	}
+
+	/**
+	 * @return true if the page with the given id is resident
+	 */
+	synchronized boolean isResident(PageId pid) {
+		return frames.containsKey(pid);
+	}
+
+	/**
+	 * Reads a page that is not resident into the partition, if that does not
+	 * take evicting a dirty or pinned page. The read from disk happens without
+	 * the latch; the page is dropped if the partition wrote or discarded any
+	 * page in the meantime, as the read may then have seen a stale page.
+	 *
+	 * @return true if the page was added to the partition
+	 */
+	boolean prefetchPage(PageId pid) {
+		long before;
+		synchronized (this) {
+			if (frames.containsKey(pid) || !reading.add(pid))
+				return false;
+			before = writes;
+		}
+
+		Page p;
+		try {
+			DbFile table = Database.getCatalog().getDbFile(pid.getTableId());
+			p = table.readPage(pid);
+		} catch (RuntimeException e) {
+			doneReading(pid);
+			throw e;
+		}
+
+		synchronized (this) {
+			// wake up readers waiting for the page, which find it resident
+			// unless it is dropped here; the page is not referenced until one
+			// of them requests it
+			doneReading(pid);
+			if (frames.containsKey(pid) || writes != before)
+				return false;
+			if (frames.size() >= capacity) {
+				PageId victim = policy.chooseVictim(evictable);
+				if (victim == null)
+					return false;
+				remove(victim);
+			}
+			frames.put(pid, new Frame(p));
+			policy.pageLoaded(pid);
+			return true;
+		}
+	}
+
+	/**
+	 * Writes a page to disk if it is dirty.
+	 */
+	synchronized void flushPage(PageId pid) throws IOException {
+		Frame f = frames.get(pid);
+		if (f != null)
+			flush(f);
+	}
+
+	/**
+	 * Writes a page to disk if it was last dirtied by tid.
+	 */
+	synchronized void flushPage(PageId pid, TransactionId tid)
+			throws IOException {
+		Frame f = frames.get(pid);
+		if (f != null && isDirtiedBy(f.page, tid))
+			flush(f);
+	}
+
+	/**
+	 * Writes all dirty pages of this partition to disk.
+	 */
+	synchronized void flushAllPages() throws IOException {
+		for (Frame f : frames.values())
+			flush(f);
+	}
+
+	/**
+	 * Finishes tid's use of a page it fetched for writing: if tid dirtied the
+	 * page, it is written to disk on commit, where its contents become its
+	 * before-image, and dropped on abort. Either way the page no longer needs
+	 * to stay resident.
+	 */
+	synchronized void completeTransaction(PageId pid, TransactionId tid,
+			boolean commit) throws IOException {
+		Frame f = frames.get(pid);
+		if (f == null)
+			return;
+
+		f.pinned = false;
+		if (isDirtiedBy(f.page, tid)) {
+			if (commit) {
+				flush(f);
+				f.page.setBeforeImage();
+			} else {
+				discardPage(pid);
+			}
+		}
+	}
+
+	/**
+	 * Removes a page from the partition without writing it.
+	 */
+	synchronized void discardPage(PageId pid) {
+		writes++;
+		remove(pid);
+	}
+
+	/**
+	 * @return the number of pages resident in this partition
+	 */
+	synchronized int size() {
+		return frames.size();
+	}
+
+	private void flush(Frame f) throws IOException {
+		Page p = f.page;
+		if (p.isDirty() == null)
+			return;
+
+		DbFile table = Database.getCatalog().getDbFile(
+				p.getId().getTableId());
+		table.writePage(p);
+		p.markDirty(false, null);
+		writes++;
+	}
+
+	private void remove(PageId pid) {
+		if (frames.remove(pid) != null)
+			policy.pageRemoved(pid);
+	}
+
+	/**
+	 * Discards the page chosen by the replacement policy among the pages that
+	 * are neither dirty nor pinned.
+	 */
+	private void evictPage() throws DbException {
+		PageId victim = policy.chooseVictim(evictable);
+		// all pages in the partition dirty so cannot evict any
+		if (victim == null)
+			throw new DbException("All pages dirty, cannot evict!");
+		// the page is clean, so dropping it does not count as a write
+		remove(victim);
+	}
+
+	/**
+	 * @return true if the page is dirty and was last dirtied by tid
+	 */
+	private static boolean isDirtiedBy(Page p, TransactionId tid) {
+		TransactionId dirtier = p.isDirty();
+		return dirtier != null && dirtier.equals(tid);
+	}
+}
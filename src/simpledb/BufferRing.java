@@ -0,0 +1,64 @@
+package simpledb;
+
+/**
+ * A small private ring of page frames used by a bulk read, such as a
+ * sequential scan of a large table. Pages the scan finds in the BufferPool
+ * are used from there; all other pages are read into the ring, each one
+ * replacing the oldest page of the ring, and never enter the BufferPool. A
+ * scan of any size therefore cannot displace the pages cached in the pool.
+ * <p>
+ * Only clean pages read with READ_ONLY permissions ever live in a ring. A
+ * ring belongs to a single iterator and is not thread safe.
+ *
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, BufferRing)
+ */
+public class BufferRing {
+
+	private final Page[] frames;
+	// frame the next page is read into
+	private int next;
+
+	/**
+	 * Creates a ring of the given number of frames.
+	 */
+	public BufferRing(int numPages) {
+		if (numPages < 1)
+			throw new IllegalArgumentException("ring needs at least one frame");
+		this.frames = new Page[numPages];
+	}
+
+	/**
+	 * @return the page with the given id if it is in the ring, null otherwise
+	 */
+	Page get(PageId pid) {
+		for (Page p : frames) {
+			if (p != null && p.getId().equals(pid))
+				return p;
+		}
+		return null;
+	}
+
+	/**
+	 * Puts a page into the ring in place of its oldest page.
+	 */
+	void add(Page p) {
+		frames[next] = p;
+		next = (next + 1) % frames.length;
+	}
+
+	/**
+	 * Empties the ring.
+	 */
+	void clear() {
+		for (int i = 0; i < frames.length; i++)
+			frames[i] = null;
+		next = 0;
+	}
+
+	/**
+	 * @return the number of frames of the ring
+	 */
+	public int capacity() {
+		return frames.length;
+	}
+}
@@ -0,0 +1,84 @@
+package simpledb;
+
+import java.util.HashMap;
+
+/**
+ * CLOCK (second chance) replacement. Pages sit in a circular array of slots
+ * with a reference bit each; a hit only sets the bit, so hits never reorder
+ * anything. To find a victim the hand sweeps the slots, clearing set bits and
+ * stopping at the first evictable page whose bit is already clear.
+ */
+class ClockPolicy implements ReplacementPolicy {
+
+	private final PageId[] slots;
+	private final boolean[] referenced;
+	// slot of every resident page
+	private final HashMap<PageId, Integer> slotOf;
+	// unused slots, as a stack
+	private final int[] free;
+	private int numFree;
+	private int hand;
+
+	ClockPolicy(int capacity) {
+		this.slots = new PageId[capacity];
+		this.referenced = new boolean[capacity];
+		this.slotOf = new HashMap<PageId, Integer>();
+		this.free = new int[capacity];
+		for (int i = 0; i < capacity; i++)
+			free[i] = capacity - 1 - i;
+		this.numFree = capacity;
+	}
+
+	public void pageAdded(PageId pid) {
+		add(pid, true);
+	}
+
+	/**
+	 * A prefetched page gets its reference bit when it is requested.
+	 */
+	public void pageLoaded(PageId pid) {
+		add(pid, false);
+	}
+
+	private void add(PageId pid, boolean ref) {
+		if (numFree == 0)
+			throw new IllegalStateException("more pages than slots");
+		int slot = free[--numFree];
+		slots[slot] = pid;
+		referenced[slot] = ref;
+		slotOf.put(pid, slot);
+	}
+
+	public void pageAccessed(PageId pid) {
+		Integer slot = slotOf.get(pid);
+		if (slot != null)
+			referenced[slot] = true;
+	}
+
+	public void pageRemoved(PageId pid) {
+		Integer slot = slotOf.remove(pid);
+		if (slot == null)
+			return;
+		slots[slot] = null;
+		referenced[slot] = false;
+		free[numFree++] = slot;
+	}
+
+	public PageId chooseVictim(Frames frames) {
+		// the first sweep may only clear reference bits, the second one then
+		// finds every evictable page with its bit clear
+		for (int i = 0; i < 2 * slots.length; i++) {
+			int slot = hand;
+			hand = (hand + 1) % slots.length;
+
+			PageId pid = slots[slot];
+			if (pid == null)
+				continue;
+			if (referenced[slot])
+				referenced[slot] = false;
+			else if (frames.isEvictable(pid))
+				return pid;
+		}
+		return null;
+	}
+}
@@ -54,6 +54,35 @@ public class Database {
         return _instance._bufferpool;
     }
 
+    /** Method used for testing -- create a new instance of the
+        buffer pool, split into the given number of partitions, and
+        return it
+    */
+    public static BufferPool resetBufferPool(int pages, int partitions) {
+        _instance._bufferpool = new BufferPool(pages, partitions);
+        return _instance._bufferpool;
+    }
+
+    /** Method used for testing -- create a new instance of the
+        buffer pool that evicts pages with the given replacement
+        policy, and return it
+    */
+    public static BufferPool resetBufferPool(int pages,
+            ReplacementPolicy.Kind policy) {
+        _instance._bufferpool = new BufferPool(pages, policy);
+        return _instance._bufferpool;
+    }
+
+    /** Method used for testing -- create a new instance of the
+        buffer pool with the given number of partitions and
+        replacement policy, and return it
+    */
+    public static BufferPool resetBufferPool(int pages, int partitions,
+            ReplacementPolicy.Kind policy) {
+        _instance._bufferpool = new BufferPool(pages, partitions, policy);
+        return _instance._bufferpool;
+    }
+
     //reset the database, used for unit tests only.
     public static void reset() {
     	_instance = new Database();
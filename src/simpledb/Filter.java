@@ -7,6 +7,7 @@ import java.util.*;
 public class Filter extends Operator {
 	Predicate p;
 	DbIterator child;
+	boolean pushedDown; //true if the child scan applies p
     /**
      * Constructor accepts a predicate to apply and a child
      * operator to read tuples to filter from.
@@ -25,6 +26,9 @@ public class Filter extends Operator {
 
     public void open()
         throws DbException, NoSuchElementException, TransactionAbortedException {
+        // a scan tests p on the stored tuples, without building those that fail
+        if (!pushedDown && child instanceof SeqScan)
+            pushedDown = ((SeqScan) child).pushDown(p);
         child.open();
     }
 
@@ -49,7 +53,7 @@ public class Filter extends Operator {
         throws NoSuchElementException, TransactionAbortedException, DbException {
         while (child.hasNext()){
         	Tuple t=child.next();
-        	if (p.filter(t))
+        	if (pushedDown || p.filter(t))
         		return t;
         }
         return null;
@@ -0,0 +1,209 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+
+/**
+ * The free-space map of a HeapFile: one bit per page, set if the page may
+ * have an empty slot. HeapFile.insertTuple looks for a page with room here
+ * instead of reading every page of the file.
+ * <p>
+ * The map is only a hint. A page marked free may have been filled since, so
+ * inserters check the page itself and mark it full if it is; a page marked
+ * full always is: aborted inserts mark their pages free again, and a map
+ * left over from a crash is rebuilt when it is next opened.
+ * <p>
+ * The map is kept in a file next to the HeapFile's, as the number of pages it
+ * covers and a stamp of the HeapFile followed by the bitmap, and every change
+ * is written through. If that file cannot be written the map is only kept in
+ * memory. The stamp holds the length and modification time of the HeapFile
+ * when the map was last closed, and is cleared while the map is open: a map
+ * that was not closed, e.g. after a crash, or whose HeapFile has been
+ * replaced since, starts out empty.
+ */
+class FreeSpaceMap {
+
+	// bytes before the bitmap in the file: the number of pages, then the
+	// length and modification time of the HeapFile
+	private static final int HEADER_SIZE = 20;
+
+	private final BitSet free;
+	private int numPages;
+	// no page below this one is marked free
+	private int lowest;
+	// null if the map is not persisted
+	private FileChannel channel;
+	// the HeapFile the map describes
+	private final File dataFile;
+
+	/**
+	 * Opens the map of dataFile stored in the given file, or starts an empty
+	 * one if there is none or it does not match dataFile.
+	 */
+	FreeSpaceMap(File file, File dataFile) {
+		this.dataFile = dataFile;
+		BitSet bits = new BitSet();
+		try {
+			channel = new RandomAccessFile(file, "rw").getChannel();
+			long size = channel.size();
+			ByteBuffer buf = ByteBuffer.allocate((int) size);
+			while (buf.hasRemaining() && channel.read(buf) >= 0)
+				;
+			buf.flip();
+			if (size >= HEADER_SIZE && buf.getLong(4) == dataFile.length()
+					&& buf.getLong(12) == dataFile.lastModified()) {
+				numPages = Math.min(buf.getInt(0),
+						(int) (size - HEADER_SIZE) * 8);
+				buf.position(HEADER_SIZE);
+				bits = BitSet.valueOf(buf);
+				bits.clear(numPages, Math.max(numPages, bits.length()));
+				// until the map is closed, the HeapFile may change under it
+				stamp(-1, -1);
+			} else {
+				channel.truncate(0);
+			}
+		} catch (IOException e) {
+			channel = null;
+			numPages = 0;
+			bits = new BitSet();
+		}
+		this.free = bits;
+	}
+
+	/**
+	 * @return the number of pages the map knows about; pages of the file past
+	 *         these have to be added with setFree
+	 */
+	synchronized int numPages() {
+		return numPages;
+	}
+
+	/**
+	 * Forgets all pages, e.g. because the map is older than the file.
+	 */
+	synchronized void clear() {
+		free.clear();
+		numPages = 0;
+		lowest = 0;
+		if (channel == null)
+			return;
+		try {
+			channel.truncate(0);
+		} catch (IOException e) {
+			e.printStackTrace();
+			channel = null;
+		}
+	}
+
+	/**
+	 * @return the number of a page that may have room, or -1 if there is none
+	 */
+	synchronized int findFree() {
+		int i = free.nextSetBit(lowest);
+		lowest = i < 0 ? numPages : i;
+		return i;
+	}
+
+	/**
+	 * Marks a page as possibly having room, or as full. Pages past the end of
+	 * the map are added to it.
+	 */
+	synchronized void setFree(int pgNo, boolean hasRoom) {
+		boolean grown = pgNo >= numPages;
+		if (!grown && free.get(pgNo) == hasRoom)
+			return;
+
+		free.set(pgNo, hasRoom);
+		if (hasRoom)
+			lowest = Math.min(lowest, pgNo);
+		if (grown)
+			numPages = pgNo + 1;
+		persist(pgNo, grown);
+	}
+
+	/**
+	 * Marks the pages from first (inclusive) to last (exclusive) as possibly
+	 * having room, or as full, like setFree does for a single page, with one
+	 * write for all of them.
+	 */
+	synchronized void setFree(int first, int last, boolean hasRoom) {
+		if (first >= last)
+			return;
+		boolean grown = last > numPages;
+		free.set(first, last, hasRoom);
+		if (hasRoom)
+			lowest = Math.min(lowest, first);
+		if (grown)
+			numPages = last;
+		persist(first, last - 1, grown);
+	}
+
+	/**
+	 * Closes the file of the map, stamping it with the length and
+	 * modification time of the HeapFile. The HeapFile must not be written
+	 * after this until the map is opened again.
+	 */
+	synchronized void close() throws IOException {
+		if (channel != null) {
+			stamp(dataFile.length(), dataFile.lastModified());
+			channel.close();
+			channel = null;
+		}
+	}
+
+	/**
+	 * Writes the stamp of the HeapFile into the header of the map's file.
+	 */
+	private void stamp(long length, long modified) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE);
+		buf.putInt(0, numPages);
+		buf.putLong(4, length);
+		buf.putLong(12, modified);
+		write(buf, 0);
+	}
+
+	/**
+	 * Writes the byte of the bitmap holding the given page, and the number of
+	 * pages if it has grown.
+	 */
+	private void persist(int pgNo, boolean grown) {
+		persist(pgNo, pgNo, grown);
+	}
+
+	/**
+	 * Writes the bytes of the bitmap holding the pages from first to last
+	 * (both inclusive), and the number of pages if it has grown.
+	 */
+	private void persist(int first, int last, boolean grown) {
+		if (channel == null)
+			return;
+
+		byte[] bytes = new byte[last / 8 - first / 8 + 1];
+		int base = first / 8 * 8;
+		for (int i = 0; i < bytes.length * 8; i++) {
+			if (free.get(base + i))
+				bytes[i / 8] |= 1 << (i % 8);
+		}
+		try {
+			write(ByteBuffer.wrap(bytes), HEADER_SIZE + first / 8);
+			if (grown) {
+				ByteBuffer count = ByteBuffer.allocate(4);
+				count.putInt(0, numPages);
+				write(count, 0);
+			}
+		} catch (IOException e) {
+			// the map is only a hint: keep it in memory
+			e.printStackTrace();
+			channel = null;
+		}
+	}
+
+	private void write(ByteBuffer buf, long offset) throws IOException {
+		while (buf.hasRemaining())
+			channel.write(buf, offset + buf.position());
+	}
+}
@@ -0,0 +1,145 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * Numbers the distinct values of the group-by field of the tuples of an
+ * aggregate, so that aggregators can keep the state of each group in
+ * primitive arrays indexed by group. Groups are numbered from 0 in the order
+ * their first tuple is seen.
+ * <p>
+ * Values are found with an open-addressing hash table with linear probing,
+ * which holds group numbers; int values are kept and compared as ints, so
+ * looking up the group of a tuple read from a page decodes no field.
+ */
+class GroupTable {
+
+	private final int gbfield;
+	private final boolean intKeys;
+
+	// group + 1 of each slot of the hash table, 0 for empty slots
+	private int[] slots = new int[16];
+	// values and hashes of the groups, by group
+	private int[] ints;
+	private Field[] fields;
+	private int[] hashes = new int[8];
+	private int size;
+
+	/**
+	 * @param gbfield
+	 *            the group-by field of the tuples
+	 * @param gbfieldtype
+	 *            the type of the group-by field
+	 */
+	GroupTable(int gbfield, Type gbfieldtype) {
+		this.gbfield = gbfield;
+		this.intKeys = gbfieldtype == Type.INT_TYPE;
+		if (intKeys)
+			ints = new int[8];
+		else
+			fields = new Field[8];
+	}
+
+	/**
+	 * @return the number of groups
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return the group-by value of a group
+	 */
+	Field key(int group) {
+		return intKeys ? new IntField(ints[group]) : fields[group];
+	}
+
+	/**
+	 * @return the group of a tuple, a new one if no tuple of its group has
+	 *         been seen yet
+	 */
+	int find(Tuple t) {
+		return find(t, true);
+	}
+
+	/**
+	 * @return the group of a tuple; if no tuple of its group has been seen
+	 *         yet, a new group if add is true, and -1 otherwise
+	 */
+	int find(Tuple t, boolean add) {
+		if (intKeys)
+			return find(t.getInt(gbfield), add);
+		return find(t.getField(gbfield), add);
+	}
+
+	/**
+	 * @return the group of a group-by value; if no tuple of its group has
+	 *         been seen yet, a new group if add is true, and -1 otherwise
+	 */
+	int find(Field key, boolean add) {
+		if (intKeys)
+			return find(((IntField) key).getValue(), add);
+		int h = mix(key.hashCode());
+		int mask = slots.length - 1;
+		for (int i = h & mask;; i = (i + 1) & mask) {
+			int g = slots[i] - 1;
+			if (g < 0)
+				return add ? add(i, h, 0, key) : -1;
+			if (hashes[g] == h && fields[g].equals(key))
+				return g;
+		}
+	}
+
+	private int find(int v, boolean add) {
+		int h = mix(v);
+		int mask = slots.length - 1;
+		for (int i = h & mask;; i = (i + 1) & mask) {
+			int g = slots[i] - 1;
+			if (g < 0)
+				return add ? add(i, h, v, null) : -1;
+			if (ints[g] == v)
+				return g;
+		}
+	}
+
+	private int add(int slot, int h, int v, Field f) {
+		int g = size++;
+		if (g == hashes.length) {
+			hashes = Arrays.copyOf(hashes, 2 * g);
+			if (intKeys)
+				ints = Arrays.copyOf(ints, 2 * g);
+			else
+				fields = Arrays.copyOf(fields, 2 * g);
+		}
+		hashes[g] = h;
+		if (intKeys)
+			ints[g] = v;
+		else
+			fields[g] = f;
+		slots[slot] = g + 1;
+		// keep the table at most half full
+		if (2 * size > slots.length)
+			rehash();
+		return g;
+	}
+
+	private void rehash() {
+		slots = new int[2 * slots.length];
+		int mask = slots.length - 1;
+		for (int g = 0; g < size; g++) {
+			int i = hashes[g] & mask;
+			while (slots[i] != 0)
+				i = (i + 1) & mask;
+			slots[i] = g + 1;
+		}
+	}
+
+	/**
+	 * Spreads the bits of a hash code, so that consecutive values do not
+	 * fill consecutive slots.
+	 */
+	private static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
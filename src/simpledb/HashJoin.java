@@ -0,0 +1,448 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * The HashJoin operator implements an equality join by hashing. The tuples of
+ * child2 (the inner, or build, relation) are read into a hash table on their
+ * join field when the operator is opened; every tuple of child1 (the outer,
+ * or probe, relation) then looks up its matches in the table, instead of
+ * rescanning child2 as Join does.
+ * <p>
+ * The hash table may take up to a memory budget. If child2 does not fit, the
+ * join becomes a hybrid hash join: both inputs are split into NUM_PARTITIONS
+ * partitions by the hash of their join field, one of which stays in memory
+ * while the others are written to {@link SpillFile}s, and the spilled
+ * partitions are joined pairwise once child1 is exhausted, by another
+ * HashJoin with the same budget. A partition that still does not fit is
+ * partitioned again with another hash function, up to MAX_DEPTH times, and
+ * then joined by a {@link BlockNestedLoopJoin} whose blocks of probe tuples
+ * take the memory budget.
+ * <p>
+ * child2 should be the smaller input; {@link JoinOptimizer#estimateJoinCost}
+ * charges more for build tuples than for probe tuples, so that the optimizer
+ * puts the smaller input on the right.
+ */
+public class HashJoin extends Operator {
+
+	/** Memory budget of a hash join that is not given one: 32 MB. */
+	public static final long DEFAULT_MEMORY_BUDGET = 32L << 20;
+
+	/** Number of partitions a build input that does not fit is split into. */
+	public static final int NUM_PARTITIONS = 16;
+
+	/**
+	 * Number of times a partition is partitioned again before it is joined by
+	 * nested loops if it still does not fit; such a partition is most likely
+	 * made of a single, heavily repeated key, which partitioning cannot split.
+	 */
+	public static final int MAX_DEPTH = 4;
+
+	/** Estimated bytes a tuple takes in the hash table, besides its fields. */
+	public static final int TUPLE_OVERHEAD = 64;
+
+	JoinPredicate p;
+	DbIterator child1;
+	DbIterator child2;
+	private TupleDesc td;
+	private final long memoryBudget;
+	private final int depth;
+	private final long tupleBytes;
+
+	// tuples of child2 by their join field, built in open(); only those of
+	// the resident partition once the build input has been partitioned
+	private HashMap<Field, ArrayList<Tuple>> table;
+	private long tableBytes;
+	// spill files of the partitions of child2 and child1, null as long as
+	// child2 fits in memory
+	private SpillFile[] buildFiles;
+	private SpillFile[] probeFiles;
+	// the partition kept in memory, -1 once it is spilled too
+	private int resident;
+
+	// the outer tuple being joined, and its matches not returned yet
+	private Tuple next1;
+	private ArrayList<Tuple> matches;
+	private int nextMatch;
+
+	// once child1 is exhausted: the next spilled partition to join, and the
+	// join of the current one
+	private int partition;
+	private DbIterator subJoin;
+
+	// spill statistics of partitions already joined, since the inputs were
+	// last read
+	private long spilledBytes;
+	private int spilledPartitions;
+
+	/**
+	 * Constructor. Accepts to children to join and the predicate to join them
+	 * on
+	 *
+	 * @param p
+	 *            The predicate to use to join the children; its operator must
+	 *            be EQUALS
+	 * @param child1
+	 *            Iterator for the left(outer) relation to join
+	 * @param child2
+	 *            Iterator for the right(inner) relation to join, which is
+	 *            hashed
+	 */
+	public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+		this(p, child1, child2, DEFAULT_MEMORY_BUDGET);
+	}
+
+	/**
+	 * Constructor for a join whose hash table may take up to memoryBudget
+	 * bytes before the inputs are partitioned to disk.
+	 *
+	 * @see #HashJoin(JoinPredicate, DbIterator, DbIterator)
+	 */
+	public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+			long memoryBudget) {
+		this(p, child1, child2, memoryBudget, 0);
+	}
+
+	private HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+			long memoryBudget, int depth) {
+		if (p.getOperator() != Predicate.Op.EQUALS)
+			throw new IllegalArgumentException("hash join needs an equality");
+		this.p = p;
+		this.child1 = child1;
+		this.child2 = child2;
+		this.td = TupleDesc.merge(child1.getTupleDesc(),
+				child2.getTupleDesc());
+		this.memoryBudget = memoryBudget;
+		this.depth = depth;
+		this.tupleBytes = child2.getTupleDesc().getSize() + TUPLE_OVERHEAD;
+	}
+
+	/**
+	 * @see simpledb.TupleDesc#merge(TupleDesc, TupleDesc) for possible
+	 *      implementation logic.
+	 */
+	public TupleDesc getTupleDesc() {
+		return td;
+	}
+
+	/**
+	 * @return the number of bytes the hash table may take
+	 */
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * @return the number of bytes of tuples written to spill files since
+	 *         the join was last opened or rewound, by this join and the joins
+	 *         of its partitions
+	 */
+	public long getSpilledBytes() {
+		long bytes = spilledBytes + numBytes(buildFiles) + numBytes(probeFiles);
+		if (subJoin instanceof HashJoin)
+			bytes += ((HashJoin) subJoin).getSpilledBytes();
+		return bytes;
+	}
+
+	/**
+	 * @return the number of partitions of build tuples written to spill
+	 *         files since the join was last opened or rewound, by this join
+	 *         and the joins of its partitions
+	 */
+	public int getSpilledPartitions() {
+		int n = spilledPartitions;
+		if (buildFiles != null) {
+			for (SpillFile f : buildFiles) {
+				if (f != null && f.numTuples() > 0)
+					n++;
+			}
+		}
+		if (subJoin instanceof HashJoin)
+			n += ((HashJoin) subJoin).getSpilledPartitions();
+		return n;
+	}
+
+	public void open() throws DbException, NoSuchElementException,
+			TransactionAbortedException {
+		child1.open();
+		child2.open();
+		build();
+	}
+
+	public void close() {
+		super.close();
+		child1.close();
+		child2.close();
+		closeSpill();
+		table = null;
+		next1 = null;
+		matches = null;
+	}
+
+	/**
+	 * Starts the join over. If child2 fit in memory, the hash table is kept
+	 * and only child1 is read again; otherwise both inputs are partitioned
+	 * again.
+	 */
+	public void rewind() throws DbException, TransactionAbortedException {
+		child1.rewind();
+		next1 = null;
+		matches = null;
+		if (buildFiles != null) {
+			closeSpill();
+			child2.rewind();
+			build();
+		}
+	}
+
+	/**
+	 * Reads child2 into the hash table, partitioning it as soon as the table
+	 * outgrows the memory budget, and gets ready to read child1.
+	 */
+	private void build() throws DbException, TransactionAbortedException {
+		// the spills of an earlier pass over the inputs were closed already,
+		// and are not counted again
+		spilledBytes = 0;
+		spilledPartitions = 0;
+		table = new HashMap<Field, ArrayList<Tuple>>();
+		tableBytes = 0;
+		resident = 0;
+		int field2 = p.getField2();
+		try {
+			while (child2.hasNext()) {
+				Tuple t = child2.next();
+				Field key = t.getField(field2);
+				if (buildFiles != null) {
+					int part = partitionOf(key);
+					if (part != resident) {
+						buildFiles[part].add(t);
+						continue;
+					}
+				}
+				ArrayList<Tuple> list = table.get(key);
+				if (list == null) {
+					list = new ArrayList<Tuple>(1);
+					table.put(key, list);
+				}
+				list.add(t);
+				tableBytes += tupleBytes;
+
+				if (tableBytes > memoryBudget && depth < MAX_DEPTH) {
+					if (buildFiles == null)
+						partitionTable();
+					else
+						spillResident();
+				}
+			}
+
+			if (buildFiles != null) {
+				probeFiles = new SpillFile[NUM_PARTITIONS];
+				for (int i = 0; i < NUM_PARTITIONS; i++)
+					probeFiles[i] = new SpillFile(child1.getTupleDesc());
+			}
+		} catch (IOException e) {
+			throw new DbException("could not spill hash join: " + e);
+		}
+		partition = -1;
+	}
+
+	/**
+	 * Splits the hash table into partitions, keeping the first one in memory
+	 * and writing the others to spill files.
+	 */
+	private void partitionTable() throws IOException {
+		buildFiles = new SpillFile[NUM_PARTITIONS];
+		for (int i = 0; i < NUM_PARTITIONS; i++)
+			buildFiles[i] = new SpillFile(child2.getTupleDesc());
+
+		HashMap<Field, ArrayList<Tuple>> all = table;
+		table = new HashMap<Field, ArrayList<Tuple>>();
+		tableBytes = 0;
+		for (Map.Entry<Field, ArrayList<Tuple>> e : all.entrySet()) {
+			int part = partitionOf(e.getKey());
+			if (part == resident) {
+				table.put(e.getKey(), e.getValue());
+				tableBytes += e.getValue().size() * tupleBytes;
+			} else {
+				for (Tuple t : e.getValue())
+					buildFiles[part].add(t);
+			}
+		}
+		if (tableBytes > memoryBudget)
+			spillResident();
+	}
+
+	/**
+	 * Writes the resident partition to its spill file too.
+	 */
+	private void spillResident() throws IOException {
+		for (ArrayList<Tuple> list : table.values()) {
+			for (Tuple t : list)
+				buildFiles[resident].add(t);
+		}
+		table.clear();
+		tableBytes = 0;
+		resident = -1;
+	}
+
+	/**
+	 * @return the partition of a join key. The hash is mixed with the depth
+	 *         of the join, so that the partitions of a partition are split
+	 *         differently again.
+	 */
+	private int partitionOf(Field key) {
+		int h = (key.hashCode() + depth) * 0x9E3779B9;
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		return (h & 0x7fffffff) % NUM_PARTITIONS;
+	}
+
+	/**
+	 * Returns the next tuple generated by the join, or null if there are no
+	 * more tuples: the concatenation of the current outer tuple with its next
+	 * match in the hash table, moving on to the next outer tuple that has
+	 * matches once they run out. Outer tuples of spilled partitions are
+	 * written to their partition's spill file instead; once child1 is
+	 * exhausted, the results of the spilled partitions follow.
+	 *
+	 * @return The next matching tuple.
+	 * @see Join#fetchNext
+	 */
+	protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+		int field1 = p.getField1();
+		while (matches == null || nextMatch == matches.size()) {
+			if (partition >= 0)
+				return nextSpilled();
+			if (!child1.hasNext()) {
+				if (buildFiles == null)
+					return null;
+				// the resident partition is done; join the others
+				matches = null;
+				table = null;
+				partition = 0;
+				return nextSpilled();
+			}
+			next1 = child1.next();
+			Field key = next1.getField(field1);
+			matches = null;
+			if (buildFiles != null) {
+				int part = partitionOf(key);
+				if (part != resident) {
+					try {
+						probeFiles[part].add(next1);
+					} catch (IOException e) {
+						throw new DbException("could not spill hash join: " + e);
+					}
+					continue;
+				}
+			}
+			matches = table.get(key);
+			nextMatch = 0;
+		}
+		return merge(next1, matches.get(nextMatch++));
+	}
+
+	/**
+	 * Returns the next result of the joins of the spilled partitions, or null
+	 * if there are no more.
+	 */
+	private Tuple nextSpilled() throws DbException,
+			TransactionAbortedException {
+		while (true) {
+			if (subJoin != null) {
+				if (subJoin.hasNext())
+					return subJoin.next();
+				// this partition is done
+				closeSubJoin();
+			}
+			if (partition == NUM_PARTITIONS)
+				return null;
+
+			int i = partition++;
+			SpillFile build = buildFiles[i];
+			SpillFile probe = probeFiles[i];
+			if (build.numTuples() == 0 || probe.numTuples() == 0)
+				continue;
+			try {
+				if (depth + 1 < MAX_DEPTH
+						|| build.numTuples() * tupleBytes <= memoryBudget) {
+					subJoin = new HashJoin(p, probe.iterator(),
+							build.iterator(), memoryBudget, depth + 1);
+				} else {
+					// too big to hash and cannot be partitioned any further
+					long probeBytes = child1.getTupleDesc().getSize()
+							+ TUPLE_OVERHEAD;
+					int block = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+							memoryBudget / probeBytes));
+					subJoin = new BlockNestedLoopJoin(p, probe.iterator(),
+							build.iterator(), block);
+				}
+			} catch (IOException e) {
+				throw new DbException("could not read hash join spill: " + e);
+			}
+			subJoin.open();
+		}
+	}
+
+	private Tuple merge(Tuple t1, Tuple t2) {
+		Tuple result = new Tuple(td);
+		int numFields = t1.getTupleDesc().numFields();
+		for (int i = 0; i < numFields; i++)
+			result.setField(i, t1.getField(i));
+		for (int j = 0; j < t2.getTupleDesc().numFields(); j++)
+			result.setField(j + numFields, t2.getField(j));
+		return result;
+	}
+
+	/**
+	 * Closes the join of the current partition, adding its spills to the
+	 * spill statistics.
+	 */
+	private void closeSubJoin() {
+		if (subJoin == null)
+			return;
+		if (subJoin instanceof HashJoin) {
+			spilledBytes += ((HashJoin) subJoin).getSpilledBytes();
+			spilledPartitions += ((HashJoin) subJoin).getSpilledPartitions();
+		}
+		subJoin.close();
+		subJoin = null;
+	}
+
+	/**
+	 * Closes and deletes the spill files, and the join of the current
+	 * partition, adding them to the spill statistics.
+	 */
+	private void closeSpill() {
+		closeSubJoin();
+		if (buildFiles == null)
+			return;
+		spilledBytes += numBytes(buildFiles) + numBytes(probeFiles);
+		for (SpillFile f : buildFiles) {
+			if (f.numTuples() > 0)
+				spilledPartitions++;
+			f.close();
+		}
+		if (probeFiles != null) {
+			for (SpillFile f : probeFiles)
+				f.close();
+		}
+		buildFiles = null;
+		probeFiles = null;
+	}
+
+	private static long numBytes(SpillFile[] files) {
+		long bytes = 0;
+		if (files != null) {
+			for (SpillFile f : files)
+				bytes += f.numBytes();
+		}
+		return bytes;
+	}
+
+}
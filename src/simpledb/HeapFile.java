@@ -1,6 +1,10 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -15,9 +19,21 @@ import java.util.*;
  */
 public class HeapFile implements DbFile {
 
+	/** Number of pages bulkInsert writes to the file at a time. */
+	public static final int BULK_PAGES = 64;
+
 	File f;
 	TupleDesc td;
 
+	// open for the lifetime of the HeapFile, so that pages are read and
+	// written without opening the file every time. Positional reads and
+	// writes leave the channel's position alone, so concurrent users need no
+	// locking. Opened on first use
+	private volatile FileChannel channel;
+
+	// pages that may have room for an insert, set up on first use
+	private FreeSpaceMap freeSpace;
+
 	/**
 	 * Constructs a heap file backed by the specified file.
 	 * 
@@ -66,40 +82,162 @@ public class HeapFile implements DbFile {
 	// see DbFile.java for javadocs
 	public Page readPage(PageId pid) {
 
-		int offset = pid.pageNumber() * BufferPool.PAGE_SIZE;
+		long offset = (long) pid.pageNumber() * BufferPool.PAGE_SIZE;
 		byte[] data = new byte[BufferPool.PAGE_SIZE];
 		try {
-			RandomAccessFile access = new RandomAccessFile(this.f, "r");
-			access.seek(offset);
-
-			int i = 0;
-			while (i < BufferPool.PAGE_SIZE) {
-				data[i] = access.readByte();
-				i++;
-			}
-			access.close();
+			// reading past the end of the file
+			if (!read(ByteBuffer.wrap(data), offset))
+				throw new IllegalArgumentException();
 			return new HeapPage((HeapPageId) pid, data);
 
-		} catch (FileNotFoundException e) {
-			throw new IllegalArgumentException();
 		} catch (IOException e) {
 			throw new IllegalArgumentException();
 		}
 	}
 
+	/**
+	 * Fills buf with the bytes of the file starting at offset.
+	 * 
+	 * @return false if the file ends before buf is full
+	 */
+	private boolean read(ByteBuffer buf, long offset) throws IOException {
+		FileChannel ch = channel();
+		while (buf.hasRemaining()) {
+			int n;
+			try {
+				n = ch.read(buf, offset + buf.position());
+			} catch (ClosedByInterruptException e) {
+				// this thread was interrupted: give up, but leave an open
+				// channel for everyone else
+				reopen(ch);
+				throw e;
+			} catch (ClosedChannelException e) {
+				// another thread's interrupt closed the channel
+				ch = reopen(ch);
+				continue;
+			}
+			if (n < 0)
+				return false;
+		}
+		return true;
+	}
+
 	// see DbFile.java for javadocs
 	public void writePage(Page page) throws IOException {
-		int pno = page.getId().pageNumber();
-		int offset = pno * BufferPool.PAGE_SIZE;
-		byte[] data = page.getPageData();
+		long offset = (long) page.getId().pageNumber() * BufferPool.PAGE_SIZE;
 
-		RandomAccessFile access = new RandomAccessFile(this.f, "rw");
-		
 		//write the page data onto the given file
-		access.seek(offset);
-		access.write(data);
-		access.close();
+		write(ByteBuffer.wrap(page.getPageData()), offset);
+
+	}
+
+	/**
+	 * Writes the remaining bytes of buf into the file starting at offset.
+	 */
+	private void write(ByteBuffer buf, long offset) throws IOException {
+		FileChannel ch = channel();
+		int start = buf.position();
+		while (buf.hasRemaining()) {
+			try {
+				ch.write(buf, offset + buf.position() - start);
+			} catch (ClosedByInterruptException e) {
+				reopen(ch);
+				throw e;
+			} catch (ClosedChannelException e) {
+				ch = reopen(ch);
+			}
+		}
+	}
+
+	/**
+	 * Closes the file. It is opened again if pages are read or written later.
+	 */
+	public synchronized void close() throws IOException {
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+		if (freeSpace != null) {
+			freeSpace.close();
+			freeSpace = null;
+		}
+	}
+
+	/**
+	 * @return the file the free-space map of the HeapFile stored in f is kept
+	 *         in
+	 */
+	public static File getFreeSpaceMapFile(File f) {
+		return new File(f.getPath() + ".fsm");
+	}
+
+	/**
+	 * @return the free-space map of the file, opening it if needed. Pages the
+	 *         map does not cover, e.g. because it was just created, are
+	 *         looked up in the page headers on disk.
+	 */
+	synchronized FreeSpaceMap freeSpace() throws IOException {
+		if (freeSpace == null) {
+			FreeSpaceMap map = new FreeSpaceMap(getFreeSpaceMapFile(f), f);
+			int slots = HeapPage.slotsPerPage(td);
+			byte[] header = new byte[HeapPage.headerSize(slots)];
+			int num = numPages();
+			// a map of an earlier file of the same name
+			if (map.numPages() > num)
+				map.clear();
+			for (int i = map.numPages(); i < num; i++) {
+				read(ByteBuffer.wrap(header), (long) i * BufferPool.PAGE_SIZE);
+				int used = 0;
+				for (byte b : header)
+					used += Integer.bitCount(b & 0xff);
+				map.setFree(i, used < slots);
+			}
+			freeSpace = map;
+		}
+		return freeSpace;
+	}
 
+	/**
+	 * Called when the changes an aborted transaction made to a page of this
+	 * file are thrown away, so the page may have room again.
+	 */
+	void rolledBack(PageId pid) {
+		FreeSpaceMap map;
+		synchronized (this) {
+			map = freeSpace;
+		}
+		if (map != null)
+			map.setFree(pid.pageNumber(), true);
+	}
+
+	/**
+	 * @return the open channel of the file, opening it if needed
+	 */
+	FileChannel channel() throws IOException {
+		FileChannel ch = channel;
+		if (ch != null)
+			return ch;
+		synchronized (this) {
+			if (channel == null) {
+				// read only files can still be scanned
+				String mode = f.exists() && !f.canWrite() ? "r" : "rw";
+				channel = new RandomAccessFile(f, mode).getChannel();
+			}
+			return channel;
+		}
+	}
+
+	/**
+	 * Replaces a channel that was closed by an interrupt, unless another
+	 * thread has done so already.
+	 * 
+	 * @return the open channel
+	 */
+	private synchronized FileChannel reopen(FileChannel closed)
+			throws IOException {
+		if (channel == closed)
+			channel = null;
+		return channel();
 	}
 
 	/**
@@ -113,47 +251,143 @@ public class HeapFile implements DbFile {
 	public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
 
-		int num = this.numPages();
-
 		BufferPool pool = Database.getBufferPool();
-		
-		for (int i = 0; i < num; i++) {
-			HeapPageId currentPageId=new HeapPageId(
-					this.getId(), i);
-			//scan pages for empty slots using Read_Only permissions
-			HeapPage currentPage = (HeapPage) pool.getPage(tid, currentPageId, Permissions.READ_ONLY);
+		FreeSpaceMap freeSpace = freeSpace();
+
+		// try the pages the free-space map says may have room
+		for (int i = freeSpace.findFree(); i >= 0; i = freeSpace.findFree()) {
+			HeapPageId currentPageId = new HeapPageId(this.getId(), i);
+			boolean held = pool.holdsLock(tid, currentPageId);
+			//probe the page for empty slots using Read_Only permissions, so
+			//full pages are neither pinned nor remembered as written
+			HeapPage currentPage = (HeapPage) pool.getPage(tid, currentPageId,
+					Permissions.READ_ONLY);
 			if (currentPage.getNumEmptySlots() > 0) {
-				
-				//if page has empty slots get Read_Write permission on it
-				currentPage = (HeapPage) pool.getPage(tid, currentPageId, Permissions.READ_WRITE);
+				//if page has empty slots get Read_Write permission on it; the
+				//shared lock held since the probe kept others from filling it
+				currentPage = (HeapPage) pool.getPage(tid, currentPageId,
+						Permissions.READ_WRITE);
 				currentPage.insertTuple(t);
+				if (currentPage.getNumEmptySlots() == 0)
+					freeSpace.setFree(i, false);
 				ArrayList<Page> pages = new ArrayList<Page>();
 				pages.add(currentPage);
 				return pages;
 			}
-			else{
-				
-				//if page does not have empty slots, release the previously acquired Read_Only lock
+
+			// the page filled up since it was marked; release it unless
+			// this transaction was using it already
+			freeSpace.setFree(i, false);
+			if (!held)
 				pool.releasePage(tid, currentPageId);
-				
+		}
+		// no page is empty in heap file, so create a new heap page. Appends
+		// are serialized so that concurrent inserters never write the same
+		// new page
+		synchronized (this) {
+			byte[] byteArr = HeapPage.createEmptyPageData();
+
+			HeapPageId pid = new HeapPageId(this.getId(), this.numPages());
+
+			HeapPage newPage = new HeapPage(pid, byteArr);
+
+			// insert tuple in new page
+			newPage.insertTuple(t);
+			// write the new page to the file
+			writePage(newPage);
+			freeSpace.setFree(pid.pageNumber(), newPage.getNumEmptySlots() > 0);
+
+			// return this new page as a single page modified by this file.
+			ArrayList<Page> pages = new ArrayList<Page>();
+			pages.add(newPage);
+			return pages;
+		}
+	}
+
+	/**
+	 * Adds all the tuples of child to the file on behalf of tid, without going
+	 * through the buffer pool. The tuples are packed into new pages, which are
+	 * appended to the file BULK_PAGES at a time with a single write, and
+	 * locked exclusively for tid before they are written, so other
+	 * transactions only see them once tid commits. If tid aborts, the pages
+	 * are emptied again.
+	 * <p>
+	 * Free slots of the existing pages are not used, and the tuples of child
+	 * are not given RecordIds.
+	 *
+	 * @return the number of tuples added
+	 * @throws DbException
+	 *             if the tuples of child do not match the file's TupleDesc
+	 * @see BufferPool#bulkInsert
+	 */
+	public int bulkInsert(TransactionId tid, DbIterator child)
+			throws DbException, IOException, TransactionAbortedException {
+		if (!td.equals(child.getTupleDesc()))
+			throw new DbException("tuple descriptor of child differs from table");
+
+		int slots = HeapPage.slotsPerPage(td);
+		int headerSize = HeapPage.headerSize(slots);
+		byte[] batch = new byte[BULK_PAGES * BufferPool.PAGE_SIZE];
+		ByteBuffer buf = ByteBuffer.wrap(batch);
+		int count = 0;
+		int pages = 0; // full pages in batch
+		int slot = 0; // next slot of the page being filled
+		while (child.hasNext()) {
+			HeapPage.writeSlot(buf, pages * BufferPool.PAGE_SIZE, headerSize,
+					slot, child.next());
+			count++;
+			if (++slot == slots) {
+				slot = 0;
+				if (++pages == BULK_PAGES) {
+					append(tid, buf, pages, false);
+					Arrays.fill(batch, (byte) 0);
+					pages = 0;
+				}
 			}
 		}
-		// no page is empty in heap file, so create a new heap page
-		byte[] byteArr = HeapPage.createEmptyPageData();
+		if (slot > 0)
+			append(tid, buf, pages + 1, true);
+		else if (pages > 0)
+			append(tid, buf, pages, false);
+		return count;
+	}
 
-		HeapPageId pid = new HeapPageId(this.getId(), num);
+	/**
+	 * Appends the first numPages pages of buf to the file, after locking them
+	 * for tid, and adds them to the free-space map.
+	 *
+	 * @param lastHasRoom
+	 *            true if the last page is not full
+	 */
+	private void append(TransactionId tid, ByteBuffer buf, int numPages,
+			boolean lastHasRoom) throws IOException,
+			TransactionAbortedException {
+		BufferPool pool = Database.getBufferPool();
+		FreeSpaceMap freeSpace = freeSpace();
+		// serialized with the appends of insertTuple. The pages do not exist
+		// yet, so no other transaction can hold their locks
+		synchronized (this) {
+			int first = numPages();
+			for (int i = 0; i < numPages; i++)
+				pool.lockLoadedPage(tid, new HeapPageId(getId(), first + i));
 
-		HeapPage newPage = new HeapPage(pid, byteArr);
+			ByteBuffer pages = buf.duplicate();
+			pages.limit(numPages * BufferPool.PAGE_SIZE);
+			write(pages, (long) first * BufferPool.PAGE_SIZE);
+			freeSpace.setFree(first, first + numPages, false);
+			if (lastHasRoom)
+				freeSpace.setFree(first + numPages - 1, true);
+		}
+	}
 
-		// insert tuple in new page
-		newPage.insertTuple(t);
-		// write the new page to the file
-		writePage(newPage);
-		
-		// return this new page as a single page modified by this file.
-		ArrayList<Page> pages = new ArrayList<Page>();
-		pages.add(newPage);
-		return pages;
+	/**
+	 * Called when the bulk load that appended a page is aborted: overwrites
+	 * the page with an empty one, which may be reused by later inserts.
+	 */
+	void unload(PageId pid) throws IOException {
+		write(ByteBuffer.wrap(HeapPage.createEmptyPageData()),
+				(long) pid.pageNumber() * BufferPool.PAGE_SIZE);
+		freeSpace().setFree(pid.pageNumber(), true);
 	}
 
 	// see DbFile.java for javadocs
@@ -167,6 +401,11 @@ public class HeapFile implements DbFile {
 		if (page == null)
 			throw new DbException("tuple is not a member of this file");
 		page.deleteTuple(t);
+		try {
+			freeSpace().setFree(pid.pageNumber(), true);
+		} catch (IOException e) {
+			throw new DbException("could not read free-space map: " + e);
+		}
 		return page;
 	}
 
@@ -175,4 +414,28 @@ public class HeapFile implements DbFile {
 		return new HeapFileIterator(tid, this);
 	}
 
+	/**
+	 * Returns an iterator over the tuples stored in the pages of this file
+	 * from firstPage up to, but excluding, endPage, so that several threads
+	 * can each read a slice of the file.
+	 */
+	public DbFileIterator iterator(TransactionId tid, int firstPage,
+			int endPage) {
+		return new HeapFileIterator(tid, this, firstPage, endPage);
+	}
+
+	/**
+	 * Returns an iterator over all the tuples stored in this file. A bulk read
+	 * iterator reads the pages that are not already in the buffer pool through
+	 * a small ring of its own, so it does not evict the cached pages.
+	 * 
+	 * @see BufferRing
+	 */
+	public DbFileIterator iterator(TransactionId tid, boolean bulkRead) {
+		if (!bulkRead)
+			return iterator(tid);
+		return new HeapFileIterator(tid, this, Database.getBufferPool()
+				.newRing());
+	}
+
 }
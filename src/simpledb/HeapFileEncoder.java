@@ -1,7 +1,16 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -9,10 +18,21 @@ import java.util.ArrayList;
  * pages of binary data in the appropriate format for simpledb heap pages
  * Pages are padded out to a specified length, and written consecutive in a
  * data file.
+ * <p>
+ * Text files are read CHUNK_SIZE bytes at a time, cut after their last full
+ * line. The chunks can be parsed into records by several threads at once;
+ * the records are then packed into pages in the order of the input, and the
+ * pages written to the output file WRITE_PAGES at a time.
  */
 
 public class HeapFileEncoder {
 
+  /** Number of bytes of the input parsed as one piece of work. */
+  public static final int CHUNK_SIZE = 4 << 20;
+
+  /** Number of pages written to the output file at a time. */
+  public static final int WRITE_PAGES = 64;
+
   /** Convert the specified tuple list (with only integer fields) into a binary
    * page file. <br>
    *
@@ -60,17 +80,30 @@ public class HeapFileEncoder {
       convert(inFile,outFile,npagebytes,numFields,ts);
       }
 
+   /** Convert the specified input text file into a binary
+    * page file, parsing it on a single thread.
+    *
+    * @see #convert(File, File, int, int, Type[], int)
+    */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr)
+      throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, 1);
+  }
+
    /** Convert the specified input text file into a binary
     * page file. <br>
-    * Assume format of the input file is (note that only integer fields are
-    * supported):<br>
-    * int,...,int\n<br>
-    * int,...,int\n<br>
+    * Assume format of the input file is:<br>
+    * field,...,field\n<br>
+    * field,...,field\n<br>
     * ...<br>
-    * where each row represents a tuple.<br>
+    * where each row represents a tuple, and the fields are of the given
+    * types. Empty lines are skipped, fields are trimmed and strings longer
+    * than Type.STRING_LEN are cut. Fields missing at the end of a line are
+    * stored as zeroes, as are ints that cannot be parsed.
     * <p>
-    * The format of the output file will be as specified in HeapPage and
-    * HeapFile.
+    * The input is read as single byte characters. The format of the output
+    * file will be as specified in HeapPage and HeapFile.
     *
     * @see HeapPage
     * @see HeapFile
@@ -78,143 +111,282 @@ public class HeapFileEncoder {
     * @param outFile The output file to write data to
     * @param npagebytes The number of bytes per page in the output file
     * @param numFields the number of fields in each input line/output tuple
+    * @param typeAr the types of the fields
+    * @param threads the number of threads that parse the input
     * @throws IOException if the input/output file can't be opened or a
-    *   malformed input line is encountered
+    *   line has more than numFields fields
     */
   public static void convert(File inFile, File outFile, int npagebytes,
-                 int numFields, Type[] typeAr)
+                 int numFields, Type[] typeAr, int threads)
       throws IOException {
+      if (threads < 1)
+          throw new IllegalArgumentException("need at least one thread");
+      Type[] types = Arrays.copyOf(typeAr, numFields);
+
+      FileInputStream is = new FileInputStream(inFile);
+      PageWriter writer = new PageWriter(outFile, npagebytes, types);
+      ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+      try {
+          FileChannel in = is.getChannel();
+          // parsed or being parsed, in input order
+          ArrayDeque<Future<Parser>> pending = new ArrayDeque<Future<Parser>>();
+          byte[] chunk = new byte[CHUNK_SIZE];
+          int len = 0;
+          boolean eof = false;
+          while (!eof) {
+              ByteBuffer buf = ByteBuffer.wrap(chunk, len, chunk.length - len);
+              while (buf.hasRemaining() && !eof)
+                  eof = in.read(buf) < 0;
+              len = buf.position();
+
+              // parse up to the end of the last full line, and keep the
+              // rest for the next chunk
+              int end = len;
+              if (!eof) {
+                  while (end > 0 && chunk[end - 1] != '\n')
+                      end--;
+                  if (end == 0) {
+                      // a line longer than the chunk
+                      chunk = Arrays.copyOf(chunk, chunk.length * 2);
+                      continue;
+                  }
+              }
+              byte[] next = new byte[chunk.length];
+              System.arraycopy(chunk, end, next, 0, len - end);
+
+              Parser parser = new Parser(chunk, end, types);
+              if (pool == null) {
+                  writer.write(parser.call());
+              } else {
+                  pending.add(pool.submit(parser));
+                  // bound the input held in memory
+                  if (pending.size() > 2 * threads)
+                      writer.write(get(pending.remove()));
+              }
+              chunk = next;
+              len -= end;
+          }
+          while (!pending.isEmpty())
+              writer.write(get(pending.remove()));
+          writer.finish();
+      } finally {
+          if (pool != null)
+              pool.shutdownNow();
+          is.close();
+          writer.close();
+      }
+  }
+
+  /**
+   * Waits for a chunk to be parsed, and rethrows what its parser threw.
+   */
+  private static Parser get(Future<Parser> f) throws IOException {
+      try {
+          return f.get();
+      } catch (InterruptedException e) {
+          throw new InterruptedIOException();
+      } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof IOException)
+              throw (IOException) cause;
+          if (cause instanceof RuntimeException)
+              throw (RuntimeException) cause;
+          throw new IOException(cause);
+      }
+  }
+
+  /**
+   * Parses the lines of a chunk of the input into consecutive records in the
+   * format of HeapPage slots.
+   */
+  private static class Parser implements Callable<Parser> {
+      private final byte[] in;
+      private final int len;
+      private final Type[] types;
+      private final int recordSize;
+
+      byte[] records;
+      int count;
+
+      Parser(byte[] in, int len, Type[] types) {
+          this.in = in;
+          this.len = len;
+          this.types = types;
+          int size = 0;
+          for (Type t : types)
+              size += t.getLen();
+          this.recordSize = size;
+      }
+
+      public Parser call() throws IOException {
+          // about right for short int fields; grown as needed
+          records = new byte[Math.max(len / 2, recordSize)];
+          int pos = 0;
+          while (pos < len) {
+              int eol = pos;
+              while (eol < len && in[eol] != '\n')
+                  eol++;
+              int end = eol;
+              if (end > pos && in[end - 1] == '\r')
+                  end--;
+              if (end > pos)
+                  parseLine(pos, end);
+              pos = eol + 1;
+          }
+          return this;
+      }
+
+      private void parseLine(int start, int end) throws IOException {
+          if ((count + 1) * recordSize > records.length)
+              records = Arrays.copyOf(records, Math.max(records.length * 2,
+                      (count + 1) * recordSize));
+
+          int off = count * recordSize;
+          int p = start;
+          for (int field = 0; ; field++) {
+              int q = p;
+              while (q < end && in[q] != ',')
+                  q++;
+              if (field >= types.length)
+                  throw new IOException("more than " + types.length
+                          + " fields on line: "
+                          + new String(in, start, end - start, "ISO-8859-1"));
+
+              // trim the field
+              int s = p, e = q;
+              while (s < e && (in[s] & 0xff) <= ' ')
+                  s++;
+              while (e > s && (in[e - 1] & 0xff) <= ' ')
+                  e--;
+              if (types[field] == Type.INT_TYPE)
+                  putInt(off, parseInt(s, e));
+              else if (types[field] == Type.STRING_TYPE) {
+                  int n = Math.min(e - s, Type.STRING_LEN);
+                  putInt(off, n);
+                  System.arraycopy(in, s, records, off + 4, n);
+              }
+              off += types[field].getLen();
+
+              if (q >= end)
+                  break;
+              p = q + 1;
+          }
+          count++;
+      }
+
+      private int parseInt(int s, int e) throws IOException {
+          int i = s;
+          boolean neg = i < e && in[i] == '-';
+          if (i < e && (in[i] == '-' || in[i] == '+'))
+              i++;
+          long v = 0;
+          boolean ok = i < e && e - i <= 10;
+          for (; ok && i < e; i++) {
+              int d = in[i] - '0';
+              ok = d >= 0 && d <= 9;
+              v = v * 10 + d;
+          }
+          if (neg)
+              v = -v;
+          if (!ok || v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) {
+              System.out.println("BAD LINE : "
+                      + new String(in, s, e - s, "ISO-8859-1"));
+              return 0;
+          }
+          return (int) v;
+      }
+
+      private void putInt(int off, int v) {
+          records[off] = (byte) (v >>> 24);
+          records[off + 1] = (byte) (v >>> 16);
+          records[off + 2] = (byte) (v >>> 8);
+          records[off + 3] = (byte) v;
+      }
+  }
 
-      int nrecbytes = 0;
-      for (int i = 0; i < numFields ; i++) {
-          nrecbytes += typeAr[i].getLen();
-      }
-      int nrecords = (npagebytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
-      
-    //  per record, we need one bit; there are nrecords per page, so we need
-    // nrecords bits, i.e., ((nrecords/32)+1) integers.
-    int nheaderbytes = (nrecords / 8);
-    if (nheaderbytes * 8 < nrecords)
-        nheaderbytes++;  //ceiling
-    int nheaderbits = nheaderbytes * 8;
-
-    BufferedReader br = new BufferedReader(new FileReader(inFile));
-    FileOutputStream os = new FileOutputStream(outFile);
-
-    // our numbers probably won't be much larger than 1024 digits
-    char buf[] = new char[1024];
-
-    int curpos = 0;
-    int recordcount = 0;
-    int npages = 0;
-    int fieldNo = 0;
-
-    ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-    DataOutputStream headerStream = new DataOutputStream(headerBAOS);
-    ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
-    DataOutputStream pageStream = new DataOutputStream(pageBAOS);
-
-    boolean done = false;
-    boolean first = true;
-    while (!done) {
-        int c = br.read();
-        
-	// Ignore Windows/Notepad special line endings
-	if (c == '\r')
-	    continue;
-
-        if (c == '\n') {
-            if (first)
-                continue;
-            recordcount++;
-            first = true;
-        } else
-            first = false;
-        if (c == ',' || c == '\n' || c == '\r') {
-            String s = new String(buf, 0, curpos);
-            if (typeAr[fieldNo] == Type.INT_TYPE) {
-                try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
-                } catch (NumberFormatException e) {
-                    System.out.println ("BAD LINE : " + s);
-                }
-            }
-            else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
-                s = s.trim();
-                int overflow = Type.STRING_LEN - s.length();
-                if (overflow < 0) {
-                    String news = s.substring(0,Type.STRING_LEN);
-                    s  = news;
-                }
-                pageStream.writeInt(s.length());
-                pageStream.writeBytes(s);
-                while (overflow-- > 0)
-                    pageStream.write((byte)0);
-            }
-            curpos = 0;
-            if (c == '\n')
-                fieldNo = 0;
-            else
-                fieldNo++;
-            
-        } else if (c == -1) {
-            done = true;
-            
-        } else {
-            buf[curpos++] = (char)c;
-            continue;
-        }
-        
-        // if we wrote a full page of records, or if we're done altogether,
-        // write out the header of the page.
-        //
-        // in the header, write a 1 for bits that correspond to records we've
-        // written and 0 for empty slots.
-        //
-        // when we're done, also flush the page to disk, but only if it has
-        // records on it.  however, if this file is empty, do flush an empty
-        // page to disk.
-        if (recordcount >= nrecords
-            || done && recordcount > 0
-            || done && npages == 0) {
-            int i = 0;
-            byte headerbyte = 0;
-            
-            for (i=0; i<nheaderbits; i++) {
-                if (i < recordcount)
-                    headerbyte |= (1 << (i % 8));
-                
-                if (((i+1) % 8) == 0) {
-                    headerStream.writeByte(headerbyte);
-                    headerbyte = 0;
-                }
-            }
-            
-            if (i % 8 > 0)
-                headerStream.writeByte(headerbyte);
-            
-            // pad the rest of the page with zeroes
-            
-            for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
-                pageStream.writeByte(0);
-            
-            // write header and body to file
-            headerStream.flush();
-            headerBAOS.writeTo(os);
-            pageStream.flush();
-            pageBAOS.writeTo(os);
-            
-            // reset header and body for next page
-            headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-            headerStream = new DataOutputStream(headerBAOS);
-            pageBAOS = new ByteArrayOutputStream(npagebytes);
-            pageStream = new DataOutputStream(pageBAOS);
-            
-            recordcount = 0;
-            npages++;
-        }
-    }
-    br.close();
-    os.close();
+  /**
+   * Packs parsed records into pages, and writes the pages to the output file
+   * a batch at a time.
+   */
+  private static class PageWriter {
+      private final FileOutputStream os;
+      private final FileChannel out;
+      private final int pageSize;
+      private final int recordSize;
+      private final int recordsPerPage;
+      private final int headerSize;
+
+      private final byte[] batch;
+      private int pages; // full pages in batch
+      private int records; // records on the page being filled
+      private long written; // pages written to out
+
+      PageWriter(File outFile, int npagebytes, Type[] types) throws IOException {
+          int nrecbytes = 0;
+          for (Type t : types)
+              nrecbytes += t.getLen();
+          this.pageSize = npagebytes;
+          this.recordSize = nrecbytes;
+          this.recordsPerPage = (npagebytes * 8) / (nrecbytes * 8 + 1); //floor comes for free
+          this.headerSize = (recordsPerPage + 7) / 8;
+          this.batch = new byte[WRITE_PAGES * npagebytes];
+          // a free-space map of an earlier file of the same name does not
+          // describe this one
+          HeapFile.getFreeSpaceMapFile(outFile).delete();
+          this.os = new FileOutputStream(outFile);
+          this.out = os.getChannel();
+      }
+
+      void write(Parser parsed) throws IOException {
+          int i = 0;
+          while (i < parsed.count) {
+              int n = Math.min(parsed.count - i, recordsPerPage - records);
+              System.arraycopy(parsed.records, i * recordSize, batch, pages
+                      * pageSize + headerSize + records * recordSize, n
+                      * recordSize);
+              records += n;
+              i += n;
+              if (records == recordsPerPage)
+                  endPage();
+          }
+      }
+
+      /**
+       * Writes the last page if it has records, or if the file would be
+       * empty otherwise, and all the pages not written yet.
+       */
+      void finish() throws IOException {
+          if (records > 0 || written + pages == 0)
+              endPage();
+          flush();
+      }
+
+      void close() throws IOException {
+          os.close();
+      }
+
+      /**
+       * Sets the header bits of the records on the page being filled, and
+       * moves on to the next page.
+       */
+      private void endPage() throws IOException {
+          int base = pages * pageSize;
+          for (int i = 0; i < records / 8; i++)
+              batch[base + i] = (byte) 0xff;
+          for (int i = records / 8 * 8; i < records; i++)
+              batch[base + i / 8] |= 1 << (i % 8);
+          records = 0;
+          if (++pages == WRITE_PAGES)
+              flush();
+      }
+
+      private void flush() throws IOException {
+          ByteBuffer buf = ByteBuffer.wrap(batch, 0, pages * pageSize);
+          while (buf.hasRemaining())
+              out.write(buf);
+          Arrays.fill(batch, 0, pages * pageSize, (byte) 0);
+          written += pages;
+          pages = 0;
+      }
   }
 }
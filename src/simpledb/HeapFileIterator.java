@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
@@ -16,10 +18,14 @@ public class HeapFileIterator implements DbFileIterator {
 	DbFile file;
 	int currentPageNumber;
 	HeapPage currentPage;
-	int numPages;
+	int firstPage; //first page of the pages iterated over
+	int numPages; //page after the last page iterated over
 	BufferPool pool;
 	Iterator<Tuple> pageIterator;
 	boolean open;
+	BufferRing ring; //ring pages are read through, null unless this is a bulk read
+	int prefetchedUpTo; //last page number the buffer pool was asked to prefetch
+	Predicate[] filter = new Predicate[0]; //predicates the returned tuples satisfy
 
 	/**
 	 * Create a new HeapFileIterator for a given DbFile and TransactionId
@@ -39,12 +45,59 @@ public class HeapFileIterator implements DbFileIterator {
 
 	}
 
+	/**
+	 * Create a new HeapFileIterator for a bulk read, which reads the pages
+	 * that are not in the buffer pool through the given ring
+	 * 
+	 * @param tid
+	 * @param file
+	 * @param ring
+	 */
+	public HeapFileIterator(TransactionId tid, DbFile file, BufferRing ring) {
+		this(tid, file);
+		this.ring = ring;
+	}
+
+	/**
+	 * Create a new HeapFileIterator over the tuples of the pages of a DbFile
+	 * from firstPage up to, but excluding, endPage
+	 * 
+	 * @param tid
+	 * @param file
+	 * @param firstPage
+	 * @param endPage
+	 */
+	public HeapFileIterator(TransactionId tid, DbFile file, int firstPage,
+			int endPage) {
+		this(tid, file);
+		this.firstPage = firstPage;
+		this.currentPageNumber = firstPage;
+		this.numPages = Math.min(numPages, endPage);
+	}
+
+	/**
+	 * Makes the iterator return only the tuples that satisfy the predicate.
+	 * Pages test it on their stored tuples, so tuples that fail it are never
+	 * built. Predicates can only be added before the iterator is opened.
+	 * 
+	 * @return true if the predicate was added, false if the iterator is open
+	 */
+	boolean addFilter(Predicate p) {
+		if (open)
+			return false;
+		filter = Arrays.copyOf(filter, filter.length + 1);
+		filter[filter.length - 1] = p;
+		return true;
+	}
+
 	// See DbFileIterator.java
 	@Override
 	public void close() {
 		open = false;
 		currentPage = null;
 		pageIterator = null;
+		if (ring != null)
+			ring.clear();
 
 	}
 
@@ -55,28 +108,22 @@ public class HeapFileIterator implements DbFileIterator {
 		if (open == false)
 			return false;
 
-		// if current page has tuples left, return true
-		try {
-
-			if (pageIterator.hasNext())
-				return true;
-
-			// otherwise increment currentPage
+		// until a page has tuples left, move on to the next page, skipping
+		// pages that are empty or have no tuple that passes the filter
+		while (!pageIterator.hasNext()) {
 			currentPageNumber++;
 
 			// check if pages have finished
 			if (currentPageNumber >= numPages) {
 				return false;
 			}
-			currentPage = (HeapPage) pool.getPage(this.tid, new HeapPageId(file
-					.getId(), currentPageNumber), Permissions.READ_ONLY);
-			pageIterator = currentPage.iterator();
-			return pageIterator.hasNext();
-
-		} catch (NullPointerException e) {
-			System.out.println("NullPointerException");
-			return false;
+			readAhead();
+			currentPage = (HeapPage) pool.getPage(this.tid, new HeapPageId(
+					file.getId(), currentPageNumber), Permissions.READ_ONLY,
+					ring);
+			pageIterator = currentPage.iterator(filter);
 		}
+		return true;
 	}
 
 	// See DbFileIterator.java
@@ -104,11 +151,17 @@ public class HeapFileIterator implements DbFileIterator {
 		if (open == true)
 			return;
 
+		open = true;
+		if (currentPageNumber >= numPages) {
+			// empty page range
+			pageIterator = new ArrayList<Tuple>().iterator();
+			return;
+		}
+
 		// was closed earlier so re-read current page
 		currentPage = (HeapPage) pool.getPage(this.tid, new HeapPageId(file
-				.getId(), currentPageNumber), Permissions.READ_ONLY);
-		pageIterator = currentPage.iterator();
-		open = true;
+				.getId(), currentPageNumber), Permissions.READ_ONLY, ring);
+		pageIterator = currentPage.iterator(filter);
 
 	}
 
@@ -123,12 +176,35 @@ public class HeapFileIterator implements DbFileIterator {
 		if (open == false)
 			throw new RuntimeException("rewinding a closed iterator");
 
-		// iterator is open so rewind to page 0!
-		currentPageNumber = 0;
+		// iterator is open so rewind to its first page!
+		currentPageNumber = firstPage;
+		prefetchedUpTo = 0;
+		if (currentPageNumber >= numPages) {
+			pageIterator = new ArrayList<Tuple>().iterator();
+			return;
+		}
 		currentPage = (HeapPage) pool.getPage(this.tid, new HeapPageId(file
-				.getId(), currentPageNumber), Permissions.READ_ONLY);
-		pageIterator = currentPage.iterator();
+				.getId(), currentPageNumber), Permissions.READ_ONLY, ring);
+		pageIterator = currentPage.iterator(filter);
+
+	}
+
+	/**
+	 * Called when the iterator moves on to the next page. Moving from one
+	 * page to the next makes this a sequential scan, so the buffer pool is
+	 * asked to read the following pages in the background while the current
+	 * one is processed. Bulk reads do not prefetch, as the prefetched pages
+	 * would enter the buffer pool.
+	 */
+	private void readAhead() {
+		int depth = pool.getPrefetchPages();
+		if (ring != null || depth == 0)
+			return;
 
+		int last = Math.min(numPages - 1, currentPageNumber + depth);
+		for (int p = Math.max(prefetchedUpTo, currentPageNumber) + 1; p <= last; p++)
+			pool.prefetchPage(new HeapPageId(file.getId(), p));
+		prefetchedUpTo = Math.max(prefetchedUpTo, last);
 	}
 
 }
@@ -1,16 +1,21 @@
 package simpledb;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
-import java.util.NoSuchElementException;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * The page bytes are the only copy of its contents: tuples are only built
+ * from them when they are asked for, with each field decoded from its offset
+ * in the slot the first time it is used, and inserts and deletes update the
+ * header and the slots in place. Predicates pushed down to the page iterator
+ * are tested against the stored bytes, so tuples that fail them are never
+ * built. The buffer a page is created from is never written: it is copied
+ * once, the first time the page is modified, and stays behind as the
+ * before-image of the page.
  * 
  * @see HeapFile
  * @see BufferPool
@@ -20,11 +25,16 @@ public class HeapPage implements Page {
 
 	HeapPageId pid;
 	TupleDesc td;
-	byte header[];
-	Tuple tuples[];
+	Tuple tuples[]; // tuples built so far; null slots are read from data
 	int numSlots;
-
-	byte[] oldData;
+	int headerSize;
+	int tupleSize;
+	ByteBuffer data; // header and slots of the page, starting at index 0
+	boolean shared; // data is also the before-image, or the caller's buffer
+	long usedSlots[]; // the header bits, 64 slots to a word
+	int numUsed; // number of bits set in usedSlots
+
+	ByteBuffer before; // the page before it was modified
 	boolean dirty;
 	TransactionId tid;
 	
@@ -49,27 +59,41 @@ public class HeapPage implements Page {
 	 * @see BufferPool#PAGE_SIZE
 	 */
 	public HeapPage(HeapPageId id, byte[] data) throws IOException {
+		this(id, ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Create a HeapPage from the bytes of a page in a buffer, starting at the
+	 * buffer's position. The page reads its tuples straight from the buffer,
+	 * without copying it into an array first, and copies it before its first
+	 * modification; the buffer's position is left unchanged. The bytes of the
+	 * page must not change while the page or any tuple read from it is in
+	 * use.
+	 * 
+	 * @see #HeapPage(HeapPageId, byte[])
+	 */
+	public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
 		this.pid = id;
 		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
 		this.numSlots = getNumTuples();
-		//System.out.println(this.numSlots);
-		DataInputStream dis = new DataInputStream(
-				new ByteArrayInputStream(data));
-
-		// allocate and read the header slots of this page
-		header = new byte[getHeaderSize()];
-		for (int i = 0; i < header.length; i++)
-			header[i] = dis.readByte();
-
-		try {
-			// allocate and read the actual records of this page
-			tuples = new Tuple[numSlots];
-			for (int i = 0; i < tuples.length; i++)
-				tuples[i] = readNextTuple(dis, i);
-		} catch (NoSuchElementException e) {
-			e.printStackTrace();
-		}
-		dis.close();
+		this.headerSize = getHeaderSize();
+		this.tupleSize = td.getSize();
+		this.data = data.slice();
+		if (this.data.remaining() < BufferPool.PAGE_SIZE)
+			throw new IOException("short page");
+
+		// mirror the header in long words, so that slots are counted and
+		// found a word at a time
+		usedSlots = new long[(numSlots + 63) / 64];
+		for (int i = 0; i < headerSize; i++)
+			usedSlots[i / 8] |= (this.data.get(i) & 0xffL) << (8 * (i % 8));
+		if (numSlots % 64 != 0)
+			usedSlots[usedSlots.length - 1] &= (1L << numSlots) - 1;
+		for (long word : usedSlots)
+			numUsed += Long.bitCount(word);
+
+		// tuples are built from data when they are first asked for
+		tuples = new Tuple[numSlots];
 
 		setBeforeImage();
 		this.dirty=false;
@@ -85,12 +109,42 @@ public class HeapPage implements Page {
 	 */
 	private int getNumTuples() {
 
-		int tupleSize = Database.getCatalog().getTupleDesc(
-				this.pid.getTableId()).getSize();	
-		return (int) ((BufferPool.PAGE_SIZE * 8) / (tupleSize * 8.0 + 1));
+		return slotsPerPage(Database.getCatalog().getTupleDesc(
+				this.pid.getTableId()));
 
 	}
 
+	/**
+	 * @return the number of tuple slots on a page of a table with the given
+	 *         schema
+	 */
+	static int slotsPerPage(TupleDesc td) {
+		return (int) ((BufferPool.PAGE_SIZE * 8) / (td.getSize() * 8.0 + 1));
+	}
+
+	/**
+	 * @return the number of header bytes of a page with the given number of
+	 *         slots
+	 */
+	static int headerSize(int numSlots) {
+		return (numSlots + 7) / 8;
+	}
+
+	/**
+	 * Writes a tuple into a slot of an empty page held in buf at the given
+	 * offset, and marks the slot used in the page's header, without building
+	 * a HeapPage. Used to fill new pages in bulk.
+	 * 
+	 * @param headerSize
+	 *            the header size of the pages of the tuple's table
+	 */
+	static void writeSlot(ByteBuffer buf, int offset, int headerSize,
+			int slot, Tuple t) {
+		t.write(buf, offset + headerSize + slot * t.getTupleDesc().getSize());
+		int b = offset + slot / 8;
+		buf.put(b, (byte) (buf.get(b) | (1 << (slot % 8))));
+	}
+
 	/**
 	 * Computes the number of bytes in the header of a page in a HeapFile with
 	 * each tuple occupying tupleSize bytes
@@ -109,7 +163,7 @@ public class HeapPage implements Page {
 	 */
 	public HeapPage getBeforeImage() {
 		try {
-			return new HeapPage(pid, oldData);
+			return new HeapPage(pid, before);
 		} catch (IOException e) {
 			e.printStackTrace();
 			// should never happen -- we parsed it OK before!
@@ -118,8 +172,14 @@ public class HeapPage implements Page {
 		return null;
 	}
 
-	public void setBeforeImage() {
-		oldData = getPageData().clone();
+	/**
+	 * Makes the current contents of the page its before-image. No copy is
+	 * made: the page keeps sharing its buffer with the before-image until it
+	 * is next modified.
+	 */
+	public synchronized void setBeforeImage() {
+		before = data;
+		shared = true;
 	}
 
 	/**
@@ -130,41 +190,115 @@ public class HeapPage implements Page {
 	}
 
 	/**
-	 * Suck up tuples from the source file.
+	 * @return the offset of the given slot in data
 	 */
-	private Tuple readNextTuple(DataInputStream dis, int slotId)
-			throws NoSuchElementException {
-		// if associated bit is not set, read forward to the next tuple, and
-		// return null.
-		if (!isSlotUsed(slotId)) {
-			for (int i = 0; i < td.getSize(); i++) {
-				try {
-					dis.readByte();
-				} catch (IOException e) {
-					throw new NoSuchElementException(
-							"error reading empty tuple");
-				}
-			}
-			return null;
+	private int slotOffset(int slotId) {
+		return headerSize + slotId * tupleSize;
+	}
+
+	/**
+	 * Copies the bytes of the page into an array of the page's own before
+	 * they are first modified since the page was read or its before-image was
+	 * set. The old buffer is left to the before-image and to the tuples built
+	 * over it.
+	 */
+	private void own() {
+		if (!shared)
+			return;
+		data = copyOf(data);
+		shared = false;
+	}
+
+	/**
+	 * @return a copy of the page held in buf, in an array of its own
+	 */
+	private static ByteBuffer copyOf(ByteBuffer buf) {
+		byte[] copy = new byte[BufferPool.PAGE_SIZE];
+		buf.duplicate().get(copy);
+		return ByteBuffer.wrap(copy);
+	}
+
+	/**
+	 * Stops this page, its before-image and the tuples it has handed out
+	 * reading the buffer the page was created from, so that the buffer may
+	 * be changed (e.g. a mapping of the file that the page is written back
+	 * into). The contents of the page do not change.
+	 */
+	synchronized void detach() {
+		for (Tuple t : tuples) {
+			if (t != null)
+				t.detach();
+		}
+		if (shared) {
+			// data is also the before-image
+			own();
+			before = data;
+			shared = true;
+		} else {
+			before = copyOf(before);
 		}
+	}
 
-		// read fields in the tuple
-		Tuple t = new Tuple(td);
-		RecordId rid = new RecordId(pid, slotId);
-		t.setRecordId(rid);
-		try {
-			for (int j = 0; j < td.numFields(); j++) {
-				Field f = td.getFieldType(j).parse(dis);
-				t.setField(j, f);
+	/**
+	 * @return a copy of the header of this page, 64 slots to a word
+	 */
+	synchronized long[] copyUsedSlots() {
+		return usedSlots.clone();
+	}
+
+	/**
+	 * @return the first empty slot of this page, or -1 if it is full
+	 */
+	private int firstEmptySlot() {
+		for (int w = 0; w < usedSlots.length; w++) {
+			long empty = ~usedSlots[w];
+			if (empty != 0) {
+				int slot = w * 64 + Long.numberOfTrailingZeros(empty);
+				return slot < numSlots ? slot : -1;
 			}
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-			throw new NoSuchElementException("parsing error!");
 		}
+		return -1;
+	}
 
+	/**
+	 * Returns the tuple in the given used slot, building it over the bytes of
+	 * the slot if it has not been asked for before. Its fields are decoded
+	 * when they are first used.
+	 */
+	synchronized Tuple getTuple(int slotId) {
+		Tuple t = tuples[slotId];
+		if (t == null) {
+			t = new Tuple(td, data, slotOffset(slotId));
+			t.owner = this;
+			t.setRecordId(new RecordId(pid, slotId));
+			tuples[slotId] = t;
+		}
 		return t;
 	}
 
+	/**
+	 * Tests the tuple in the given used slot against the predicates. Int
+	 * fields of tuples that have not been built are compared in place.
+	 * 
+	 * @return true if the tuple satisfies all the predicates
+	 */
+	synchronized boolean matches(int slotId, Predicate[] filter) {
+		Tuple t = tuples[slotId];
+		for (Predicate p : filter) {
+			if (t != null) {
+				if (!p.filter(t))
+					return false;
+			} else {
+				int field = p.getField();
+				int offset = slotOffset(slotId) + td.getOffset(field);
+				if (!td.getFieldType(field).compare(data, offset, p.getOp(),
+						p.getOperand()))
+					return false;
+			}
+		}
+		return true;
+	}
+
 	/**
 	 * Generates a byte array representing the contents of this page. Used to
 	 * serialize this page to disk.
@@ -172,72 +306,23 @@ public class HeapPage implements Page {
 	 * The invariant here is that it should be possible to pass the byte array
 	 * generated by getPageData to the HeapPage constructor and have it produce
 	 * an identical HeapPage object.
+	 * <p>
+	 * As the page bytes are kept up to date in place, this is usually the
+	 * page's own array rather than a copy: callers must not modify it, and
+	 * must copy it to keep the contents past the next change to the page.
 	 * 
 	 * @see #HeapPage
 	 * @return A byte array correspond to the bytes of this page.
 	 */
-	public byte[] getPageData() {
-		int len = BufferPool.PAGE_SIZE;
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-		DataOutputStream dos = new DataOutputStream(baos);
-
-		// create the header of the page
-		for (int i = 0; i < header.length; i++) {
-			try {
-				dos.writeByte(header[i]);
-			} catch (IOException e) {
-				// this really shouldn't happen
-				e.printStackTrace();
-			}
-		}
-
-		// create the tuples
-		for (int i = 0; i < tuples.length; i++) {
-
-			// empty slot
-			if (!isSlotUsed(i)) {
-				for (int j = 0; j < td.getSize(); j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-
-				}
-				continue;
-			}
-
-			// non-empty slot
-			for (int j = 0; j < td.numFields(); j++) {
-				Field f = tuples[i].getField(j);
-				try {
-					f.serialize(dos);
-
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
-		}
-
-		// padding
-		int zerolen = BufferPool.PAGE_SIZE
-				- (header.length + td.getSize() * tuples.length); // - numSlots
-																	// *
-																	// td.getSize();
-		byte[] zeroes = new byte[zerolen];
-		try {
-			dos.write(zeroes, 0, zerolen);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		try {
-			dos.flush();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		return baos.toByteArray();
+	public synchronized byte[] getPageData() {
+		if (data.hasArray() && data.arrayOffset() == 0
+				&& data.array().length == BufferPool.PAGE_SIZE)
+			return data.array();
+
+		// a slice of a larger buffer
+		byte[] copy = new byte[BufferPool.PAGE_SIZE];
+		data.duplicate().get(copy);
+		return copy;
 	}
 
 	/**
@@ -263,7 +348,7 @@ public class HeapPage implements Page {
 	 * @param t
 	 *            The tuple to delete
 	 */
-	public void deleteTuple(Tuple t) throws DbException {
+	public synchronized void deleteTuple(Tuple t) throws DbException {
 		
 		
 		RecordId tupleRecID=t.getRecordId();
@@ -277,6 +362,18 @@ public class HeapPage implements Page {
 			throw new DbException("tuple is not on this page");
 		if (!this.isSlotUsed(tupleno))
 			throw new DbException("tuple slot is already empty");
+		own();
+
+		// tuples read from the slot keep their values once it is reused
+		t.detach();
+		if (tuples[tupleno] != null) {
+			tuples[tupleno].detach();
+			tuples[tupleno] = null;
+		}
+		int offset = slotOffset(tupleno);
+		for (int i = 0; i < tupleSize; i++)
+			data.put(offset + i, (byte) 0);
+
 		markSlotUsed(tupleno,false);
 		t.setRecordId(null);
 	}
@@ -291,27 +388,19 @@ public class HeapPage implements Page {
 	 * @param t
 	 *            The tuple to add.
 	 */
-	public void insertTuple(Tuple t) throws DbException {
+	public synchronized void insertTuple(Tuple t) throws DbException {
 		TupleDesc tupleTD=t.getTupleDesc();
 		if (!this.td.equals(tupleTD))
 			throw new DbException("tupledesc is mismatch");
 		
-		if (this.getNumEmptySlots()==0)
+		int i=firstEmptySlot();
+		if (i<0)
 			throw new DbException("page is full!");
-		int slots=this.numSlots;
-		//int count=0;
-		for (int i=0;i<slots;i++){
-			if(!this.isSlotUsed(i)){
-				RecordId recordID=new RecordId(this.pid,i);
-				t.setRecordId(recordID);
-				tuples[i]=t;
-				this.markSlotUsed(i, true);
-				break;
-			}
-		}
-		
-		
-		
+		own();
+		t.write(data, slotOffset(i));
+		RecordId recordID=new RecordId(this.pid,i);
+		t.setRecordId(recordID);
+		this.markSlotUsed(i, true);
 	}
 
 	/**
@@ -344,16 +433,7 @@ public class HeapPage implements Page {
 	 */
 	public int getNumEmptySlots() {
 		
-		
-		int slots=this.numSlots;
-		int count=0;
-		for (int i=0;i<slots;i++){
-			if(!this.isSlotUsed(i)){
-				count+=1;
-			}
-		}
-		
-		return count;
+		return this.numSlots - this.numUsed;
 
 	}
 
@@ -362,16 +442,8 @@ public class HeapPage implements Page {
 	 */
 	public boolean isSlotUsed(int i) {
 		
-		
-		int byteNumber=i/8;
-		int offset=i%8;
-		
-		byte headerByte=this.header[byteNumber];
-		int x=(headerByte>>offset)&1;
-		if (x==1)
-			return true;
-		else
-			return false;
+		// shifts of a long only use the low 6 bits of i
+		return (this.usedSlots[i >>> 6] & (1L << i)) != 0;
 	}
 
 	/**
@@ -381,13 +453,19 @@ public class HeapPage implements Page {
 		int byteNumber=i/8;
 		int offset=i%8;
 		
+		byte headerByte=this.data.get(byteNumber);
 		if (value){
-			this.header[byteNumber]=(byte)(this.header[byteNumber]|(1<<offset));
+			this.data.put(byteNumber, (byte) (headerByte | (1 << offset)));
 		}
 		else{
-			this.header[byteNumber] = (byte) (this.header[byteNumber] & ~(1 << offset));
+			this.data.put(byteNumber, (byte) (headerByte & ~(1 << offset)));
+		}
+
+		// keep the words and the count in step with the header
+		if (isSlotUsed(i) != value) {
+			this.usedSlots[i >>> 6] ^= 1L << i;
+			this.numUsed += value ? 1 : -1;
 		}
-		
 	}
 
 	/**
@@ -403,4 +481,12 @@ public class HeapPage implements Page {
 		 
 	}
 
+	/**
+	 * @return an iterator over the tuples on this page that satisfy all the
+	 *         given predicates. Tuples that fail them are not built.
+	 */
+	Iterator<Tuple> iterator(Predicate[] filter) {
+		return new HeapPageIterator(this, filter);
+	}
+
 }
@@ -34,14 +34,14 @@ public class HeapPageId implements PageId {
     }
 
     /**
-     * @return a hash code for this page, represented by the concatenation of
-     *   the table number and the page number (needed if a PageId is used as a
-     *   key in a hash table in the BufferPool, for example.)
+     * @return a hash code for this page, combining the table number and the
+     *   page number (needed if a PageId is used as a key in a hash table in
+     *   the BufferPool, for example.) Computed arithmetically since the
+     *   BufferPool hashes a page id on every page access.
      * @see BufferPool
      */
     public int hashCode() {
-        String hashString=""+this.tableId+this.pgNo;
-        return hashString.hashCode();
+        return 31 * this.tableId + this.pgNo;
     }
 
     /**
@@ -1,8 +1,6 @@
 package simpledb;
 
-import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.List;
 import java.util.NoSuchElementException;
 /**
  * Iterator to iterate over all tuples in a page
@@ -10,27 +8,47 @@ import java.util.NoSuchElementException;
  *
  */
 public class HeapPageIterator implements Iterator<Tuple> {
-	
-	List<Tuple> tupleList;
-	
-	final Iterator<Tuple> iterator;
+
+	private static final Predicate[] NO_FILTER = new Predicate[0];
+
+	final HeapPage page;
+	final long[] used; //header of the page when the iterator was created
+	final Predicate[] filter; //predicates the returned tuples satisfy
+	int word = -1; //word of used the slots in bits come from
+	long bits; //used slots of that word not looked at yet
+	int slot = -1; //slot next() returns, -1 until hasNext finds one
 
 	public HeapPageIterator(HeapPage page) {
-		
-		//find all tuples stored in pages and create an iterator over that list
-		tupleList= new ArrayList<Tuple>();
+		this(page, NO_FILTER);
+	}
 
-		for (int i = 0; i < page.numSlots; i++) {
-			if (page.isSlotUsed(i)) {
-				tupleList.add(page.tuples[i]);
-			}
-		}
-		iterator=tupleList.iterator();
+	/**
+	 * Iterator over the tuples of the page that satisfy all the predicates;
+	 * the others are skipped without being built
+	 */
+	HeapPageIterator(HeapPage page, Predicate[] filter) {
+
+		//iterate over the slots in use now, even if the page changes
+		this.page = page;
+		this.used = page.copyUsedSlots();
+		this.filter = filter;
 	}
 	/** @return true if there are more tuples available on page */
 	@Override
 	public boolean hasNext() {
-		return (iterator.hasNext());
+		while (slot < 0) {
+			//move on to the next word with used slots
+			while (bits == 0) {
+				if (word + 1 >= used.length)
+					return false;
+				bits = used[++word];
+			}
+			int s = word * 64 + Long.numberOfTrailingZeros(bits);
+			bits &= bits - 1;
+			if (filter.length == 0 || page.matches(s, filter))
+				slot = s;
+		}
+		return true;
 	}
     /**
      * Gets the next tuple from the operator
@@ -40,10 +58,13 @@ public class HeapPageIterator implements Iterator<Tuple> {
      */
 	@Override
 	public Tuple next() {
-		
-		if (iterator.hasNext())
-			return iterator.next();
-		else 
+
+		if (hasNext()) {
+			Tuple t = page.getTuple(slot);
+			slot = -1;
+			return t;
+		}
+		else
 			throw new NoSuchElementException();
 
 	}
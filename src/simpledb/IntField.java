@@ -6,7 +6,7 @@ import java.io.*;
  * Instance of Field that stores a single integer.
  */
 public class IntField implements Field {
-    private int value;
+    private final int value;
 
     public int getValue() {
         return value;
@@ -47,27 +47,35 @@ public class IntField implements Field {
     public boolean compare(Predicate.Op op, Field val) {
 
         IntField iVal = (IntField) val;
+        return compare(op, value, iVal.value);
+    }
+
+    /**
+     * Compares two int values with the semantics of Field.compare, i.e.
+     * returns true if "value op operand" holds.
+     */
+    static boolean compare(Predicate.Op op, int value, int operand) {
 
         switch (op) {
         case EQUALS:
-            return value == iVal.value;
+            return value == operand;
         case NOT_EQUALS:
-            return value != iVal.value;
+            return value != operand;
 
         case GREATER_THAN:
-            return value > iVal.value;
+            return value > operand;
 
         case GREATER_THAN_OR_EQ:
-            return value >= iVal.value;
+            return value >= operand;
 
         case LESS_THAN:
-            return value < iVal.value;
+            return value < operand;
 
         case LESS_THAN_OR_EQ:
-            return value <= iVal.value;
+            return value <= operand;
 
     case LIKE:
-        return value == iVal.value;
+        return value == operand;
         }
 
         return false;
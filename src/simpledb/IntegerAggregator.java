@@ -1,10 +1,15 @@
 package simpledb;
 
 import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * Groups are found with a {@link GroupTable}, and the state of each group is
+ * kept in primitive arrays indexed by group: its min, max, sum or count, and
+ * for averages its count besides its sum. Sums are kept in longs, and
+ * results are truncated to ints only when they are read.
  */
 public class IntegerAggregator implements Aggregator {
 
@@ -12,18 +17,21 @@ public class IntegerAggregator implements Aggregator {
 	private Type gbfieldtype;
 	private int afield;
 	private Op what;
-	
 
-	private List<Tuple> groupedTuples;
 	private TupleDesc td;
 
-	//auxiliary lists to keep track of sum and count if we are doing averages
-	private List<Integer> countForAvg;
-	private List<Integer> sumForAvg;
+	// groups by group-by value, null if there is no grouping
+	private GroupTable groups;
+	// number of groups; at most 1 if there is no grouping
+	private int numGroups;
+	// min, max, sum or count of each group
+	private long[] values = new long[8];
+	// count of each group if we are doing averages
+	private long[] counts;
 
 	/**
 	 * Aggregate constructor
-	 * 
+	 *
 	 * @param gbfield
 	 *            the 0-based index of the group-by field in the tuple, or
 	 *            NO_GROUPING if there is no grouping
@@ -42,7 +50,6 @@ public class IntegerAggregator implements Aggregator {
 		this.afield = afield;
 		this.what = what;
 
-		groupedTuples = new ArrayList<Tuple>();
 		Type[] newGroupType;
 		if (gbfield == Aggregator.NO_GROUPING) {
 			newGroupType = new Type[1];
@@ -53,208 +60,129 @@ public class IntegerAggregator implements Aggregator {
 			newGroupType[0] = gbfieldtype;
 			newGroupType[1] = Type.INT_TYPE;
 
+			groups = new GroupTable(gbfield, gbfieldtype);
 		}
 		td = new TupleDesc(newGroupType);
-		if (this.what == Op.AVG) {
-			countForAvg = new ArrayList<Integer>();
-			sumForAvg = new ArrayList<Integer>();
-
-		}
+		if (this.what == Op.AVG)
+			counts = new long[values.length];
 	}
 
 	/**
 	 * Merge a new tuple into the aggregate, grouping as indicated in the
 	 * constructor
-	 * 
+	 *
 	 * @param tup
 	 *            the Tuple containing an aggregate field and a group-by field
 	 */
 	public void mergeTupleIntoGroup(Tuple tup) {
+		merge(tup, groups == null ? 0 : groups.find(tup));
+	}
 
-		// get value of aggregate field and group by field in new tuple
-		IntField tupAField = (IntField) tup.getField(afield);
-		int aValue = tupAField.getValue();
-
-		
-		int IndexForAvg = 0;
-
-		if (this.gbfield == Aggregator.NO_GROUPING) {
-
-			if (groupedTuples.size() == 0) {
-
-				Tuple newTuple = new Tuple(td);
-
-				switch (what) {
-				case MIN:
-					newTuple.setField(0, new IntField(aValue));
-					break;
-
-				case MAX:
-					newTuple.setField(0, new IntField(aValue));
-					break;
-				case SUM:
-					//System.out.println(newTuple);
-					newTuple.setField(0, new IntField(aValue));
-					break;
-				case COUNT:
-					
-					newTuple.setField(0, new IntField(1));
-					//System.out.println(newTuple);
-					break;
-				case AVG:
-					IndexForAvg = 0;
-					countForAvg.add(1);
-					sumForAvg.add(aValue);
-					newTuple.setField(0, new IntField(aValue));
-					break;
-				}
-				groupedTuples.add(newTuple);
-			} else {
-
-				Tuple newTuple = groupedTuples.get(0);
-				IntField tupToModifyField = (IntField) newTuple.getField(0);
-
-				int tupToModifyFieldValue = tupToModifyField.getValue();
-
-				switch (what) {
-				case MIN:
-
-					if (aValue < tupToModifyFieldValue) {
-						newTuple.setField(0, new IntField(aValue));
-					}
-					break;
-				case MAX:
-
-					if (aValue > tupToModifyFieldValue) {
-						newTuple.setField(0, new IntField(aValue));
-					}
-					break;
-				case SUM:
-					//System.out.println(newTuple);
-					newTuple.setField(0, new IntField(aValue
-							+ tupToModifyFieldValue));
-					break;
-				case COUNT:
-
-					newTuple.setField(0,
-							new IntField(tupToModifyFieldValue + 1));
-					
-					break;
-				case AVG:
-
-					int sumForAvgVal = sumForAvg.get(IndexForAvg) + aValue;
-					int countForAvgVal = countForAvg.get(IndexForAvg) + 1;
-					sumForAvg.set(IndexForAvg, sumForAvgVal);
-					countForAvg.set(IndexForAvg, countForAvgVal);
-					newTuple.setField(0, new IntField(sumForAvgVal
-							/ countForAvgVal));
+	public boolean mergeTupleIntoExistingGroup(Tuple tup) {
+		int group = groups == null ? numGroups - 1 : groups.find(tup, false);
+		if (group < 0)
+			return false;
+		merge(tup, group);
+		return true;
+	}
 
-					break;
-				}
-			}
+	public int numGroups() {
+		return numGroups;
+	}
 
-		} else {
-			Field tupGBField = tup.getField(gbfield);
-			// iterate through list of grouped tuples and find tuple to merge
-			// this
-			// new tuple into
-			Tuple tupToModify = null;
+	private void merge(Tuple tup, int group) {
+		int aValue = tup.getInt(afield);
+		merge(group, what == Op.COUNT ? 1 : aValue, 1);
+	}
 
-			for (int i = 0; i < groupedTuples.size(); i++) {
-				Tuple t = groupedTuples.get(i);
-				Field tGBField = t.getField(0);
-				if (tGBField.equals(tupGBField)) {
-					tupToModify = t;
-					IndexForAvg = i;
-				}
+	/**
+	 * Merges the value and count of some tuples into a group: their min,
+	 * max or sum, or their count if we are counting.
+	 */
+	private void merge(int group, long value, long count) {
+		if (group == numGroups) {
+			// first tuples of the group
+			if (group == values.length) {
+				values = Arrays.copyOf(values, 2 * group);
+				if (counts != null)
+					counts = Arrays.copyOf(counts, 2 * group);
 			}
+			numGroups++;
+			values[group] = value;
+			if (counts != null)
+				counts[group] = count;
+			return;
+		}
 
-			if (tupToModify == null) {
-
-				tupToModify = new Tuple(td);
-				tupToModify.setField(0, tupGBField);
-
-				switch (what) {
-				case MIN:
-					tupToModify.setField(1, new IntField(aValue));
-					break;
-
-				case MAX:
-					tupToModify.setField(1, new IntField(aValue));
-
-					break;
-				case SUM:
-					
-					tupToModify.setField(1, new IntField(aValue));
-					break;
-				case COUNT:
-
-					tupToModify.setField(1, new IntField(1));
-					break;
-				case AVG:
-					IndexForAvg = 0;
-					countForAvg.add(1);
-					sumForAvg.add(aValue);
-					tupToModify.setField(1, new IntField(aValue));
-					break;
-
-				}
-				
-				groupedTuples.add(tupToModify);
-			} else {
-				IntField tupToModifyField = (IntField) tupToModify.getField(1);
-
-				int tupToModifyFieldValue;
-				tupToModifyField = (IntField) tupToModify.getField(1);
-				tupToModifyFieldValue = tupToModifyField.getValue();
-
-				switch (what) {
-				case MIN:
-
-					if (aValue < tupToModifyFieldValue) {
-						tupToModify.setField(1, new IntField(aValue));
-					}
-					break;
-				case MAX:
-					
-					if (aValue > tupToModifyFieldValue) {
-						tupToModify.setField(1, new IntField(aValue));
-					}
-					break;
-				case SUM:
-					tupToModify.setField(1, new IntField(aValue
-							+ tupToModifyFieldValue));
-					break;
-				case COUNT:
-
-					tupToModify.setField(1, new IntField(
-							tupToModifyFieldValue + 1));
-					break;
-				case AVG:
-
-					int sumForAvgVal = sumForAvg.get(IndexForAvg) + aValue;
-					int countForAvgVal = countForAvg.get(IndexForAvg) + 1;
-					sumForAvg.set(IndexForAvg, sumForAvgVal);
-					countForAvg.set(IndexForAvg, countForAvgVal);
-					tupToModify.setField(1, new IntField(sumForAvgVal
-							/ countForAvgVal));
+		switch (what) {
+		case MIN:
+			if (value < values[group])
+				values[group] = value;
+			break;
+		case MAX:
+			if (value > values[group])
+				values[group] = value;
+			break;
+		case SUM:
+		case COUNT:
+			values[group] += value;
+			break;
+		case AVG:
+			values[group] += value;
+			counts[group] += count;
+			break;
+		}
+	}
 
-					break;
-				}
-			}
+	/**
+	 * Merges the groups of another IntegerAggregator: mins and maxes are
+	 * compared, sums and counts added, and averages merged by adding their
+	 * sums and counts.
+	 */
+	public void mergePartial(Aggregator partial) {
+		if (!(partial instanceof IntegerAggregator))
+			throw new IllegalArgumentException("cannot merge a "
+					+ partial.getClass().getSimpleName());
+		IntegerAggregator p = (IntegerAggregator) partial;
+		if (p.what != what || p.afield != afield || p.gbfield != gbfield
+				|| p.gbfieldtype != gbfieldtype)
+			throw new IllegalArgumentException(
+					"cannot merge an aggregator of another aggregate");
+		for (int g = 0; g < p.numGroups; g++) {
+			int group = groups == null ? 0 : groups.find(p.groups.key(g), true);
+			merge(group, p.values[g], p.counts == null ? 1 : p.counts[g]);
 		}
 	}
 
+	/**
+	 * @return the aggregate value of a group
+	 */
+	private int result(int group) {
+		if (what == Op.AVG)
+			return (int) (values[group] / counts[group]);
+		return (int) values[group];
+	}
+
 	/**
 	 * Create a DbIterator over group aggregate results.
-	 * 
+	 *
 	 * @return a DbIterator whose tuples are the pair (groupVal, aggregateVal)
 	 *         if using group, or a single (aggregateVal) if no grouping. The
 	 *         aggregateVal is determined by the type of aggregate specified in
 	 *         the constructor.
 	 */
 	public DbIterator iterator() {
-
+		ArrayList<Tuple> groupedTuples = new ArrayList<Tuple>(numGroups);
+		for (int g = 0; g < numGroups; g++) {
+			Tuple t = new Tuple(td);
+			if (groups == null) {
+				t.setField(0, new IntField(result(g)));
+			} else {
+				t.setField(0, groups.key(g));
+				t.setField(1, new IntField(result(g)));
+			}
+			groupedTuples.add(t);
+		}
 		return (DbIterator) new TupleIterator(td, groupedTuples);
 
 	}
@@ -20,6 +20,28 @@ import javax.swing.tree.DefaultTreeCellRenderer;
  *    join for a given logical plan.
 */
 public class JoinOptimizer {
+    /**
+     * Cost of adding one tuple to the hash table of a hash join, relative to
+     * a predicate application. Higher than the cost of a probe, so that the
+     * smaller input is preferred as the build (right) side.
+     */
+    public static final double HASH_BUILD_COST = 2.0;
+
+    /** Cost of looking up one tuple in the hash table of a hash join. */
+    public static final double HASH_PROBE_COST = 1.0;
+
+    /**
+     * Cost of one comparison made sorting the inputs of a sort-merge join;
+     * sorting n tuples takes about n log2 n comparisons.
+     */
+    public static final double SORT_COST = 1.0;
+
+    /**
+     * Number of tuples assumed to fit in a page when sizing the blocks of a
+     * block nested-loop join, since the costs do not know tuple widths.
+     */
+    public static final int TUPLES_PER_PAGE = 100;
+
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
 
@@ -66,8 +88,17 @@ public class JoinOptimizer {
         }
         
         JoinPredicate p = new JoinPredicate(t1id,lj.p,t2id);
-       
-        j = new Join(p,plan1,plan2);
+
+        // equality joins hash plan2, which the cost model makes the smaller
+        // side, within the memory budget of the query
+        if (lj.p == Predicate.Op.EQUALS)
+            j = new HashJoin(p,plan1,plan2, this.p == null ?
+                    HashJoin.DEFAULT_MEMORY_BUDGET : this.p.getJoinMemoryBudget());
+        else if (SortMergeJoin.canMerge(lj.p))
+            j = new SortMergeJoin(p,plan1,plan2, this.p == null ?
+                    OrderBy.DEFAULT_MEMORY_BUDGET : this.p.getSortMemoryBudget());
+        else
+            j = new BlockNestedLoopJoin(p,plan1,plan2);
         
         return j;
 
@@ -96,14 +127,32 @@ public class JoinOptimizer {
         	// A LogicalSubplanJoinNode represents a subquery.
         	// You do not need to implement proper support for these for Lab 4.
         	return card1 + cost1 + cost2;
+        } else if (j.p == Predicate.Op.EQUALS) {
+            // hash join: both sides are scanned once, the right one is
+            // hashed and the left one probes it
+            return cost1 + cost2 + HASH_BUILD_COST * card2
+                    + HASH_PROBE_COST * card1;
+        } else if (SortMergeJoin.canMerge(j.p)) {
+            // sort-merge join: both sides are scanned and sorted once, then
+            // merged with a comparison per tuple
+            return cost1 + cost2 + sortCost(card1) + sortCost(card2)
+                    + card1 + card2;
         } else {
-            // Insert your code here.
-            // HINT:  You may need to use the variable "j" if you implemented a join
-            //        algorithm that's more complicated than a basic nested-loops join.
-            return -1.0;
+            // block nested loops: the right side is scanned once per block
+            // of left tuples, and compared with every left tuple
+            double blocks = Math.ceil(card1 / ((double) TUPLES_PER_PAGE
+                    * BlockNestedLoopJoin.defaultBlockPages()));
+            return cost1 + Math.max(1, blocks) * cost2 + (double) card1 * card2;
         }
     }
 
+    /**
+     * @return the estimated cost of sorting card tuples
+     */
+    private static double sortCost(int card) {
+        return card < 2 ? 0 : SORT_COST * card * (Math.log(card) / Math.log(2));
+    }
+
     /**
      * Estimate the cardinality of a join.  The cardinality of a join
      * is the number of tuples produced by the join.
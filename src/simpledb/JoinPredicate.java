@@ -26,6 +26,21 @@ public class JoinPredicate {
     	this.field2=field2;
     }
 
+    /** @return the field index into the first tuple */
+    public int getField1() {
+        return field1;
+    }
+
+    /** @return the field index into the second tuple */
+    public int getField2() {
+        return field2;
+    }
+
+    /** @return the operation the fields are compared with */
+    public Predicate.Op getOperator() {
+        return op;
+    }
+
     /**
      * Apply the predicate to the two specified tuples.
      * The comparison can be made through Field's compare method.
@@ -0,0 +1,139 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * LRU-K replacement: evicts the page whose K-th most recent reference is the
+ * oldest. Pages referenced fewer than K times count as infinitely old, so the
+ * pages of a one-time scan go before pages that are used repeatedly. Among
+ * those, the least recently used page goes first.
+ * <p>
+ * The reference history of evicted pages is retained for a while, so a page
+ * that is read again soon after its eviction keeps its history.
+ * <p>
+ * A prefetched page has no reference until it is requested; until then it
+ * is ordered among the pages referenced fewer than K times by the time it
+ * was read, and its retained history is only picked up by its first
+ * request.
+ */
+class LRUKPolicy implements ReplacementPolicy {
+
+	private final int k;
+	// logical clock, advanced on every reference
+	private long now;
+
+	/** The reference history of one page, most recent reference first */
+	private static class History implements Comparable<History> {
+		final PageId pid;
+		final long[] times;
+		int count;
+
+		History(PageId pid, int k) {
+			this.pid = pid;
+			this.times = new long[k];
+		}
+
+		void reference(long time) {
+			System.arraycopy(times, 0, times, 1, times.length - 1);
+			times[0] = time;
+			if (count < times.length)
+				count++;
+		}
+
+		/**
+		 * Records the time a prefetched page was read, for ordering only:
+		 * the page still has no reference.
+		 */
+		void load(long time) {
+			times[0] = time;
+		}
+
+		/** @return the K-th most recent reference, -1 if there is none */
+		long kth() {
+			return count < times.length ? -1 : times[times.length - 1];
+		}
+
+		public int compareTo(History o) {
+			if (kth() != o.kth())
+				return kth() < o.kth() ? -1 : 1;
+			if (times[0] != o.times[0])
+				return times[0] < o.times[0] ? -1 : 1;
+			return 0;
+		}
+	}
+
+	// histories of resident pages, ordered from the first to be evicted.
+	// Every reference is at a distinct time, so no two histories are equal
+	private final TreeSet<History> order;
+	private final HashMap<PageId, History> resident;
+	// histories of recently evicted pages
+	private final LinkedHashMap<PageId, History> retained;
+
+	LRUKPolicy(final int capacity, int k) {
+		this.k = k;
+		this.order = new TreeSet<History>();
+		this.resident = new HashMap<PageId, History>();
+		this.retained = new LinkedHashMap<PageId, History>() {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<PageId, History> e) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	public void pageAdded(PageId pid) {
+		History h = retained.remove(pid);
+		if (h == null)
+			h = new History(pid, k);
+		h.reference(++now);
+		resident.put(pid, h);
+		order.add(h);
+	}
+
+	public void pageLoaded(PageId pid) {
+		History h = new History(pid, k);
+		h.load(++now);
+		resident.put(pid, h);
+		order.add(h);
+	}
+
+	public void pageAccessed(PageId pid) {
+		History h = resident.get(pid);
+		if (h == null)
+			return;
+		// the position in the order changes with the history
+		order.remove(h);
+		if (h.count == 0) {
+			// first request of a prefetched page
+			History retainedHistory = retained.remove(pid);
+			if (retainedHistory != null) {
+				h = retainedHistory;
+				resident.put(pid, h);
+			}
+		}
+		h.reference(++now);
+		order.add(h);
+	}
+
+	public void pageRemoved(PageId pid) {
+		History h = resident.remove(pid);
+		if (h == null)
+			return;
+		order.remove(h);
+		// prefetched pages that were never requested have no history
+		if (h.count > 0)
+			retained.put(pid, h);
+	}
+
+	public PageId chooseVictim(Frames frames) {
+		for (History h : order) {
+			if (frames.isEvictable(h.pid))
+				return h.pid;
+		}
+		return null;
+	}
+}
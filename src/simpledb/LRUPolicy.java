@@ -0,0 +1,43 @@
+package simpledb;
+
+import java.util.LinkedHashMap;
+
+/**
+ * Least recently used replacement. The resident pages are kept in access
+ * order, so hits move a page to the back and victims are searched from the
+ * front.
+ */
+class LRUPolicy implements ReplacementPolicy {
+
+	// resident pages, least recently used first
+	private final LinkedHashMap<PageId, Boolean> pages;
+
+	LRUPolicy(int capacity) {
+		this.pages = new LinkedHashMap<PageId, Boolean>(capacity * 4 / 3 + 1,
+				0.75f, true);
+	}
+
+	public void pageAdded(PageId pid) {
+		pages.put(pid, Boolean.TRUE);
+	}
+
+	public void pageLoaded(PageId pid) {
+		pages.put(pid, Boolean.TRUE);
+	}
+
+	public void pageAccessed(PageId pid) {
+		pages.get(pid);
+	}
+
+	public void pageRemoved(PageId pid) {
+		pages.remove(pid);
+	}
+
+	public PageId chooseVictim(Frames frames) {
+		for (PageId pid : pages.keySet()) {
+			if (frames.isEvictable(pid))
+				return pid;
+		}
+		return null;
+	}
+}
@@ -1,26 +1,85 @@
 package simpledb;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Hashtable;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import simpledb.PageLock.LockType;
 
 /**
  * This class is the main interface for maintaining lock structures. All locking mechanisms are managed
  * through this class.
+ * <p>
+ * A transaction that cannot get a lock waits on the PageLock of the page
+ * (see {@link PageLock#acquireLock}), so waiting for one page never holds
+ * up requests for other pages. Waits are tracked in a waits-for graph, and a
+ * transaction is only aborted when it is chosen as the victim of a deadlock.
  * @author RadhikaMalik
  *
  */
 
 public class LockTracker {
 
-	private Hashtable<TransactionId, Set<PageLock>> transactionToLocks;
-	private Hashtable<PageId, PageLock> pageToLock;
+	/**
+	 * How the transaction aborted to break a deadlock is chosen among the
+	 * transactions of the cycle
+	 */
+	public enum VictimPolicy {
+		/** the transaction that started last */
+		YOUNGEST,
+		/** the transaction holding the fewest locks, so the least work is lost */
+		FEWEST_LOCKS;
+	}
+
+	private ConcurrentHashMap<TransactionId, Set<PageLock>> transactionToLocks;
+	private ConcurrentHashMap<PageId, PageLock> pageToLock;
+	private WaitsForGraph waitsFor;
 
 	public LockTracker() {
-		this.transactionToLocks = new Hashtable<TransactionId, Set<PageLock>>();
-		this.pageToLock = new Hashtable<PageId, PageLock>();
+		this(VictimPolicy.YOUNGEST);
+	}
+
+	/**
+	 * Creates a LockTracker that breaks deadlocks with the given policy
+	 * @param policy
+	 */
+	public LockTracker(VictimPolicy policy) {
+		this.transactionToLocks = new ConcurrentHashMap<TransactionId, Set<PageLock>>();
+		this.pageToLock = new ConcurrentHashMap<PageId, PageLock>();
+		this.waitsFor = new WaitsForGraph(this, policy);
+	}
+
+	/**
+	 * Changes how deadlock victims are chosen from now on
+	 * @param policy
+	 */
+	public void setVictimPolicy(VictimPolicy policy) {
+		waitsFor.setVictimPolicy(policy);
+	}
+
+	/**
+	 * @return the number of deadlocks found so far
+	 */
+	public long getDeadlocksDetected() {
+		return waitsFor.getDeadlocksDetected();
+	}
+
+	/**
+	 * @return the number of transactions aborted so far to break deadlocks
+	 */
+	public long getVictimsAborted() {
+		return waitsFor.getVictimsAborted();
+	}
+
+	/**
+	 * @param tid
+	 * @return the number of pages tid holds a lock on
+	 */
+	public int numLocksHeld(TransactionId tid) {
+		Set<PageLock> locksForTransaction = transactionToLocks.get(tid);
+		return locksForTransaction == null ? 0 : locksForTransaction.size();
 	}
 
 	/**
@@ -31,11 +90,8 @@ public class LockTracker {
 	 * @return
 	 */
 	public boolean hasLock(TransactionId tid, PageId pid) {
-		synchronized (this) {
-			PageLock l = pageToLock.get(pid);
-			Set<TransactionId> tid_list = l.getTransactionsHoldingLock();
-			return tid_list.contains(tid);
-		}
+		PageLock l = pageToLock.get(pid);
+		return l != null && l.isHeldBy(tid);
 	}
 	/**
 	 * Release a lock that a transaction holds on a given page
@@ -43,199 +99,99 @@ public class LockTracker {
 	 * @param pid
 	 */
 	public void releaseLock(TransactionId tid, PageId pid) {
-		synchronized (this) {
-			PageLock l = pageToLock.get(pid);
-			
-			// make sure lock keeps track of released transaction
-			l.releaseLock(tid);
+		PageLock l = pageToLock.get(pid);
+		if (l == null)
+			return;
 
-			// make sure transaction to lock mapping is updated
+		// make sure lock keeps track of released transaction
+		l.releaseLock(tid);
 
-			Set<PageLock> locksForTransaction = transactionToLocks.get(tid);
+		// make sure transaction to lock mapping is updated
+		Set<PageLock> locksForTransaction = transactionToLocks.get(tid);
+		if (locksForTransaction != null)
 			locksForTransaction.remove(l);
-		}
-
 	}
 	/**
 	 * Create a lock for a given page, if it doesn't exist already
 	 * @param pid
+	 * @return the lock of the page
 	 */
-	public void createLockForPage(PageId pid){
-		 synchronized (this){
+	public PageLock createLockForPage(PageId pid){
 		PageLock l = pageToLock.get(pid);
-		
+
 		//entry already exists for pid to lock
 		if (l!=null)
-			return;
-		
-		//entry does not exist so create a new lock for this pid
+			return l;
+
+		//entry does not exist so create a new lock for this pid, unless
+		//another thread beats us to it
 		PageLock lock=new PageLock(null);
-		this.pageToLock.put(pid, lock);
-		 }
+		l = pageToLock.putIfAbsent(pid, lock);
+		return l != null ? l : lock;
 	}
 	public void releaseAllLocksOnPage(PageId pid) {
-		synchronized (this) {
-			PageLock l = pageToLock.get(pid);
+		PageLock l = pageToLock.get(pid);
+		if (l != null)
 			l.releaseAll();
-		}
 	}
 	/**
 	 * Release all locks held by a given transaction
 	 * @param tid
 	 */
 	public void releaseAllLocksForTransaction(TransactionId tid) {
-		synchronized (this) {
-			
-			Set<PageLock> locksForTransaction = transactionToLocks.get(tid);
-
-			Set<PageLock> locksToRemove = new HashSet<PageLock>();
-			if (locksForTransaction != null) {
-				for (PageLock l : locksForTransaction) {
-
-					locksToRemove.add(l);
-
-				}
-
-				for (PageLock l : locksToRemove) {
-					l.releaseLock(tid);
-					locksForTransaction.remove(l);
-				}
+		Set<PageLock> locksForTransaction = transactionToLocks.remove(tid);
+		if (locksForTransaction != null) {
+			ArrayList<PageLock> locksToRemove;
+			synchronized (locksForTransaction) {
+				locksToRemove = new ArrayList<PageLock>(locksForTransaction);
 			}
+			for (PageLock l : locksToRemove)
+				l.releaseLock(tid);
 		}
+		waitsFor.remove(tid);
 	}
 
 	/**
-	 * Gives an exclusive lock for a page to a transaction
+	 * Gives a transaction a lock of the given type on a page, blocking while
+	 * other transactions hold conflicting locks or are queued for the lock
+	 * before it.
 	 * 
 	 * @param tid
 	 * @param pid
+	 * @param type
+	 * @throws TransactionAbortedException
+	 *             if tid was chosen as the victim of a deadlock or the
+	 *             waiting thread was interrupted
 	 */
-	public void giveXLockToTransaction(TransactionId tid, PageId pid) {
-		synchronized (this) {
-			
-
-			Set<PageLock> locksForTransaction = transactionToLocks.get(tid);
-			PageLock lock = pageToLock.get(pid);
-
-			// If lock type is shared, then lock simply needs to be upgrades
-			// It needs to be checked outside if this is even possible or not -
-			// canGetXLock would have already checked it for us...
-			if (lock.getType() == LockType.SHARED) {
-				lock.upgradeLock();
-				return;
-			}
-			
-			if (locksForTransaction == null) {
-
-				locksForTransaction = new HashSet<PageLock>();
-				locksForTransaction.add(lock);
-				transactionToLocks.put(tid, locksForTransaction);
-
-			} else { // add the page to the list of pages locked by this
-						// transaction
-				locksForTransaction.add(lock);
-				transactionToLocks.put(tid, locksForTransaction);
-			}
-
-
-			lock.acquireLock(LockType.EXCLUSIVE, tid);
-			
+	public void acquireLock(TransactionId tid, PageId pid, LockType type)
+			throws TransactionAbortedException {
+		if (waitsFor.isVictim(tid)) {
+			waitsFor.abort(tid);
+			throw new TransactionAbortedException();
 		}
-	}
 
-	/**
-	 * Gives a shared lock for a page to a transaction
-	 * 
-	 * @param tid
-	 * @param pid
-	 */
-	public void giveSLockToTransaction(TransactionId tid, PageId pid) {
-		synchronized (this) {
-			
-			if (tid == null) {
-				return;
-			}
-			Set<PageLock> locksForTransaction = transactionToLocks.get(tid);
-			PageLock lock = pageToLock.get(pid);
+		PageLock lock = createLockForPage(pid);
+		boolean granted = lock.acquireLock(type, tid, waitsFor);
 
-			//if the transaction already has an exclusive lock on the page the lock should not be updated to a shared lock 
-			if (lock.getType() == LockType.EXCLUSIVE)
-				return;
-			
+		// add the page to the list of pages locked by this transaction
+		if (granted) {
+			Set<PageLock> locksForTransaction = transactionToLocks.get(tid);
 			if (locksForTransaction == null) {
-
-				locksForTransaction = new HashSet<PageLock>();
-				locksForTransaction.add(lock);
-				transactionToLocks.put(tid, locksForTransaction);
-
-			} else { // add the page to the list of pages locked by this
-						// transaction
-				locksForTransaction.add(lock);
-				transactionToLocks.put(tid, locksForTransaction);
+				Set<PageLock> locks = Collections
+						.synchronizedSet(new HashSet<PageLock>());
+				locksForTransaction = transactionToLocks.putIfAbsent(tid,
+						locks);
+				if (locksForTransaction == null)
+					locksForTransaction = locks;
 			}
-			
-			//add the transaction id to the set of transactions the lock holds
-			lock.acquireLock(LockType.SHARED, tid);
+			locksForTransaction.add(lock);
 		}
-	}
-
-	/**
-	 * Checks whether a transaction can get an exclusive lock on a page
-	 * 
-	 * @param tid
-	 * @return
-	 */
-	public boolean canTransactionGetXLock(TransactionId tid, PageId pid) {
-		synchronized (this) {
-			
-			PageLock lock = pageToLock.get(pid);
-			Set<TransactionId> tids = lock.getTransactionsHoldingLock();
-
-			// no transactions hold this lock so this txn can get the lock
-			if (tids.size() == 0)
-				return true;
-
-			if (lock.getType() == null)
-				return true;
-
-			// if lock type is s, then txn can get x lock if it is the only txn
-			// holding s lock
-			if (lock.getType() == LockType.SHARED) {
-				return ((tids.size() == 1) && (tids.contains(tid)));
-			}
-			if (lock.getType() == LockType.EXCLUSIVE) {
-				return tids.contains(tid);
-			}
-			return false;
-		}
-	}
-	/**
-	 * Check whether a transaction can get a shared lock on a page
-	 * @param tid
-	 * @param pid
-	 * @return
-	 */
-	public boolean canTransactionGetSLock(TransactionId tid, PageId pid) {
-		synchronized (this) {
-			PageLock lock = pageToLock.get(pid);
-			Set<TransactionId> tids = lock.getTransactionsHoldingLock();
-
-			// no transactions hold this lock so this txn can get the lock
-			if (tids.size() == 0)
-				return true;
-
-			if (lock.getType() == null)
-				return true;
 
-			// if lock type is s, then txn can get s lock
-			if (lock.getType() == LockType.SHARED) {
-				return true;
-			}
-			//if lock type is x then txn can get s lock only if it is the one holding x lock
-			if (lock.getType() == LockType.EXCLUSIVE) {
-				return ((tids.size() == 1) && (tids.contains(tid)));
-			}
-			return false;
+		// a victim may get the lock before it notices it was chosen; it
+		// aborts all the same, and the lock goes when the transaction does
+		if (!granted || waitsFor.isVictim(tid)) {
+			waitsFor.abort(tid);
+			throw new TransactionAbortedException();
 		}
 	}
 
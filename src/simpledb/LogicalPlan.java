@@ -41,6 +41,9 @@ public  class LogicalPlan {
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
     private String query;
+    private long joinMemoryBudget = HashJoin.DEFAULT_MEMORY_BUDGET;
+    private long sortMemoryBudget = OrderBy.DEFAULT_MEMORY_BUDGET;
+    private long aggMemoryBudget = Aggregate.DEFAULT_MEMORY_BUDGET;
 
     /** Constructor -- generate an empty logical plan */
     public LogicalPlan() {
@@ -70,6 +73,49 @@ public  class LogicalPlan {
         return query;
     }
 
+    /** Set the number of bytes each hash join of this plan may hold in
+        memory before it spills its inputs to disk.  Defaults to
+        {@link HashJoin#DEFAULT_MEMORY_BUDGET}.
+    */
+    public void setJoinMemoryBudget(long bytes) {
+        this.joinMemoryBudget = bytes;
+    }
+
+    /** Get the hash join memory budget set via {@link #setJoinMemoryBudget}.
+     */
+    public long getJoinMemoryBudget() {
+        return joinMemoryBudget;
+    }
+
+    /** Set the number of bytes the ORDER BY of this plan, and each sort
+        of an input of its sort-merge joins, may hold in memory before it
+        sorts externally.  Defaults to
+        {@link OrderBy#DEFAULT_MEMORY_BUDGET}.
+    */
+    public void setSortMemoryBudget(long bytes) {
+        this.sortMemoryBudget = bytes;
+    }
+
+    /** Get the sort memory budget set via {@link #setSortMemoryBudget}.
+     */
+    public long getSortMemoryBudget() {
+        return sortMemoryBudget;
+    }
+
+    /** Set the number of bytes the groups of the aggregate of this plan may
+        hold in memory before it spills to disk.  Defaults to
+        {@link Aggregate#DEFAULT_MEMORY_BUDGET}.
+    */
+    public void setAggregateMemoryBudget(long bytes) {
+        this.aggMemoryBudget = bytes;
+    }
+
+    /** Get the aggregate memory budget set via {@link #setAggregateMemoryBudget}.
+     */
+    public long getAggregateMemoryBudget() {
+        return aggMemoryBudget;
+    }
+
     /** Given a table alias, return id of the table object (this id can be supplied to {@link Catalog#getDbFile(int)}).
         Aliases are added as base tables are added via {@link #addScan}.
 
@@ -447,7 +493,7 @@ public  class LogicalPlan {
                 aggNode = new Aggregate(node,
                                         td.fieldNameToIndex(disambiguateName(aggField)),
                                         groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(disambiguateName(groupByField)),
-                                getAggOp(aggOp));
+                                getAggOp(aggOp), aggMemoryBudget);
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -457,7 +503,7 @@ public  class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(disambiguateName(oByField)), oByAsc, node);
+            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(disambiguateName(oByField)), oByAsc, node, sortMemoryBudget);
         }
 
         return new Project(outFields, outTypes, node);
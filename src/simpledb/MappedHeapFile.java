@@ -0,0 +1,167 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * A HeapFile for read-mostly tables that reads its pages from a memory
+ * mapping of the file rather than with a read call per page. HeapPages are
+ * decoded straight from the mapped region, so a page read does not copy the
+ * page into a fresh array.
+ * <p>
+ * The file is mapped in chunks of CHUNK_SIZE bytes. When the file grows (e.g.
+ * through insertTuple), the chunk holding the end of the file is mapped again
+ * the first time a page beyond the mapped region is read. Pages are written
+ * through the file's channel as in HeapFile; the read only mappings see the
+ * writes, as both go through the OS page cache. So before a page is written,
+ * the pages read from its bytes that are still in use are detached from the
+ * mapping, together with the tuples they handed out.
+ *
+ * @see HeapFile
+ */
+public class MappedHeapFile extends HeapFile {
+
+	/** Number of bytes mapped at a time; a multiple of the page size. */
+	public static final int CHUNK_SIZE = 64 << 20;
+
+	private static final int PAGES_PER_CHUNK = CHUNK_SIZE / BufferPool.PAGE_SIZE;
+
+	// mappings of consecutive CHUNK_SIZE regions of the file. The last one
+	// may be shorter if it reaches the end of the file
+	private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+
+	// pages read from the mapping, by page number, that may still be in use
+	private final HashMap<Integer, ArrayList<WeakReference<HeapPage>>> views =
+		new HashMap<Integer, ArrayList<WeakReference<HeapPage>>>();
+
+	/**
+	 * Constructs a memory mapped heap file backed by the specified file.
+	 *
+	 * @param f
+	 *            the file that stores the on-disk backing store for this heap
+	 *            file.
+	 */
+	public MappedHeapFile(File f, TupleDesc td) {
+		super(f, td);
+	}
+
+	// see DbFile.java for javadocs
+	public Page readPage(PageId pid) {
+		int pgNo = pid.pageNumber();
+		if (pgNo < 0 || pgNo >= numPages())
+			throw new IllegalArgumentException();
+
+		try {
+			ByteBuffer page = chunkOf(pgNo).duplicate();
+			page.position((pgNo % PAGES_PER_CHUNK) * BufferPool.PAGE_SIZE);
+			HeapPage view = new HeapPage((HeapPageId) pid, page);
+			addView(pgNo, view);
+			return view;
+		} catch (IOException e) {
+			throw new IllegalArgumentException();
+		}
+	}
+
+	/**
+	 * Writes the page through the file's channel, after detaching the pages
+	 * read from the bytes it overwrites from the mapping.
+	 */
+	public void writePage(Page page) throws IOException {
+		ArrayList<WeakReference<HeapPage>> pages;
+		synchronized (views) {
+			pages = views.remove(page.getId().pageNumber());
+		}
+		if (pages != null) {
+			for (WeakReference<HeapPage> ref : pages) {
+				HeapPage view = ref.get();
+				if (view != null)
+					view.detach();
+			}
+		}
+		super.writePage(page);
+	}
+
+	/**
+	 * Remembers a page read from the mapping, dropping the pages of the same
+	 * number that are no longer in use.
+	 */
+	private void addView(int pgNo, HeapPage page) {
+		synchronized (views) {
+			ArrayList<WeakReference<HeapPage>> pages = views.get(pgNo);
+			if (pages == null) {
+				pages = new ArrayList<WeakReference<HeapPage>>();
+				views.put(pgNo, pages);
+			}
+			for (Iterator<WeakReference<HeapPage>> it = pages.iterator(); it
+					.hasNext();) {
+				if (it.next().get() == null)
+					it.remove();
+			}
+			pages.add(new WeakReference<HeapPage>(page));
+		}
+	}
+
+	/**
+	 * Drops the mappings and closes the file.
+	 */
+	public synchronized void close() throws IOException {
+		chunks = new MappedByteBuffer[0];
+		super.close();
+	}
+
+	/**
+	 * @return the mapped chunk that holds the given page, mapping it if
+	 *         needed
+	 */
+	private MappedByteBuffer chunkOf(int pgNo) throws IOException {
+		MappedByteBuffer[] mapped = chunks;
+		int c = pgNo / PAGES_PER_CHUNK;
+		if (c < mapped.length && covers(mapped[c], pgNo))
+			return mapped[c];
+		return remap(c, pgNo);
+	}
+
+	/**
+	 * Maps the chunks of the file that are missing or too short because the
+	 * file has grown since they were mapped.
+	 */
+	private synchronized MappedByteBuffer remap(int c, int pgNo)
+			throws IOException {
+		// another reader may have grown the mapping in the meantime
+		if (c < chunks.length && covers(chunks[c], pgNo))
+			return chunks[c];
+
+		FileChannel ch = channel();
+		long size = ch.size();
+		int n = (int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+		MappedByteBuffer[] grown = Arrays.copyOf(chunks, Math.max(n,
+				chunks.length));
+		for (int i = 0; i < n; i++) {
+			long start = (long) i * CHUNK_SIZE;
+			long length = Math.min(CHUNK_SIZE, size - start);
+			if (grown[i] == null || grown[i].capacity() < length)
+				grown[i] = ch.map(FileChannel.MapMode.READ_ONLY, start, length);
+		}
+		chunks = grown;
+		if (c >= grown.length || !covers(grown[c], pgNo))
+			throw new IllegalArgumentException();
+		return grown[c];
+	}
+
+	/**
+	 * @return true if the chunk holds all of the given page
+	 */
+	private static boolean covers(MappedByteBuffer chunk, int pgNo) {
+		return chunk != null
+				&& chunk.capacity() >= (pgNo % PAGES_PER_CHUNK + 1)
+						* BufferPool.PAGE_SIZE;
+	}
+}
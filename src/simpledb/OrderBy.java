@@ -1,16 +1,41 @@
 package simpledb;
+import java.io.IOException;
 import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * The child is sorted in memory as long as its tuples fit in a memory
+ * budget. Otherwise it is sorted externally: it is read in runs that fit the
+ * budget, each of which is sorted and written to a {@link SpillFile}, and the
+ * runs are then merged with a priority queue as the sorted tuples are read.
+ * If there are more runs than can be read at once within the budget, they
+ * are first merged into longer runs, as many at a time as can be.
  */
 public class OrderBy extends Operator {
+    /** Memory budget of a sort that is not given one: 32 MB. */
+    public static final long DEFAULT_MEMORY_BUDGET = 32L << 20;
+
+    /** Estimated bytes a tuple takes in memory, besides its fields. */
+    public static final int TUPLE_OVERHEAD = 64;
+
     DbIterator child;
     TupleDesc td;
     ArrayList<Tuple> childTups = new ArrayList<Tuple>();
     int orderByField;
     Iterator<Tuple> it;
     boolean asc;
+    private final long memoryBudget;
+    private final TupleComparator comparator;
+
+    // sorted runs written to disk, empty if the child fit in memory
+    private ArrayList<SpillFile> runs = new ArrayList<SpillFile>();
+    // merge of the last runs, which the sorted tuples are read from
+    private Merge merge;
+
+    // spill statistics of runs already deleted
+    private long spilledBytes;
+    private int spilledRuns;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -20,32 +45,165 @@ public class OrderBy extends Operator {
      * @param child the tuples to sort.
      */
     public OrderBy(int orderbyField,  boolean asc, DbIterator child) {
+        this(orderbyField, asc, child, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Creates a new OrderBy node whose tuples may take up to memoryBudget
+     * bytes before they are sorted externally.
+     *
+     * @see #OrderBy(int, boolean, DbIterator)
+     */
+    public OrderBy(int orderbyField, boolean asc, DbIterator child,
+            long memoryBudget) {
         this.child = child;
         td= child.getTupleDesc();
         this.orderByField = orderbyField;
         this.asc = asc;
+        this.memoryBudget = memoryBudget;
+        this.comparator = new TupleComparator(orderbyField, asc);
     }
 
     public TupleDesc getTupleDesc() {
         return td;
     }
 
+    /** @return the field the tuples are sorted on */
+    public int getOrderByField() {
+        return orderByField;
+    }
+
+    /** @return true if the tuples are sorted in ascending order */
+    public boolean isAscending() {
+        return asc;
+    }
+
+    /** @return the number of bytes the tuples may take in memory */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return the number of bytes of tuples written to runs so far,
+     *         including the runs that merged runs
+     */
+    public long getSpilledBytes() {
+        long bytes = spilledBytes;
+        for (SpillFile f : runs)
+            bytes += f.numBytes();
+        return bytes;
+    }
+
+    /**
+     * @return the number of runs written so far, including the runs that
+     *         merged runs
+     */
+    public int getSpilledRuns() {
+        return spilledRuns + runs.size();
+    }
+
     public void open()
         throws DbException, NoSuchElementException, TransactionAbortedException {
         child.open();
-        //load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple)child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        closeRuns();
+        childTups.clear();
+        it = null;
+        long tupleBytes = td.getSize() + TUPLE_OVERHEAD;
+        long bytes = 0;
+        try {
+            //load the tuples in a collection, sorting and spilling it
+            //every time it outgrows the budget
+            while (child.hasNext()) {
+                childTups.add(child.next());
+                bytes += tupleBytes;
+                if (bytes > memoryBudget) {
+                    spillRun();
+                    bytes = 0;
+                }
+            }
+            if (runs.isEmpty()) {
+                Collections.sort(childTups, comparator);
+                it = childTups.iterator();
+                return;
+            }
+            if (!childTups.isEmpty())
+                spillRun();
+
+            //merge runs, width at a time and in order, until they can all
+            //be merged at once
+            int width = mergeWidth();
+            while (runs.size() > width) {
+                ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+                for (int i = 0; i < runs.size(); i += width) {
+                    List<SpillFile> group = runs.subList(i,
+                            Math.min(i + width, runs.size()));
+                    SpillFile out = new SpillFile(td);
+                    Merge m = new Merge(group);
+                    while (m.hasNext())
+                        out.add(m.next());
+                    m.close();
+                    for (SpillFile f : group)
+                        closeRun(f);
+                    merged.add(out);
+                }
+                runs = merged;
+            }
+            merge = new Merge(runs);
+        } catch (IOException e) {
+            throw new DbException("could not spill sort: " + e);
+        }
+    }
+
+    /**
+     * @return the number of runs that can be merged at once: as many as
+     *         read buffers fit in the budget, but at least two
+     */
+    private int mergeWidth() {
+        long readBytes = (long) SpillFile.IO_PAGES * BufferPool.PAGE_SIZE;
+        return (int) Math.max(2, Math.min(Integer.MAX_VALUE,
+                memoryBudget / readBytes));
+    }
+
+    /**
+     * Sorts the tuples in memory and writes them to a new run.
+     */
+    private void spillRun() throws IOException {
+        Collections.sort(childTups, comparator);
+        SpillFile run = new SpillFile(td);
+        for (Tuple t : childTups)
+            run.add(t);
+        childTups.clear();
+        runs.add(run);
+    }
+
+    private void closeRun(SpillFile f) {
+        spilledBytes += f.numBytes();
+        spilledRuns++;
+        f.close();
+    }
+
+    private void closeRuns() {
+        if (merge != null) {
+            merge.close();
+            merge = null;
+        }
+        for (SpillFile f : runs)
+            closeRun(f);
+        runs.clear();
     }
 
     public void close() {
+        super.close();
         it = null;
+        closeRuns();
+        childTups.clear();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        if (merge != null)
+            merge.rewind();
+        else
+            it = childTups.iterator();
     }
 
     /**
@@ -58,9 +216,85 @@ public class OrderBy extends Operator {
         throws NoSuchElementException, TransactionAbortedException, DbException {
         if (it != null && it.hasNext()) {
             return it.next();
+        } else if (merge != null && merge.hasNext()) {
+            return merge.next();
         } else
             return null;
     }
+
+    /**
+     * Merges sorted runs, returning their tuples in order. Tuples that sort
+     * equal come from the earlier run first, so that the sort is stable like
+     * Collections.sort.
+     */
+    private class Merge {
+        private final ArrayList<DbIterator> readers = new ArrayList<DbIterator>();
+        private final PriorityQueue<Head> heap;
+
+        Merge(List<SpillFile> files) throws IOException, DbException,
+                TransactionAbortedException {
+            heap = new PriorityQueue<Head>(Math.max(1, files.size()),
+                    new Comparator<Head>() {
+                        public int compare(Head a, Head b) {
+                            int c = comparator.compare(a.tuple, b.tuple);
+                            return c != 0 ? c : a.run - b.run;
+                        }
+                    });
+            for (SpillFile f : files) {
+                DbIterator r = f.iterator();
+                r.open();
+                readers.add(r);
+            }
+            fill();
+        }
+
+        private void fill() throws DbException, TransactionAbortedException {
+            heap.clear();
+            for (int i = 0; i < readers.size(); i++) {
+                DbIterator r = readers.get(i);
+                if (r.hasNext())
+                    heap.add(new Head(i, r.next()));
+            }
+        }
+
+        boolean hasNext() {
+            return !heap.isEmpty();
+        }
+
+        Tuple next() throws DbException, TransactionAbortedException {
+            Head h = heap.poll();
+            Tuple t = h.tuple;
+            DbIterator r = readers.get(h.run);
+            if (r.hasNext()) {
+                h.tuple = r.next();
+                heap.add(h);
+            }
+            return t;
+        }
+
+        void rewind() throws DbException, TransactionAbortedException {
+            for (DbIterator r : readers)
+                r.rewind();
+            fill();
+        }
+
+        void close() {
+            for (DbIterator r : readers)
+                r.close();
+            heap.clear();
+        }
+    }
+
+    /** The next tuple of a run being merged. */
+    private static class Head {
+        final int run;
+        Tuple tuple;
+
+        Head(int run, Tuple tuple) {
+            this.run = run;
+            this.tuple = tuple;
+        }
+    }
 }
 
  class TupleComparator implements Comparator<Tuple> {
@@ -40,6 +40,9 @@ public interface Page {
    * The invariant here is that it should be possible to pass the byte array
    * generated by getPageData to the Page constructor and have it produce
    * an identical Page object.
+   * <p>
+   * The array may be the page's own buffer: callers must not modify it, and
+   * must copy it to keep the contents past the next change to the page.
    *
    * @return A byte array correspond to the bytes of this page.
    */
@@ -1,11 +1,19 @@
 package simpledb;
 
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.Set;
 /**
  * PageLock is the class that represents a lock structure.
  * Each PageLock has a type and a set of transaction id's of transactions holding the lock
- * 
+ * <p>
+ * Transactions that cannot get the lock right away wait in a FIFO queue on the
+ * lock's monitor and are woken up when a holder releases it. A run of shared
+ * requests at the head of the queue is granted together; a transaction
+ * upgrading its shared lock goes to the head of the queue. Deadlocks among
+ * waiting transactions are detected with a {@link WaitsForGraph}.
+ *
  * @author RadhikaMalik
  *
  */
@@ -14,10 +22,24 @@ public class PageLock {
 	public enum LockType{
 		SHARED, EXCLUSIVE;
 	}
-	
+
 	private LockType type; //indicates type of lock. will be null if no transaction holds lock
 	private Set<TransactionId> tids; //transaction id's holding this lock. Will be size 1 if lock is exclusive
-	
+	private LinkedList<Request> waiters; //requests waiting for this lock, in the order they will be granted
+
+	/**
+	 * A transaction waiting for the lock
+	 */
+	private static class Request {
+		final TransactionId tid;
+		final LockType type;
+
+		Request(TransactionId tid, LockType type) {
+			this.tid = tid;
+			this.type = type;
+		}
+	}
+
 	/**
 	 * Creates PageLock with a given type and empty transaction set.
 	 * @param type
@@ -25,45 +47,87 @@ public class PageLock {
 	public PageLock(LockType type){
 		this.type=type;
 		this.tids=new HashSet<TransactionId>();
+		this.waiters=new LinkedList<Request>();
 	}
 	/**
-	 * Gives a transaction a particular type of lock. The lock type is updated and the 
-	 * transactionid is added to the set of transactions holding the lock.
+	 * Gives a transaction a particular type of lock, waiting until the
+	 * transactions holding conflicting locks and the transactions queued
+	 * before it are done. The wait costs no CPU; the waiting thread is woken
+	 * up whenever the lock is released. While it waits, the transaction is
+	 * recorded in the waits-for graph.
+	 *
 	 * @param type
 	 * @param tid
+	 * @param graph
+	 * @return true if the lock was granted, false if tid has to abort to
+	 *         break a deadlock or the waiting thread was interrupted
 	 */
-	public void acquireLock(LockType type, TransactionId tid){
+	public boolean acquireLock(LockType type, TransactionId tid,
+			WaitsForGraph graph) {
 		synchronized(this) {
-		this.type = type;
-		this.tids.add(tid);
+		if (holds(tid, type))
+			return true;
+
+		if (waiters.isEmpty() && isCompatible(tid, type)) {
+			grant(type, tid);
+			return true;
+		}
+
+		// an upgrade cannot wait behind requests that wait for tid itself
+		Request r = new Request(tid, type);
+		if (tids.contains(tid))
+			waiters.addFirst(r);
+		else
+			waiters.addLast(r);
+
+		try {
+			while (!isGrantable(r)) {
+				// the transactions r waits for change every time the lock
+				// changes hands, so the edges are recomputed on every wakeup
+				if (!graph.waitFor(tid, blockersOf(r)))
+					return false;
+				wait();
+			}
+			grant(type, tid);
+			return true;
+		} catch (InterruptedException e) {
+			return false;
+		} finally {
+			// also runs if the thread is stopped, so a dead request never
+			// blocks the ones behind it
+			waiters.remove(r);
+			if (!waiters.isEmpty())
+				notifyAll();
+			graph.stopWaiting(tid);
+		}
 		}
-		
 	}
 	/**
 	 * Returns the type of the lock
 	 * @return
 	 */
-	public LockType getType(){
+	public synchronized LockType getType(){
 		return this.type;
 	}
 	/**
 	 * Return the set of transactions holding the lock
 	 * @return
 	 */
-	public Set<TransactionId> getTransactionsHoldingLock(){
-		return this.tids;
+	public synchronized Set<TransactionId> getTransactionsHoldingLock(){
+		return new HashSet<TransactionId>(this.tids);
 	}
 	/**
-	 * Uprade the lock from shared to exclusive.
+	 * Checks whether a transaction holds this lock
+	 * @param tid
+	 * @return
 	 */
-	public void upgradeLock(){
-		if (this.type == LockType.SHARED)
-				this.type = LockType.EXCLUSIVE;
+	public synchronized boolean isHeldBy(TransactionId tid){
+		return this.tids.contains(tid);
 	}
 	/**
 	 * Releases the lock from a transaction.
 	 * Removes the given transaction id from the set of id's holding the lock
-	 * Changes the type of the lock to null if no transactions hold the lock anymore 
+	 * Changes the type of the lock to null if no transactions hold the lock anymore
 	 * @param tid
 	 */
 	public void releaseLock(TransactionId tid){
@@ -71,17 +135,93 @@ public class PageLock {
 		tids.remove(tid);
 		if (tids.size() == 0)
 			this.type = null;
+		if (!waiters.isEmpty())
+			notifyAll();
 		}
 	}
 	/**
 	 * Releases the lock from all transactions.
-	 * Removes id's of all transactions from the set of transactions holding the lock and sets lock type to null 
+	 * Removes id's of all transactions from the set of transactions holding the lock and sets lock type to null
 	 */
 	public void releaseAll(){
 		synchronized(this) {
 		tids.clear();
 		this.type = null;
+		if (!waiters.isEmpty())
+			notifyAll();
 		}
 	}
-	
+
+	/**
+	 * Adds a transaction to the holders of the lock. An exclusive request
+	 * by the only holder of a shared lock upgrades it.
+	 */
+	private void grant(LockType type, TransactionId tid){
+		tids.add(tid);
+		if (type == LockType.EXCLUSIVE || this.type == null)
+			this.type = type;
+	}
+
+	/**
+	 * @return true if tid already holds the lock in the given mode or a
+	 *         stronger one
+	 */
+	private boolean holds(TransactionId tid, LockType type){
+		if (!tids.contains(tid))
+			return false;
+		return type == LockType.SHARED || this.type == LockType.EXCLUSIVE;
+	}
+
+	/**
+	 * @return true if the lock can be given to tid considering only the
+	 *         transactions that currently hold it
+	 */
+	private boolean isCompatible(TransactionId tid, LockType type){
+		if (tids.size() == 0)
+			return true;
+		boolean onlyHolder = tids.size() == 1 && tids.contains(tid);
+		if (type == LockType.SHARED)
+			return this.type == LockType.SHARED || onlyHolder;
+		return onlyHolder;
+	}
+
+	/**
+	 * @return the transactions a queued request waits for: the other holders
+	 *         if it conflicts with them, and the conflicting requests queued
+	 *         before it
+	 */
+	private Set<TransactionId> blockersOf(Request r){
+		Set<TransactionId> blockers = new HashSet<TransactionId>();
+		if (!isCompatible(r.tid, r.type)) {
+			blockers.addAll(tids);
+			blockers.remove(r.tid);
+		}
+		for (Request ahead : waiters) {
+			if (ahead == r)
+				break;
+			if (ahead.type == LockType.EXCLUSIVE || r.type == LockType.EXCLUSIVE)
+				blockers.add(ahead.tid);
+		}
+		return blockers;
+	}
+
+	/**
+	 * @return true if a queued request can be granted: it must be compatible
+	 *         with the holders, and only shared requests may be queued before
+	 *         a shared request (they are granted together). An exclusive
+	 *         request has to be at the head of the queue.
+	 */
+	private boolean isGrantable(Request r){
+		if (!isCompatible(r.tid, r.type))
+			return false;
+		for (Iterator<Request> it = waiters.iterator(); it.hasNext();) {
+			Request ahead = it.next();
+			if (ahead == r)
+				return true;
+			if (ahead.type == LockType.EXCLUSIVE || r.type == LockType.EXCLUSIVE)
+				return false;
+		}
+		return false;
+	}
+
 }
@@ -0,0 +1,190 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * An aggregate computed in two phases: each of several slices of the input,
+ * e.g. the {@link SeqScan#slices page ranges} of a heap file, is aggregated
+ * into a partial aggregator by a worker thread, and the partial aggregators
+ * are then merged into the final one with
+ * {@link Aggregator#mergePartial(Aggregator)}.
+ * <p>
+ * The groups of every slice are held in memory, so unlike {@link Aggregate}
+ * this operator does not spill groups to disk.
+ */
+public class ParallelAggregate extends Operator {
+
+	private final DbIterator[] slices;
+	private final int afield;
+	private final int gfield;
+	private final Aggregator.Op aop;
+	private final int threads;
+	private final TupleDesc td;
+	private final TupleDesc childTd;
+
+	private DbIterator tupleIterator;
+	// whether the slices were read by an earlier open()
+	private boolean read;
+
+	/**
+	 * Constructor for an aggregate of slices read by one thread each.
+	 * 
+	 * @param slices
+	 *            The DbIterators feeding us the tuples of each slice, with the
+	 *            same TupleDesc. They are read by different threads.
+	 * @param afield
+	 *            The column over which we are computing an aggregate.
+	 * @param gfield
+	 *            The column over which we are grouping the result, or -1 if
+	 *            there is no grouping
+	 * @param aop
+	 *            The aggregation operator to use
+	 */
+	public ParallelAggregate(DbIterator[] slices, int afield, int gfield,
+			Aggregator.Op aop) {
+		this(slices, afield, gfield, aop, slices.length);
+	}
+
+	/**
+	 * Constructor for an aggregate of slices read by up to threads threads.
+	 * 
+	 * @see #ParallelAggregate(DbIterator[], int, int, Aggregator.Op)
+	 */
+	public ParallelAggregate(DbIterator[] slices, int afield, int gfield,
+			Aggregator.Op aop, int threads) {
+		if (slices.length == 0)
+			throw new IllegalArgumentException("need at least one slice");
+		if (threads < 1)
+			throw new IllegalArgumentException("need at least one thread");
+		this.slices = slices;
+		this.afield = afield;
+		this.gfield = gfield;
+		this.aop = aop;
+		this.threads = Math.min(threads, slices.length);
+		this.childTd = slices[0].getTupleDesc();
+		this.td = Aggregate.tupleDesc(childTd, afield, gfield, aop);
+		// fails with an IllegalArgumentException now, rather than in open(),
+		// if the aggregate is not supported over the type of afield
+		Aggregate.newAggregator(childTd, afield, gfield, aop);
+	}
+
+	/**
+	 * Aggregates the slices, on worker threads if there are several, and
+	 * merges their partial aggregators, so that opening the aggregate again
+	 * computes it again.
+	 */
+	public void open() throws NoSuchElementException, DbException,
+			TransactionAbortedException {
+		if (tupleIterator != null)
+			tupleIterator.close();
+		Aggregator agg;
+		if (threads == 1) {
+			agg = Aggregate.newAggregator(childTd, afield, gfield, aop);
+			for (DbIterator slice : slices)
+				agg.mergePartial(new Partial(slice).call());
+		} else {
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+			try {
+				ArrayList<Future<Aggregator>> partials = new ArrayList<Future<Aggregator>>();
+				for (DbIterator slice : slices)
+					partials.add(pool.submit(new Partial(slice)));
+				agg = get(partials.get(0));
+				for (int i = 1; i < partials.size(); i++)
+					agg.mergePartial(get(partials.get(i)));
+			} finally {
+				pool.shutdownNow();
+			}
+		}
+		read = true;
+		tupleIterator = agg.iterator();
+		tupleIterator.open();
+	}
+
+	/**
+	 * Waits for a slice to be aggregated, and rethrows what its worker threw.
+	 */
+	private static Aggregator get(Future<Aggregator> f) throws DbException,
+			TransactionAbortedException {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			throw new DbException("interrupted while aggregating");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof DbException)
+				throw (DbException) cause;
+			if (cause instanceof TransactionAbortedException)
+				throw (TransactionAbortedException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new DbException("could not aggregate slice: " + cause);
+		}
+	}
+
+	/**
+	 * Aggregates the tuples of a slice into a new aggregator.
+	 */
+	private class Partial implements Callable<Aggregator> {
+		private final DbIterator slice;
+
+		Partial(DbIterator slice) {
+			this.slice = slice;
+		}
+
+		public Aggregator call() throws DbException,
+				TransactionAbortedException {
+			Aggregator agg = Aggregate.newAggregator(childTd, afield, gfield,
+					aop);
+			slice.open();
+			try {
+				// scans resume where they were closed, so start them over
+				if (read)
+					slice.rewind();
+				while (slice.hasNext())
+					agg.mergeTupleIntoGroup(slice.next());
+			} finally {
+				slice.close();
+			}
+			return agg;
+		}
+	}
+
+	/**
+	 * Returns the next tuple, as {@link Aggregate#fetchNext()} does.
+	 */
+	protected Tuple fetchNext() throws TransactionAbortedException,
+			DbException {
+		if (tupleIterator != null && tupleIterator.hasNext())
+			return tupleIterator.next();
+		return null;
+	}
+
+	/**
+	 * Returns the results again, without reading the slices again.
+	 */
+	public void rewind() throws DbException, TransactionAbortedException {
+		if (tupleIterator != null)
+			tupleIterator.rewind();
+	}
+
+	public TupleDesc getTupleDesc() {
+		return td;
+	}
+
+	/**
+	 * Closes the aggregate and releases its results.
+	 */
+	public void close() {
+		super.close();
+		if (tupleIterator != null) {
+			tupleIterator.close();
+			tupleIterator = null;
+		}
+	}
+}
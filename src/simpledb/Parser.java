@@ -10,6 +10,9 @@ import jline.SimpleCompletor;
 
 public class Parser {
     static boolean explain = false;
+    static long joinMemoryBudget = HashJoin.DEFAULT_MEMORY_BUDGET;
+    static long sortMemoryBudget = OrderBy.DEFAULT_MEMORY_BUDGET;
+    static long aggMemoryBudget = Aggregate.DEFAULT_MEMORY_BUDGET;
      static HashMap<String, TableStats> statsMap = new HashMap<String,TableStats>();
     private static final int IOCOSTPERPAGE = 1000;
     
@@ -114,6 +117,9 @@ public class Parser {
         Vector<ZFromItem> from = q.getFrom();
         LogicalPlan lp = new LogicalPlan();
         lp.setQuery(q.toString());
+        lp.setJoinMemoryBudget(joinMemoryBudget);
+        lp.setSortMemoryBudget(sortMemoryBudget);
+        lp.setAggregateMemoryBudget(aggMemoryBudget);
         //walk through tables in the FROM clause
         for (int i = 0; i < from.size(); i++) {
             ZFromItem fromIt = from.elementAt(i);
@@ -454,9 +460,9 @@ public class Parser {
 
     public static void main(String argv[]) throws IOException {
 
-        String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+        String usage = "Usage: parser catalogFile [-explain] [-joinmem bytes] [-sortmem bytes] [-aggmem bytes] [-f queryFile]";
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 10) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -482,6 +488,24 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-joinmem")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected byte count after -joinmem\n" + usage);
+                        System.exit(0);
+                    }
+                    joinMemoryBudget = Long.parseLong(argv[i]);
+                } else if (argv[i].equals("-sortmem")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected byte count after -sortmem\n" + usage);
+                        System.exit(0);
+                    }
+                    sortMemoryBudget = Long.parseLong(argv[i]);
+                } else if (argv[i].equals("-aggmem")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected byte count after -aggmem\n" + usage);
+                        System.exit(0);
+                    }
+                    aggMemoryBudget = Long.parseLong(argv[i]);
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
@@ -46,6 +46,27 @@ public class Predicate {
         this.operand=operand;
     }
 
+    /**
+     * @return the field number of the tuples this predicate compares
+     */
+    public int getField() {
+        return field;
+    }
+
+    /**
+     * @return the operator of this predicate
+     */
+    public Op getOp() {
+        return op;
+    }
+
+    /**
+     * @return the value the field is compared to
+     */
+    public Field getOperand() {
+        return operand;
+    }
+
     /**
      * Compares the field number of t specified in the constructor to the
      * operand field specified in the constructor using the operator specific
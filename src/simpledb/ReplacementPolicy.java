@@ -0,0 +1,84 @@
+package simpledb;
+
+/**
+ * Decides which page a buffer pool partition evicts when it is full. Every
+ * partition owns its own policy instance and only calls it while holding the
+ * partition's latch, so implementations need not be thread safe.
+ * <p>
+ * The partition reports every page it adds, prefetches, hits and removes;
+ * the policy
+ * only keeps track of page ids, and asks back through {@link Frames} whether
+ * a page may be evicted (dirty and pinned pages may not).
+ *
+ * @see BufferPoolPartition
+ */
+public interface ReplacementPolicy {
+
+	/**
+	 * The available policies
+	 */
+	public enum Kind {
+		/** evicts the least recently used page */
+		LRU,
+		/** second chance: approximates LRU with one reference bit per page */
+		CLOCK,
+		/** evicts the page whose second most recent use is the oldest */
+		LRU_K,
+		/** scan resistant: pages used once only pass through a FIFO queue */
+		TWO_Q;
+
+		/**
+		 * @return a new policy of this kind for a partition of the given
+		 *         number of pages
+		 */
+		public ReplacementPolicy create(int capacity) {
+			switch (this) {
+			case CLOCK:
+				return new ClockPolicy(capacity);
+			case LRU_K:
+				return new LRUKPolicy(capacity, 2);
+			case TWO_Q:
+				return new TwoQueuePolicy(capacity);
+			default:
+				return new LRUPolicy(capacity);
+			}
+		}
+	}
+
+	/**
+	 * Lets a policy check whether a page may be evicted
+	 */
+	public interface Frames {
+		boolean isEvictable(PageId pid);
+	}
+
+	/**
+	 * Called when a page is read into the partition
+	 */
+	void pageAdded(PageId pid);
+
+	/**
+	 * Called when a page is read into the partition ahead of being
+	 * requested. The page is not referenced until pageAccessed is called for
+	 * it, so a prefetched page that is requested once counts as used once.
+	 */
+	void pageLoaded(PageId pid);
+
+	/**
+	 * Called when a resident page is requested again
+	 */
+	void pageAccessed(PageId pid);
+
+	/**
+	 * Called when a page leaves the partition, evicted or discarded
+	 */
+	void pageRemoved(PageId pid);
+
+	/**
+	 * Picks the page to evict among the resident pages that frames reports as
+	 * evictable. The page stays resident until pageRemoved is called.
+	 *
+	 * @return the page to evict, or null if no page can be evicted
+	 */
+	PageId chooseVictim(Frames frames);
+}
@@ -26,6 +26,23 @@ public class SeqScan implements DbIterator {
      *         name can be null.fieldName, tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, false);
+    }
+
+    /**
+     * Creates a sequential scan over the specified table as a part of the
+     * specified transaction, optionally as a bulk read: pages that are not in
+     * the buffer pool are then read through a small ring of frames private to
+     * the scan, so that scanning a large table does not evict the pages cached
+     * in the buffer pool (see {@link BufferRing}).
+     *
+     * @param tid The transaction this scan is running as a part of.
+     * @param tableid the table to scan.
+     * @param tableAlias the alias of this table (needed by the parser)
+     * @param bulkRead true to read the table through a ring
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias,
+            boolean bulkRead) {
         this.tid=tid;
         this.tableid=tableid;
         
@@ -35,13 +52,67 @@ public class SeqScan implements DbIterator {
         else
         	this.tableAlias=tableAlias;
         
-        this.fileIterator=Database.getCatalog().getDbFile(tableid).iterator(tid);
+        DbFile file=Database.getCatalog().getDbFile(tableid);
+        if (bulkRead && file instanceof HeapFile)
+            this.fileIterator=((HeapFile) file).iterator(tid, true);
+        else
+            this.fileIterator=file.iterator(tid);
+    }
+
+    /**
+     * Creates a sequential scan over the pages of the specified heap file
+     * from firstPage up to, but excluding, endPage.
+     *
+     * @param tid The transaction this scan is running as a part of.
+     * @param tableid the table to scan, which must be a HeapFile.
+     * @param tableAlias the alias of this table (needed by the parser)
+     * @param firstPage the first page to scan
+     * @param endPage the page after the last page to scan
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias,
+            int firstPage, int endPage) {
+        this(tid, tableid, tableAlias);
+        HeapFile file=(HeapFile) Database.getCatalog().getDbFile(tableid);
+        this.fileIterator=file.iterator(tid, firstPage, endPage);
+    }
+
+    /**
+     * Splits a scan of the specified heap file into scans of n slices of
+     * consecutive pages, of as close to the same size as can be, which can
+     * be read by different threads.
+     *
+     * @param n the number of slices
+     * @return the scans of the slices, in page order
+     */
+    public static SeqScan[] slices(TransactionId tid, int tableid,
+            String tableAlias, int n) {
+        HeapFile file=(HeapFile) Database.getCatalog().getDbFile(tableid);
+        int numPages=file.numPages();
+        SeqScan[] slices=new SeqScan[n];
+        for (int i=0;i<n;i++)
+            slices[i]=new SeqScan(tid, tableid, tableAlias,
+                    (int) ((long) numPages*i/n), (int) ((long) numPages*(i+1)/n));
+        return slices;
     }
 
     public SeqScan(TransactionId tid, int tableid) {
 	this(tid, tableid, Database.getCatalog().getTableName(tableid));
     }
 
+    /**
+     * Makes the scan return only the tuples that satisfy the predicate, so
+     * that tuples that fail it are skipped before they are built. This is
+     * only possible for heap files, before the scan is opened; otherwise the
+     * caller has to apply the predicate itself.
+     *
+     * @return true if the scan applies the predicate
+     */
+    boolean pushDown(Predicate p) {
+        if (fileIterator instanceof HeapFileIterator)
+            return ((HeapFileIterator) fileIterator).addFilter(p);
+        return false;
+    }
+
     public void open()
         throws DbException, TransactionAbortedException {
         fileIterator.open();
@@ -8,11 +8,22 @@ public class SimpleDb {
         // convert a file
         if(args[0].equals("convert")) {
         try {
+        // -threads n sets the number of threads parsing the input
+        int threads = Runtime.getRuntime().availableProcessors();
+        ArrayList<String> argList = new ArrayList<String>(Arrays.asList(args));
+        int t = argList.indexOf("-threads");
+        if (t >= 0 && t + 1 < argList.size()) {
+            threads = Integer.parseInt(argList.get(t + 1));
+            argList.subList(t, t + 2).clear();
+            args = argList.toArray(new String[0]);
+        }
         if (args.length == 3) {
+            Type[] ts = new Type[Integer.parseInt(args[2])];
+            Arrays.fill(ts, Type.INT_TYPE);
             HeapFileEncoder.convert(new File(args[1]),
                         new File(args[1].replaceAll(".txt", ".dat")),
                         BufferPool.PAGE_SIZE,
-                        Integer.parseInt(args[2]));
+                        ts.length, ts, threads);
         }
         else if (args.length == 4) {
             ArrayList<Type> ts = new ArrayList<Type>();
@@ -30,7 +41,8 @@ public class SimpleDb {
             HeapFileEncoder.convert(new File(args[1]),
                         new File(args[1].replaceAll(".txt", ".dat")),
                         BufferPool.PAGE_SIZE,
-                        Integer.parseInt(args[2]), ts.toArray(new Type[0]));
+                        Integer.parseInt(args[2]), ts.toArray(new Type[0]),
+                        threads);
 
         } else {
             System.out.println("Unexpected number of arguments to convert ");
@@ -0,0 +1,225 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+
+/**
+ * The SortMergeJoin operator implements equality and range joins by merging
+ * its two inputs sorted on their join fields, instead of rescanning child2
+ * for every tuple of child1 as Join does.
+ * <p>
+ * Inputs that are not already sorted on their join fields are sorted with an
+ * OrderBy; an input that is an OrderBy on its join field, in the order the
+ * join needs, is used as is. Equality and greater-than joins merge inputs
+ * sorted in ascending order, and less-than joins inputs sorted in descending
+ * order, so that the tuples of child2 that match a tuple of child1 are always
+ * a run of child2 that the next tuple of child1 extends (or, for equality,
+ * replaces). That run is the only part of child2 held in memory.
+ * <p>
+ * The OrderBys that sort the inputs each get the sort memory budget of the
+ * join, and sort externally beyond it.
+ */
+public class SortMergeJoin extends Operator {
+
+	JoinPredicate p;
+	DbIterator child1;
+	DbIterator child2;
+	private TupleDesc td;
+	private final boolean asc;
+	private final long sortMemoryBudget;
+
+	// tuples of child2 that match the current outer tuple, or for an
+	// equality join, the last run of equal keys read
+	private ArrayList<Tuple> run = new ArrayList<Tuple>();
+	// the next tuple of child2, not in the run yet
+	private Tuple next2;
+
+	// the outer tuple being joined, and the next of its matches to return
+	private Tuple next1;
+	private int nextMatch;
+	private int numMatches;
+
+	/**
+	 * Constructor. Accepts to children to join and the predicate to join them
+	 * on
+	 *
+	 * @param p
+	 *            The predicate to use to join the children; its operator must
+	 *            be EQUALS, GREATER_THAN, GREATER_THAN_OR_EQ, LESS_THAN or
+	 *            LESS_THAN_OR_EQ
+	 * @param child1
+	 *            Iterator for the left(outer) relation to join
+	 * @param child2
+	 *            Iterator for the right(inner) relation to join
+	 */
+	public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+		this(p, child1, child2, OrderBy.DEFAULT_MEMORY_BUDGET);
+	}
+
+	/**
+	 * Constructor for a join whose inputs, where they need sorting, are each
+	 * sorted within sortMemoryBudget bytes.
+	 *
+	 * @see #SortMergeJoin(JoinPredicate, DbIterator, DbIterator)
+	 */
+	public SortMergeJoin(JoinPredicate p, DbIterator child1,
+			DbIterator child2, long sortMemoryBudget) {
+		Predicate.Op op = p.getOperator();
+		if (!canMerge(op))
+			throw new IllegalArgumentException("cannot sort-merge join on "
+					+ op);
+		this.p = p;
+		this.asc = op != Predicate.Op.LESS_THAN
+				&& op != Predicate.Op.LESS_THAN_OR_EQ;
+		this.sortMemoryBudget = sortMemoryBudget;
+		this.child1 = sorted(child1, p.getField1(), asc);
+		this.child2 = sorted(child2, p.getField2(), asc);
+		this.td = TupleDesc.merge(child1.getTupleDesc(),
+				child2.getTupleDesc());
+	}
+
+	/**
+	 * @return true if a join with the given operator can be sort-merged
+	 */
+	public static boolean canMerge(Predicate.Op op) {
+		return op == Predicate.Op.EQUALS || op == Predicate.Op.GREATER_THAN
+				|| op == Predicate.Op.GREATER_THAN_OR_EQ
+				|| op == Predicate.Op.LESS_THAN
+				|| op == Predicate.Op.LESS_THAN_OR_EQ;
+	}
+
+	/**
+	 * @return true if the tuples of an iterator are known to be sorted on a
+	 *         field, in the given order
+	 */
+	static boolean isSorted(DbIterator child, int field, boolean asc) {
+		if (!(child instanceof OrderBy))
+			return false;
+		OrderBy o = (OrderBy) child;
+		return o.getOrderByField() == field && o.isAscending() == asc;
+	}
+
+	private DbIterator sorted(DbIterator child, int field, boolean asc) {
+		return isSorted(child, field, asc) ? child : new OrderBy(field, asc,
+				child, sortMemoryBudget);
+	}
+
+	/**
+	 * @return the number of bytes each input may take in memory while it is
+	 *         sorted
+	 */
+	public long getSortMemoryBudget() {
+		return sortMemoryBudget;
+	}
+
+	/**
+	 * @see simpledb.TupleDesc#merge(TupleDesc, TupleDesc) for possible
+	 *      implementation logic.
+	 */
+	public TupleDesc getTupleDesc() {
+		return td;
+	}
+
+	public void open() throws DbException, NoSuchElementException,
+			TransactionAbortedException {
+		child1.open();
+		child2.open();
+		start();
+	}
+
+	public void close() {
+		super.close();
+		child1.close();
+		child2.close();
+		run.clear();
+		next1 = null;
+		next2 = null;
+	}
+
+	public void rewind() throws DbException, TransactionAbortedException {
+		child1.rewind();
+		child2.rewind();
+		start();
+	}
+
+	private void start() throws DbException, TransactionAbortedException {
+		run.clear();
+		next1 = null;
+		nextMatch = numMatches = 0;
+		next2 = child2.hasNext() ? child2.next() : null;
+	}
+
+	/**
+	 * Returns the next tuple generated by the join, or null if there are no
+	 * more tuples: the concatenation of the current outer tuple with its next
+	 * match, moving on to the next outer tuple once they run out.
+	 *
+	 * @return The next matching tuple.
+	 * @see Join#fetchNext
+	 */
+	protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+		while (nextMatch == numMatches) {
+			if (!child1.hasNext())
+				return null;
+			next1 = child1.next();
+			nextMatch = 0;
+			numMatches = p.getOperator() == Predicate.Op.EQUALS ? mergeEquals()
+					: mergeRange();
+		}
+		return merge(next1, run.get(nextMatch++));
+	}
+
+	/**
+	 * Extends the run with the tuples of child2 that match next1. Since
+	 * both inputs are sorted so that the matches of an outer tuple are
+	 * matches of the next one too, the run only grows.
+	 *
+	 * @return the number of matches of next1
+	 */
+	private int mergeRange() throws DbException, TransactionAbortedException {
+		while (next2 != null && p.filter(next1, next2)) {
+			run.add(next2);
+			next2 = child2.hasNext() ? child2.next() : null;
+		}
+		return run.size();
+	}
+
+	/**
+	 * Moves the run to the tuples of child2 whose key equals that of next1,
+	 * if it is not there already.
+	 *
+	 * @return the number of matches of next1
+	 */
+	private int mergeEquals() throws DbException, TransactionAbortedException {
+		Field key = next1.getField(p.getField1());
+		int field2 = p.getField2();
+		if (!run.isEmpty()) {
+			Field runKey = run.get(0).getField(field2);
+			if (key.compare(Predicate.Op.EQUALS, runKey))
+				return run.size();
+			if (key.compare(Predicate.Op.LESS_THAN, runKey))
+				return 0;
+			run.clear();
+		}
+		while (next2 != null
+				&& key.compare(Predicate.Op.GREATER_THAN, next2.getField(field2)))
+			next2 = child2.hasNext() ? child2.next() : null;
+		while (next2 != null
+				&& key.compare(Predicate.Op.EQUALS, next2.getField(field2))) {
+			run.add(next2);
+			next2 = child2.hasNext() ? child2.next() : null;
+		}
+		return run.size();
+	}
+
+	private Tuple merge(Tuple t1, Tuple t2) {
+		Tuple result = new Tuple(td);
+		int numFields = t1.getTupleDesc().numFields();
+		for (int i = 0; i < numFields; i++)
+			result.setField(i, t1.getField(i));
+		for (int j = 0; j < t2.getTupleDesc().numFields(); j++)
+			result.setField(j + numFields, t2.getField(j));
+		return result;
+	}
+
+}
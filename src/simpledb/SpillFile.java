@@ -0,0 +1,214 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A temporary file of tuples that an operator writes the part of its input
+ * that does not fit in memory to, and reads back later in the order it was
+ * written. The tuples are stored in the page format of HeapFiles, with every
+ * page full but the last one.
+ * <p>
+ * Spill files are private to the operator that creates them: they do not go
+ * through the buffer pool or the catalog, take no locks, and are deleted when
+ * they are closed. Pages are written and read IO_PAGES at a time.
+ */
+public class SpillFile {
+
+	/** Number of pages written or read at a time. */
+	public static final int IO_PAGES = 16;
+
+	private final TupleDesc td;
+	private final int slots;
+	private final int headerSize;
+	private final int tupleSize;
+	private final File file;
+	private FileChannel channel;
+
+	// pages being filled, null once the file is finished
+	private byte[] buf;
+	private ByteBuffer out;
+	private int pages; // full pages in buf
+	private int slot; // next slot of the page being filled
+	private long written; // pages written to the file
+	private long numTuples;
+
+	/**
+	 * Creates an empty spill file for tuples of the given schema.
+	 */
+	public SpillFile(TupleDesc td) throws IOException {
+		this.td = td;
+		this.slots = HeapPage.slotsPerPage(td);
+		this.headerSize = HeapPage.headerSize(slots);
+		this.tupleSize = td.getSize();
+		this.file = File.createTempFile("spill", ".dat");
+		file.deleteOnExit();
+		this.channel = new RandomAccessFile(file, "rw").getChannel();
+		this.buf = new byte[IO_PAGES * BufferPool.PAGE_SIZE];
+		this.out = ByteBuffer.wrap(buf);
+	}
+
+	/**
+	 * @return the schema of the tuples of the file
+	 */
+	public TupleDesc getTupleDesc() {
+		return td;
+	}
+
+	/**
+	 * Appends a tuple to the file.
+	 *
+	 * @throws IllegalStateException
+	 *             if the file has been read already
+	 */
+	public void add(Tuple t) throws IOException {
+		if (buf == null)
+			throw new IllegalStateException("spill file is read only");
+		HeapPage.writeSlot(out, pages * BufferPool.PAGE_SIZE, headerSize, slot,
+				t);
+		numTuples++;
+		if (++slot == slots) {
+			slot = 0;
+			if (++pages == IO_PAGES)
+				flush();
+		}
+	}
+
+	/**
+	 * @return the number of tuples in the file
+	 */
+	public long numTuples() {
+		return numTuples;
+	}
+
+	/**
+	 * @return the number of bytes of the pages the tuples of the file take
+	 */
+	public long numBytes() {
+		long numPages = written + pages + (slot > 0 ? 1 : 0);
+		return numPages * BufferPool.PAGE_SIZE;
+	}
+
+	/**
+	 * Returns an iterator over the tuples of the file, in the order they were
+	 * added. No tuples can be added once the file has been read.
+	 */
+	public DbIterator iterator() throws IOException {
+		if (buf != null) {
+			if (slot > 0) {
+				pages++;
+				slot = 0;
+			}
+			flush();
+			buf = null;
+			out = null;
+		}
+		return new Reader();
+	}
+
+	/**
+	 * Closes and deletes the file.
+	 */
+	public void close() {
+		buf = null;
+		out = null;
+		try {
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		file.delete();
+	}
+
+	/**
+	 * Writes the pages filled in buf to the file.
+	 */
+	private void flush() throws IOException {
+		ByteBuffer pagesOut = ByteBuffer.wrap(buf, 0, pages
+				* BufferPool.PAGE_SIZE);
+		long offset = written * BufferPool.PAGE_SIZE;
+		while (pagesOut.hasRemaining())
+			channel.write(pagesOut, offset + pagesOut.position());
+		Arrays.fill(buf, 0, pages * BufferPool.PAGE_SIZE, (byte) 0);
+		written += pages;
+		pages = 0;
+	}
+
+	/**
+	 * Reads the tuples of the file back. The tuples are built over the bytes
+	 * read, which are read into a new buffer every IO_PAGES pages, so they
+	 * stay valid after the reader moves on.
+	 */
+	private class Reader implements DbIterator {
+		private ByteBuffer in;
+		private long nextPage; // next page to read from the file
+		private int pagesIn; // pages in in
+		private int page; // page of in the next tuple is on
+		private int nextSlot;
+		private long returned;
+		private boolean open;
+
+		public void open() {
+			open = true;
+			rewind();
+		}
+
+		public boolean hasNext() {
+			return open && returned < numTuples;
+		}
+
+		public Tuple next() throws DbException {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			if (nextSlot == slots) {
+				nextSlot = 0;
+				page++;
+			}
+			if (page == pagesIn)
+				read();
+			returned++;
+			return new Tuple(td, in, page * BufferPool.PAGE_SIZE + headerSize
+					+ nextSlot++ * tupleSize);
+		}
+
+		private void read() throws DbException {
+			int n = (int) Math.min(IO_PAGES, written - nextPage);
+			in = ByteBuffer.allocate(n * BufferPool.PAGE_SIZE);
+			try {
+				long offset = nextPage * BufferPool.PAGE_SIZE;
+				while (in.hasRemaining()) {
+					if (channel.read(in, offset + in.position()) < 0)
+						throw new DbException("spill file is short");
+				}
+			} catch (IOException e) {
+				throw new DbException("could not read spill file: " + e);
+			}
+			nextPage += n;
+			pagesIn = n;
+			page = 0;
+		}
+
+		public void rewind() {
+			in = null;
+			nextPage = 0;
+			pagesIn = 0;
+			page = 0;
+			nextSlot = 0;
+			returned = 0;
+		}
+
+		public TupleDesc getTupleDesc() {
+			return td;
+		}
+
+		public void close() {
+			open = false;
+			in = null;
+		}
+	}
+}
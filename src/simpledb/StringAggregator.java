@@ -1,10 +1,13 @@
 package simpledb;
 
 import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * Knows how to compute some aggregate over a set of StringFields.
+ * <p>
+ * Groups are found with a {@link GroupTable}, and the count of each group is
+ * kept in an array indexed by group.
  */
 public class StringAggregator implements Aggregator {
 
@@ -12,9 +15,15 @@ public class StringAggregator implements Aggregator {
 	private Type gbfieldtype;
 	private int afield;
 	private Op what;
-	private List<Tuple> groupedTuples;
 	private TupleDesc td;
 
+	// groups by group-by value, null if there is no grouping
+	private GroupTable groups;
+	// number of groups; at most 1 if there is no grouping
+	private int numGroups;
+	// count of each group
+	private long[] counts = new long[8];
+
 	/**
 	 * Aggregate constructor
 	 * 
@@ -40,7 +49,6 @@ public class StringAggregator implements Aggregator {
 		this.afield = afield;
 		this.what = what;
 
-		groupedTuples = new ArrayList<Tuple>();
 		Type[] newGroupType;
 		if (gbfield == Aggregator.NO_GROUPING) {
 			newGroupType = new Type[1];
@@ -51,6 +59,7 @@ public class StringAggregator implements Aggregator {
 			newGroupType[0] = gbfieldtype;
 			newGroupType[1] = Type.INT_TYPE;
 
+			groups = new GroupTable(gbfield, gbfieldtype);
 		}
 		td = new TupleDesc(newGroupType);
 	}
@@ -63,51 +72,50 @@ public class StringAggregator implements Aggregator {
 	 *            the Tuple containing an aggregate field and a group-by field
 	 */
 	public void mergeTupleIntoGroup(Tuple tup) {
-		
-		//IntField tupAField = (IntField) tup.getField(afield);
-		//int aValue = tupAField.getValue();
-		if (this.gbfield == Aggregator.NO_GROUPING) {
-			if (groupedTuples.size() == 0) {
-
-				Tuple newTuple = new Tuple(td);
-				newTuple.setField(0, new IntField(1));
-				groupedTuples.add(newTuple);
-			} else {
-				Tuple newTuple = groupedTuples.get(0);
-				int tupToModifyFieldValue;
-				IntField tupToModifyField = (IntField) newTuple.getField(1);
-				tupToModifyFieldValue = tupToModifyField.getValue();
-				newTuple.setField(0, new IntField(tupToModifyFieldValue+1));
-			}
+		merge(groups == null ? 0 : groups.find(tup));
+	}
 
-		} else {
-			Tuple tupToModify=null;
-			Field tupGBField = tup.getField(gbfield);
-			
-			for (int i = 0; i < groupedTuples.size(); i++) {
-				Tuple t = groupedTuples.get(i);
-				Field tGBField = t.getField(0);
-				
-				if (tGBField.equals(tupGBField)) {
-					tupToModify = t;	
-				}
-			}
-			if (tupToModify==null){
-				
-				Tuple newTuple = new Tuple(td);
-				newTuple.setField(0, tupGBField);
-				newTuple.setField(1, new IntField(1));
-				groupedTuples.add(newTuple);
-			}
-			else{
-				//System.out.println("HI");
-				int tupToModifyFieldValue;
-				IntField tupToModifyField = (IntField) tupToModify.getField(1);
-				tupToModifyFieldValue = tupToModifyField.getValue();
-				tupToModify.setField(1, new IntField(tupToModifyFieldValue+1));
-			}
-			
+	public boolean mergeTupleIntoExistingGroup(Tuple tup) {
+		int group = groups == null ? numGroups - 1 : groups.find(tup, false);
+		if (group < 0)
+			return false;
+		merge(group);
+		return true;
+	}
+
+	public int numGroups() {
+		return numGroups;
+	}
+
+	private void merge(int group) {
+		merge(group, 1);
+	}
+
+	private void merge(int group, long count) {
+		if (group == numGroups) {
+			// first tuples of the group
+			if (group == counts.length)
+				counts = Arrays.copyOf(counts, 2 * group);
+			numGroups++;
 		}
+		counts[group] += count;
+	}
+
+	/**
+	 * Merges the groups of another StringAggregator by adding their counts.
+	 */
+	public void mergePartial(Aggregator partial) {
+		if (!(partial instanceof StringAggregator))
+			throw new IllegalArgumentException("cannot merge a "
+					+ partial.getClass().getSimpleName());
+		StringAggregator p = (StringAggregator) partial;
+		if (p.afield != afield || p.gbfield != gbfield
+				|| p.gbfieldtype != gbfieldtype)
+			throw new IllegalArgumentException(
+					"cannot merge an aggregator of another aggregate");
+		for (int g = 0; g < p.numGroups; g++)
+			merge(groups == null ? 0 : groups.find(p.groups.key(g), true),
+					p.counts[g]);
 	}
 
 	/**
@@ -119,7 +127,17 @@ public class StringAggregator implements Aggregator {
 	 *         the constructor.
 	 */
 	public DbIterator iterator() {
-		// some code goes here
+		ArrayList<Tuple> groupedTuples = new ArrayList<Tuple>(numGroups);
+		for (int g = 0; g < numGroups; g++) {
+			Tuple t = new Tuple(td);
+			if (groups == null) {
+				t.setField(0, new IntField((int) counts[g]));
+			} else {
+				t.setField(0, groups.key(g));
+				t.setField(1, new IntField((int) counts[g]));
+			}
+			groupedTuples.add(t);
+		}
 		return (DbIterator) new TupleIterator(td, groupedTuples);
 	}
 
@@ -6,8 +6,8 @@ import java.io.*;
  * Instance of Field that stores a single String of a fixed length.
  */
 public class StringField implements Field {
-    private String value;
-    private int maxSize;
+    private final String value;
+    private final int maxSize;
 
     public String getValue() {
         return value;
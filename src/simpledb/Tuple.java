@@ -1,5 +1,6 @@
 package simpledb;
 
+import java.nio.ByteBuffer;
 import java.util.NoSuchElementException;
 
 /**
@@ -13,6 +14,14 @@ public class Tuple {
 	RecordId rid;
 	Field[] fieldAr;
 
+	// serialized tuple the fields that have not been set are decoded from,
+	// null for tuples built field by field
+	ByteBuffer data;
+	int offset;
+	// the page data belongs to, kept in use while the tuple reads from it so
+	// that the page can still detach the tuple
+	Object owner;
+
 	/**
 	 * Create a new tuple with the specified schema (type).
 	 * 
@@ -31,6 +40,25 @@ public class Tuple {
 		this.fieldAr = new Field[length];
 	}
 
+	/**
+	 * Create a tuple over a serialized tuple stored in a buffer, such as a
+	 * slot of a HeapPage. Each field is decoded from the buffer the first time
+	 * it is asked for, so fields that are never used are never decoded.
+	 * 
+	 * @param td
+	 *            the schema of this tuple
+	 * @param data
+	 *            buffer holding the tuple, which must not change while the
+	 *            tuple is in use
+	 * @param offset
+	 *            absolute offset of the tuple in data
+	 */
+	Tuple(TupleDesc td, ByteBuffer data, int offset) {
+		this(td);
+		this.data = data;
+		this.offset = offset;
+	}
+
 	/**
 	 * @return The TupleDesc representing the schema of this tuple.
 	 */
@@ -82,12 +110,61 @@ public class Tuple {
 	 */
 	public Field getField(int i) {
 		try {
-			return this.fieldAr[i];
+			Field f = this.fieldAr[i];
+			if (f == null && data != null) {
+				f = td.getFieldType(i).read(data, offset + td.getOffset(i));
+				this.fieldAr[i] = f;
+			}
+			return f;
 		} catch (ArrayIndexOutOfBoundsException e) {
 			throw new NoSuchElementException();
 		}
 	}
 
+	/**
+	 * @return the value of the ith field, which must be an int field, read
+	 *         straight from the buffer the tuple was created over if it has
+	 *         not been decoded, without creating an IntField
+	 */
+	int getInt(int i) {
+		Field f = fieldAr[i];
+		if (f == null && data != null)
+			return data.getInt(offset + td.getOffset(i));
+		return ((IntField) f).getValue();
+	}
+
+	/**
+	 * Writes the fields of this tuple into buf at the given absolute offset,
+	 * in the format the Types of its fields parse. Fields that have not been
+	 * decoded yet are copied from the buffer the tuple was created over.
+	 */
+	void write(ByteBuffer buf, int offset) {
+		for (int i = 0; i < fieldAr.length; i++) {
+			Type type = td.getFieldType(i);
+			int fieldOffset = td.getOffset(i);
+			if (fieldAr[i] != null) {
+				type.write(fieldAr[i], buf, offset + fieldOffset);
+			} else {
+				for (int j = 0; j < type.getLen(); j++)
+					buf.put(offset + fieldOffset + j,
+							data.get(this.offset + fieldOffset + j));
+			}
+		}
+	}
+
+	/**
+	 * Decodes all the fields that have not been decoded yet, so that the tuple
+	 * no longer depends on the buffer it was created over.
+	 */
+	void detach() {
+		if (data == null)
+			return;
+		for (int i = 0; i < fieldAr.length; i++)
+			getField(i);
+		data = null;
+		owner = null;
+	}
+
 	/**
 	 * Returns the contents of this Tuple as a string. Note that to pass the
 	 * system tests, the format needs to be as follows:
@@ -100,7 +177,7 @@ public class Tuple {
 
 		String returnVal = "";
 		for (int i = 0; i < fieldAr.length; i++) {
-			returnVal += fieldAr[i].toString();
+			returnVal += getField(i).toString();
 			if (i < fieldAr.length - 1)
 				returnVal += '\t';
 		}
@@ -129,6 +129,21 @@ public class TupleDesc {
 		return size;
 	}
 
+	/**
+	 * @return The offset (in bytes) of the ith field from the start of a
+	 *         serialized tuple of this TupleDesc.
+	 * @throws NoSuchElementException
+	 *             if i is not a valid field reference.
+	 */
+	public int getOffset(int i) throws NoSuchElementException {
+		if (i < 0 || i >= typeAr.length)
+			throw new NoSuchElementException();
+		int offset = 0;
+		for (int j = 0; j < i; j++)
+			offset += typeAr[j].getLen();
+		return offset;
+	}
+
 	/**
 	 * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
 	 * with the first td1.numFields coming from td1 and the remaining from td2.
@@ -0,0 +1,118 @@
+package simpledb;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * 2Q replacement (Johnson and Shasha). A page read for the first time goes
+ * into a FIFO queue, A1in, and is evicted from there unless it is requested
+ * again: a hit in A1in promotes the page to the LRU list of hot pages, Am.
+ * The ids of pages evicted from A1in are remembered in a ghost queue, A1out,
+ * and a page found there when it is read again goes straight to Am. A large
+ * scan therefore only cycles through A1in and leaves the hot pages alone.
+ * <p>
+ * Unlike the full algorithm of the paper, hits in A1in are not ignored:
+ * SimpleDB's scans fetch every page once, so a second reference is not a
+ * correlated one of the same scan, and ignoring it lets a scan push hot pages
+ * out of both A1in and A1out before they are ever promoted.
+ * <p>
+ * A prefetched page waits in A1in without being referenced: it is only
+ * looked up in A1out when it is requested, and forgotten if it is evicted
+ * before that, so prefetching never promotes a page.
+ */
+class TwoQueuePolicy implements ReplacementPolicy {
+
+	// share of the partition A1in may take before it is evicted from first
+	private final int maxIn;
+
+	// resident pages seen once, oldest first
+	private final LinkedHashSet<PageId> in;
+	// resident hot pages, least recently used first
+	private final LinkedHashMap<PageId, Boolean> hot;
+	// ids of pages recently evicted from A1in, oldest first
+	private final LinkedHashMap<PageId, Boolean> out;
+	// resident pages that were prefetched and not requested yet
+	private final HashSet<PageId> loaded;
+
+	TwoQueuePolicy(int capacity) {
+		// the sizes recommended by the paper: A1in a quarter of the pages,
+		// A1out as many ids as half of the pages
+		this.maxIn = Math.max(1, capacity / 4);
+		final int maxOut = Math.max(1, capacity / 2);
+
+		this.in = new LinkedHashSet<PageId>();
+		this.loaded = new HashSet<PageId>();
+		this.hot = new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+		this.out = new LinkedHashMap<PageId, Boolean>() {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<PageId, Boolean> e) {
+				return size() > maxOut;
+			}
+		};
+	}
+
+	public void pageAdded(PageId pid) {
+		if (out.remove(pid) != null)
+			hot.put(pid, Boolean.TRUE);
+		else
+			in.add(pid);
+	}
+
+	public void pageLoaded(PageId pid) {
+		in.add(pid);
+		loaded.add(pid);
+	}
+
+	public void pageAccessed(PageId pid) {
+		if (loaded.remove(pid)) {
+			// the first reference of a prefetched page, as if it was read
+			// now: it stays in A1in unless it was seen recently
+			if (out.remove(pid) != null) {
+				in.remove(pid);
+				hot.put(pid, Boolean.TRUE);
+			}
+			return;
+		}
+		if (in.remove(pid))
+			hot.put(pid, Boolean.TRUE);
+		else
+			hot.get(pid);
+	}
+
+	public void pageRemoved(PageId pid) {
+		if (loaded.remove(pid)) {
+			// never referenced, so not remembered in A1out
+			in.remove(pid);
+			return;
+		}
+		if (in.remove(pid))
+			out.put(pid, Boolean.TRUE);
+		else
+			hot.remove(pid);
+	}
+
+	public PageId chooseVictim(Frames frames) {
+		PageId victim = null;
+		if (in.size() > maxIn || hot.isEmpty()) {
+			victim = firstEvictable(in, frames);
+			if (victim == null)
+				victim = firstEvictable(hot.keySet(), frames);
+		} else {
+			victim = firstEvictable(hot.keySet(), frames);
+			if (victim == null)
+				victim = firstEvictable(in, frames);
+		}
+		return victim;
+	}
+
+	private static PageId firstEvictable(Iterable<PageId> queue, Frames frames) {
+		for (PageId pid : queue) {
+			if (frames.isEvictable(pid))
+				return pid;
+		}
+		return null;
+	}
+}
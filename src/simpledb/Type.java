@@ -2,6 +2,7 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +25,23 @@ public enum Type {
             }
         }
 
+        @Override
+        public Field read(ByteBuffer buf, int offset) {
+            return new IntField(buf.getInt(offset));
+        }
+
+        @Override
+        public boolean compare(ByteBuffer buf, int offset, Predicate.Op op,
+                Field operand) {
+            return IntField.compare(op, buf.getInt(offset),
+                    ((IntField) operand).getValue());
+        }
+
+        @Override
+        public void write(Field f, ByteBuffer buf, int offset) {
+            buf.putInt(offset, ((IntField) f).getValue());
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,6 +60,30 @@ public enum Type {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field read(ByteBuffer buf, int offset) {
+            int strLen = buf.getInt(offset);
+            byte bs[] = new byte[strLen];
+            for (int i = 0; i < strLen; i++)
+                bs[i] = buf.get(offset + 4 + i);
+            return new StringField(new String(bs), STRING_LEN);
+        }
+
+        @Override
+        public boolean compare(ByteBuffer buf, int offset, Predicate.Op op,
+                Field operand) {
+            return read(buf, offset).compare(op, operand);
+        }
+
+        @Override
+        public void write(Field f, ByteBuffer buf, int offset) {
+            String s = ((StringField) f).getValue();
+            int strLen = Math.min(s.length(), STRING_LEN);
+            buf.putInt(offset, strLen);
+            for (int i = 0; i < STRING_LEN; i++)
+                buf.put(offset + 4 + i, i < strLen ? (byte) s.charAt(i) : 0);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +102,26 @@ public enum Type {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object with the contents
+   *   stored in the buffer at the given absolute offset, in the format read
+   *   by parse. The buffer's position is not changed.
+   */
+    public abstract Field read(ByteBuffer buf, int offset);
+
+  /**
+   * Compares the value stored in the buffer at the given absolute offset to
+   *   the operand, as Field.compare does, without creating a Field for the
+   *   stored value where the type allows it.
+   * @see Field#compare
+   */
+    public abstract boolean compare(ByteBuffer buf, int offset,
+            Predicate.Op op, Field operand);
+
+  /**
+   * Writes the field into the buffer at the given absolute offset, in the
+   *   format read by parse. The buffer's position is not changed.
+   */
+    public abstract void write(Field f, ByteBuffer buf, int offset);
+
 }
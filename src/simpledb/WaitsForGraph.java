@@ -0,0 +1,177 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.LockTracker.VictimPolicy;
+
+/**
+ * The waits-for graph of the transactions blocked on page locks. A blocked
+ * request adds edges from its transaction to the transactions it waits for,
+ * and since any new cycle must go through the new edges, a deadlock is found
+ * by searching for a path back to that transaction only. One transaction of
+ * the cycle is then chosen as the victim: it is marked, its waiting threads
+ * are interrupted, and every lock request it makes fails until it completes.
+ * <p>
+ * Callers may hold the monitor of a PageLock when calling into the graph, but
+ * the graph never calls back into a PageLock.
+ *
+ * @see LockTracker
+ */
+class WaitsForGraph {
+
+	private final LockTracker locks;
+	private volatile VictimPolicy policy;
+
+	// the blocked threads of every waiting transaction, each with the
+	// transactions it waits for. A transaction can wait in several threads
+	private final HashMap<TransactionId, HashMap<Thread, Set<TransactionId>>> waits;
+
+	// transactions chosen to break a deadlock that have not completed yet,
+	// mapped to whether one of their requests has been aborted already
+	private final HashMap<TransactionId, Boolean> victims;
+
+	private final AtomicLong deadlocksDetected = new AtomicLong();
+	private final AtomicLong victimsAborted = new AtomicLong();
+
+	WaitsForGraph(LockTracker locks, VictimPolicy policy) {
+		this.locks = locks;
+		this.policy = policy;
+		this.waits = new HashMap<TransactionId, HashMap<Thread, Set<TransactionId>>>();
+		this.victims = new HashMap<TransactionId, Boolean>();
+	}
+
+	void setVictimPolicy(VictimPolicy policy) {
+		this.policy = policy;
+	}
+
+	/**
+	 * Records that the current thread blocks tid until the given transactions
+	 * release their locks, replacing what the thread waited for before, and
+	 * checks whether this closes a cycle.
+	 *
+	 * @return false if tid has to abort, because it is the victim of this or
+	 *         an earlier deadlock
+	 */
+	synchronized boolean waitFor(TransactionId tid, Set<TransactionId> blockers) {
+		if (victims.containsKey(tid))
+			return false;
+
+		HashMap<Thread, Set<TransactionId>> threads = waits.get(tid);
+		if (threads == null) {
+			threads = new HashMap<Thread, Set<TransactionId>>();
+			waits.put(tid, threads);
+		}
+		threads.put(Thread.currentThread(), blockers);
+
+		List<TransactionId> cycle = new ArrayList<TransactionId>();
+		if (!findPath(tid, tid, new HashSet<TransactionId>(), cycle))
+			return true;
+
+		deadlocksDetected.incrementAndGet();
+		TransactionId victim = chooseVictim(cycle);
+		victims.put(victim, Boolean.FALSE);
+		if (victim.equals(tid))
+			return false;
+
+		// wake the victim up wherever it is waiting
+		HashMap<Thread, Set<TransactionId>> victimThreads = waits.get(victim);
+		if (victimThreads != null) {
+			for (Thread t : victimThreads.keySet())
+				t.interrupt();
+		}
+		return true;
+	}
+
+	/**
+	 * Records that the current thread no longer blocks tid. After this call
+	 * the thread is not interrupted by the graph anymore.
+	 */
+	synchronized void stopWaiting(TransactionId tid) {
+		HashMap<Thread, Set<TransactionId>> threads = waits.get(tid);
+		if (threads == null)
+			return;
+		threads.remove(Thread.currentThread());
+		if (threads.isEmpty())
+			waits.remove(tid);
+	}
+
+	/**
+	 * @return true if tid was chosen to break a deadlock
+	 */
+	synchronized boolean isVictim(TransactionId tid) {
+		return victims.containsKey(tid);
+	}
+
+	/**
+	 * Called when a lock request of a victim is aborted by the current
+	 * thread. Clears the interrupt the graph may have sent to the thread.
+	 */
+	synchronized void abort(TransactionId tid) {
+		Thread.interrupted();
+		if (Boolean.FALSE.equals(victims.get(tid))) {
+			victims.put(tid, Boolean.TRUE);
+			victimsAborted.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Forgets a completed transaction.
+	 */
+	synchronized void remove(TransactionId tid) {
+		victims.remove(tid);
+	}
+
+	long getDeadlocksDetected() {
+		return deadlocksDetected.get();
+	}
+
+	long getVictimsAborted() {
+		return victimsAborted.get();
+	}
+
+	/**
+	 * Depth-first search for a path from t to target through transactions
+	 * that are not victims already. On success the path is left in path.
+	 */
+	private boolean findPath(TransactionId t, TransactionId target,
+			Set<TransactionId> visited, List<TransactionId> path) {
+		HashMap<Thread, Set<TransactionId>> threads = waits.get(t);
+		if (threads == null)
+			return false;
+
+		path.add(t);
+		for (Set<TransactionId> blockers : threads.values()) {
+			for (TransactionId next : blockers) {
+				if (next.equals(target))
+					return true;
+				if (victims.containsKey(next) || !visited.add(next))
+					continue;
+				if (findPath(next, target, visited, path))
+					return true;
+			}
+		}
+		path.remove(path.size() - 1);
+		return false;
+	}
+
+	private TransactionId chooseVictim(List<TransactionId> cycle) {
+		TransactionId victim = null;
+		int victimLocks = 0;
+		for (TransactionId t : cycle) {
+			int held = policy == VictimPolicy.FEWEST_LOCKS ? locks
+					.numLocksHeld(t) : 0;
+			// ties are broken by age, so YOUNGEST only compares ids
+			if (victim == null || held < victimLocks
+					|| (held == victimLocks && t.getId() > victim.getId())) {
+				victim = t;
+				victimLocks = held;
+			}
+		}
+		return victim;
+	}
+}
@@ -3,6 +3,10 @@ package simpledb;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
@@ -176,6 +180,88 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Unit test for Aggregate reading its child only when opened: not when
+   * built nor rewound, and again when opened again
+   */
+  @Test public void lazyOpen() throws Exception {
+    final int[] opens = { 0 };
+    final ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    TupleDesc td = Utility.getTupleDesc(width1);
+    tuples.add(Utility.getHeapTuple(new int[] { 1, 2 }));
+    tuples.add(Utility.getHeapTuple(new int[] { 1, 4 }));
+    DbIterator child = new TupleIterator(td, tuples) {
+      public void open() {
+        opens[0]++;
+        super.open();
+      }
+    };
+
+    Aggregate op = new Aggregate(child, 1, 0, Aggregator.Op.SUM);
+    assertEquals(0, opens[0]);
+    assertEquals(Utility.getTupleDesc(2), op.getTupleDesc());
+
+    op.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1,
+        new int[] { 1, 6 }), op);
+    op.rewind();
+    assertEquals(6, ((IntField) op.next().getField(1)).getValue());
+    assertEquals(1, opens[0]);
+    op.close();
+    assertTrue(!op.hasNext());
+
+    // opening again sees the new tuples of the child
+    tuples.add(Utility.getHeapTuple(new int[] { 1, 10 }));
+    op.open();
+    assertEquals(16, ((IntField) op.next().getField(1)).getValue());
+    assertEquals(2, opens[0]);
+    op.close();
+  }
+
+  /**
+   * @return the results of an aggregate, as sorted strings
+   */
+  private static ArrayList<String> results(DbIterator op) throws Exception {
+    ArrayList<String> results = new ArrayList<String>();
+    while (op.hasNext())
+      results.add(op.next().toString());
+    Collections.sort(results);
+    return results;
+  }
+
+  /**
+   * Unit test for Aggregate with more groups than fit in its memory budget,
+   * whose partitions are partitioned again
+   */
+  @Test public void spillAggregate() throws Exception {
+    int groups = 20000;
+    int[] data = new int[2 * 3 * groups];
+    for (int i = 0; i < 3 * groups; i++) {
+      data[2 * i] = (int) ((i * 7919L) % groups);
+      data[2 * i + 1] = i;
+    }
+
+    for (Aggregator.Op aop : Aggregator.Op.values()) {
+      Aggregate inMemory = new Aggregate(TestUtil.createTupleList(width1,
+          data), 1, 0, aop);
+      inMemory.open();
+      ArrayList<String> expected = results(inMemory);
+      inMemory.close();
+      assertEquals(groups, expected.size());
+      assertEquals(0, inMemory.getSpilledPartitions());
+
+      Aggregate op = new Aggregate(TestUtil.createTupleList(width1, data), 1,
+          0, aop, 16 << 10);
+      op.open();
+      assertEquals(aop.toString(), expected, results(op));
+      assertTrue(op.getSpilledPartitions() > Aggregate.NUM_PARTITIONS);
+      assertTrue(op.getSpilledBytes() > 0);
+      op.rewind();
+      assertEquals(expected, results(op));
+      op.close();
+    }
+  }
+
   /**
    * JUnit suite target
    */
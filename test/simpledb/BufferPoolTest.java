@@ -0,0 +1,337 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+
+    /** Tuples of 2 int fields on a page */
+    private static final int TUPLES_PER_PAGE = 504;
+
+    /**
+     * A heap file that counts its page reads, and can hold up its next read
+     * until the test lets it go on.
+     */
+    private static class CountingHeapFile extends HeapFile {
+        final AtomicInteger reads = new AtomicInteger();
+        private volatile CountDownLatch held;
+        private volatile CountDownLatch release;
+
+        CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        /** Makes the next read wait for release() */
+        void holdNextRead() {
+            held = new CountDownLatch(1);
+            release = new CountDownLatch(1);
+        }
+
+        /** Waits until the held read has started */
+        void awaitHeld() throws InterruptedException {
+            assertTrue(held.await(10, TimeUnit.SECONDS));
+        }
+
+        void release() {
+            release.countDown();
+        }
+
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            CountDownLatch r = release;
+            if (r != null && held.getCount() > 0) {
+                held.countDown();
+                try {
+                    r.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    /**
+     * Requests a page of a partition on its own thread.
+     */
+    private static class Request extends Thread {
+        final BufferPoolPartition partition;
+        final PageId pid;
+        volatile Page page;
+
+        Request(BufferPoolPartition partition, PageId pid) {
+            this.partition = partition;
+            this.pid = pid;
+            start();
+        }
+
+        public void run() {
+            try {
+                page = partition.getPage(pid, false);
+            } catch (DbException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private CountingHeapFile table;
+
+    /**
+     * Set up a table of 4 full pages for each unit test.
+     */
+    @Before public void createTable() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2,
+                4 * TUPLES_PER_PAGE, null, null);
+        table = new CountingHeapFile(f.getFile(), f.getTupleDesc());
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+    }
+
+    private HeapPageId pid(int pgNo) {
+        return new HeapPageId(table.getId(), pgNo);
+    }
+
+    private Page get(BufferPool bp, TransactionId tid, int pgNo)
+            throws Exception {
+        return bp.getPage(tid, pid(pgNo), Permissions.READ_ONLY);
+    }
+
+    /**
+     * Unit test for looking pages up by id: equal ids that are different
+     * objects find the same resident page without reading it again.
+     */
+    @Test public void equalIdsHitSameFrame() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4, 1);
+        TransactionId tid = new TransactionId();
+
+        Page first = get(bp, tid, 0);
+        for (int i = 0; i < 3; ++i)
+            assertSame(first, get(bp, tid, 0));
+        assertEquals(1, table.reads.get());
+        assertNotSame(first, get(bp, tid, 1));
+        assertEquals(2, table.reads.get());
+        assertEquals(2, bp.getFreePages());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for eviction order: the least recently used page leaves the
+     * pool, and is read again when it is next asked for.
+     */
+    @Test public void evictLeastRecentlyUsed() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2, 1,
+                ReplacementPolicy.Kind.LRU);
+        TransactionId tid = new TransactionId();
+
+        get(bp, tid, 0);
+        get(bp, tid, 1);
+        get(bp, tid, 0);
+        get(bp, tid, 2);
+        assertTrue(bp.isResident(pid(0)));
+        assertFalse(bp.isResident(pid(1)));
+        assertTrue(bp.isResident(pid(2)));
+        assertEquals(3, table.reads.get());
+
+        get(bp, tid, 1);
+        assertEquals(4, table.reads.get());
+        assertFalse(bp.isResident(pid(0)));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for BufferPool.discardPage()
+     */
+    @Test public void discardPage() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4, 1);
+        TransactionId tid = new TransactionId();
+
+        Page page = get(bp, tid, 0);
+        get(bp, tid, 1);
+        bp.discardPage(pid(0));
+        assertFalse(bp.isResident(pid(0)));
+        assertTrue(bp.isResident(pid(1)));
+        assertEquals(3, bp.getFreePages());
+
+        // discarding a page that is not resident does nothing
+        bp.discardPage(pid(3));
+        assertEquals(3, bp.getFreePages());
+
+        assertNotSame(page, get(bp, tid, 0));
+        assertEquals(3, table.reads.get());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for aborting a transaction: the pages it changed are dropped,
+     * and read back from disk as they were.
+     */
+    @Test public void abortDropsChangedPages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4, 1);
+        TransactionId tid = new TransactionId();
+
+        HeapPage page = (HeapPage) bp.getPage(tid, pid(0),
+                Permissions.READ_WRITE);
+        Tuple t = page.iterator().next();
+        page.deleteTuple(t);
+        page.markDirty(true, tid);
+        get(bp, tid, 1);
+        bp.transactionComplete(tid, false);
+
+        assertTrue(bp.isResident(pid(1)));
+        tid = new TransactionId();
+        HeapPage reread = (HeapPage) get(bp, tid, 0);
+        assertEquals(0, reread.getNumEmptySlots());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for the number of partitions of a pool
+     */
+    @Test public void partitions() throws Exception {
+        BufferPool bp = new BufferPool(10, 3);
+        assertEquals(3, bp.getNumPartitions());
+        assertEquals(10, bp.getNumPages());
+        assertEquals(10, bp.getFreePages());
+
+        // small pools keep a single partition
+        assertEquals(1, new BufferPool(BufferPool.DEFAULT_PAGES).getNumPartitions());
+        assertTrue(BufferPool.defaultPartitions(1000) >= 1);
+        assertTrue(BufferPool.defaultPartitions(1000)
+                <= 1000 / BufferPool.MIN_PARTITION_PAGES);
+
+        int[][] invalid = new int[][] { { 4, 0 }, { 4, 5 }, { 4, -1 } };
+        for (int[] args : invalid) {
+            try {
+                new BufferPool(args[0], args[1]);
+                fail("expected IllegalArgumentException for " + args[1]
+                        + " partitions of " + args[0] + " pages");
+            } catch (IllegalArgumentException e) {
+                // explicitly ignored
+            }
+        }
+    }
+
+    /**
+     * Unit test for a partitioned pool that holds every page it is asked for
+     * while it has room, whichever partitions they fall in.
+     */
+    @Test public void partitionedPoolHoldsPages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4 * 4, 4);
+        TransactionId tid = new TransactionId();
+        Page[] pages = new Page[4];
+        for (int pgNo = 0; pgNo < 4; ++pgNo)
+            pages[pgNo] = get(bp, tid, pgNo);
+        for (int pgNo = 0; pgNo < 4; ++pgNo) {
+            assertTrue(bp.isResident(pid(pgNo)));
+            assertSame(pages[pgNo], get(bp, tid, pgNo));
+        }
+        assertEquals(4, table.reads.get());
+        assertEquals(12, bp.getFreePages());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for readers on several threads sharing a partitioned pool too
+     * small for the table: each gets the right page every time.
+     */
+    @Test public void concurrentReaders() throws Exception {
+        final BufferPool bp = Database.resetBufferPool(2, 2);
+        final int[] firstValues = new int[4];
+        for (int pgNo = 0; pgNo < 4; ++pgNo) {
+            HeapPage page = (HeapPage) table.readPage(pid(pgNo));
+            firstValues[pgNo] = ((IntField) page.iterator().next().getField(0)).getValue();
+        }
+
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread[] readers = new Thread[8];
+        for (int i = 0; i < readers.length; ++i) {
+            final long seed = i;
+            readers[i] = new Thread() {
+                public void run() {
+                    Random rand = new Random(seed);
+                    TransactionId tid = new TransactionId();
+                    try {
+                        for (int j = 0; j < 200; ++j) {
+                            int pgNo = rand.nextInt(4);
+                            HeapPage page = (HeapPage) get(bp, tid, pgNo);
+                            assertEquals(pid(pgNo), page.getId());
+                            assertEquals(firstValues[pgNo],
+                                    ((IntField) page.iterator().next().getField(0)).getValue());
+                        }
+                        bp.transactionComplete(tid);
+                    } catch (Throwable t) {
+                        error.compareAndSet(null, t);
+                    }
+                }
+            };
+            readers[i].start();
+        }
+        for (Thread reader : readers)
+            reader.join();
+        if (error.get() != null)
+            throw new AssertionError(error.get());
+        assertTrue(bp.getFreePages() >= 0);
+    }
+
+    /**
+     * Unit test for a miss in a partition: reading the page from disk does
+     * not hold up hits on the other pages of the partition, and a second
+     * request for the page waits for the read instead of reading it again.
+     */
+    @Test public void missDoesNotHoldUpHits() throws Exception {
+        BufferPoolPartition partition = new BufferPoolPartition(4,
+                ReplacementPolicy.Kind.LRU);
+        Page p1 = partition.getPage(pid(1), false);
+
+        table.holdNextRead();
+        Request miss = new Request(partition, pid(0));
+        table.awaitHeld();
+        try {
+            Request hit = new Request(partition, pid(1));
+            hit.join(10000);
+            assertSame(p1, hit.page);
+
+            Request second = new Request(partition, pid(0));
+            long deadline = System.currentTimeMillis() + 10000;
+            while (second.getState() != Thread.State.WAITING) {
+                assertTrue(second.isAlive()
+                        && System.currentTimeMillis() < deadline);
+                Thread.sleep(1);
+            }
+            table.release();
+            miss.join();
+            second.join();
+            assertNotNull(miss.page);
+            assertSame(miss.page, second.page);
+            assertEquals(2, table.reads.get());
+        } finally {
+            table.release();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
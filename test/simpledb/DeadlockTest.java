@@ -7,6 +7,7 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
 public class DeadlockTest extends TestUtil.CreateHeapFile {
@@ -211,6 +212,28 @@ public class DeadlockTest extends TestUtil.CreateHeapFile {
     System.out.println("testUpgradeWriteDeadlock resolved deadlock");
   }
 
+  /**
+   * t1 acquires p0.write; t2 acquires p1.write and p2.write; t1 attempts
+   * p1.write; t2 attempts p0.write. With the FEWEST_LOCKS policy the deadlock
+   * is broken by aborting t1, although it is the older transaction.
+   */
+  @Test public void testFewestLocksVictim() throws Exception {
+    bp.setDeadlockVictimPolicy(LockTracker.VictimPolicy.FEWEST_LOCKS);
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    bp.getPage(tid2, p1, Permissions.READ_WRITE);
+    bp.getPage(tid2, p2, Permissions.READ_WRITE);
+
+    LockGrabber lg1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    LockGrabber lg2 = startGrabber(tid2, p0, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+
+    assertTrue(lg1.getError() instanceof TransactionAbortedException);
+    assertTrue(lg2.acquired());
+    assertEquals(1, bp.getDeadlocksDetected());
+    assertEquals(1, bp.getDeadlockVictimsAborted());
+  }
+
   /**
    * JUnit suite target
    */
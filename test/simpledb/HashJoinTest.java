@@ -0,0 +1,168 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8,
+                    3, 9 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    4, 5, 6,
+                    5, 6, 7,
+                    3, 0, 0 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    3, 4, 3, 0, 0,
+                    5, 6, 5, 6, 7,
+                    3, 9, 3, 4, 5,
+                    3, 9, 3, 0, 0 });
+  }
+
+  /**
+   * Unit test for HashJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+    TupleDesc actual = op.getTupleDesc();
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Unit test for HashJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    op.open();
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+
+    eqJoin.open();
+    Tuple expected = eqJoin.next();
+    Tuple actual = op.next();
+    assertTrue(TestUtil.compareTuples(expected, actual));
+  }
+
+  /**
+   * Unit test for HashJoin.getNext(), with duplicate keys on both sides
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Counts the results of a join, checking that the join fields match
+   */
+  private static int countMatches(HashJoin op, int field2) throws Exception {
+    int n = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertEquals(t.getField(0), t.getField(field2));
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * Unit test for HashJoin.getNext() with a build input that does not fit in
+   * the memory budget, and is partitioned more than once
+   */
+  @Test public void spillJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, new TestUtil.MockScan(0, 5000, width1),
+        new TestUtil.MockScan(2500, 7500, width2), 16 << 10);
+    op.open();
+    assertEquals(2500, countMatches(op, width1));
+    int partitions = op.getSpilledPartitions();
+    long bytes = op.getSpilledBytes();
+    assertTrue(partitions > HashJoin.NUM_PARTITIONS);
+    assertTrue(bytes > 0);
+
+    // rewinding partitions the inputs again, which is not counted twice
+    op.rewind();
+    assertEquals(2500, countMatches(op, width1));
+    assertEquals(partitions, op.getSpilledPartitions());
+    assertEquals(bytes, op.getSpilledBytes());
+    op.close();
+    assertEquals(partitions, op.getSpilledPartitions());
+    assertEquals(bytes, op.getSpilledBytes());
+  }
+
+  /**
+   * Unit test for HashJoin.getNext() with a build input made of a single key
+   * that does not fit in the memory budget
+   */
+  @Test public void spillSkewedJoin() throws Exception {
+    int[] build = new int[400 * width2];
+    int[] probe = new int[10 * width1];
+    for (int i = 0; i < build.length; i += width2)
+      build[i] = 7;
+    for (int i = 0; i < probe.length; i += width1)
+      probe[i] = i < width1 ? 8 : 7;
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, TestUtil.createTupleList(width1, probe),
+        TestUtil.createTupleList(width2, build), 1024);
+    op.open();
+    assertEquals(9 * 400, countMatches(op, width1));
+    assertTrue(op.getSpilledPartitions() > 0);
+    op.close();
+  }
+
+  /**
+   * Unit test for JoinOptimizer.estimateJoinCost() of an equality join
+   */
+  @Test public void estimateJoinCost() {
+    JoinOptimizer jo = new JoinOptimizer(null, null);
+    LogicalJoinNode eq = new LogicalJoinNode("a", "b", "a.x", "b.x",
+        Predicate.Op.EQUALS);
+    LogicalJoinNode lt = new LogicalJoinNode("a", "b", "a.x", "b.x",
+        Predicate.Op.LESS_THAN);
+    // cheaper than nested loops, and cheaper with the smaller input hashed
+    assertTrue(jo.estimateJoinCost(eq, 1000, 1000, 100, 100)
+        < jo.estimateJoinCost(lt, 1000, 1000, 100, 100));
+    assertTrue(jo.estimateJoinCost(eq, 10000, 100, 1000, 10)
+        < jo.estimateJoinCost(eq.swapInnerOuter(), 100, 10000, 10, 1000));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashJoinTest.class);
+  }
+}
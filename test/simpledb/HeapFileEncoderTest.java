@@ -0,0 +1,84 @@
+package simpledb;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+public class HeapFileEncoderTest extends SimpleDbTestBase {
+
+    private static File tempFile(String suffix) throws Exception {
+        File f = File.createTempFile("encoder", suffix);
+        f.deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Unit test for HeapFileEncoder.convert() of lines with blank lines,
+     * Windows line endings, padding and a last line without a newline
+     */
+    @Test public void convertLines() throws Exception {
+        File in = tempFile(".txt");
+        BufferedWriter w = new BufferedWriter(new FileWriter(in));
+        w.write("1,2\r\n\n 3 , -4\n\n5,hello\n6");
+        w.close();
+        File out = tempFile(".dat");
+        HeapFileEncoder.convert(in, out, BufferPool.PAGE_SIZE, 2, new Type[] {
+                Type.INT_TYPE, Type.INT_TYPE });
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        expected.add(new ArrayList<Integer>(Arrays.asList(1, 2)));
+        expected.add(new ArrayList<Integer>(Arrays.asList(3, -4)));
+        // bad ints and missing fields are stored as zeroes
+        expected.add(new ArrayList<Integer>(Arrays.asList(5, 0)));
+        expected.add(new ArrayList<Integer>(Arrays.asList(6, 0)));
+        HeapFile f = Utility.openHeapFile(2, out);
+        assertEquals(1, f.numPages());
+        SystemTestUtil.matchTuples(f, expected);
+    }
+
+    /**
+     * Unit test for HeapFileEncoder.convert() of an input of several chunks
+     * with several threads
+     */
+    @Test public void convertThreads() throws Exception {
+        File in = tempFile(".txt");
+        BufferedWriter w = new BufferedWriter(new FileWriter(in));
+        int rows = 0;
+        while (in.length() < 2L * HeapFileEncoder.CHUNK_SIZE + 12345) {
+            for (int i = 0; i < 10000; i++, rows++)
+                w.write(rows + "," + (-rows) + "\n");
+            w.flush();
+        }
+        w.close();
+
+        File one = tempFile(".dat");
+        HeapFileEncoder.convert(in, one, BufferPool.PAGE_SIZE, 2, new Type[] {
+                Type.INT_TYPE, Type.INT_TYPE }, 1);
+        File many = tempFile(".dat");
+        HeapFileEncoder.convert(in, many, BufferPool.PAGE_SIZE, 2, new Type[] {
+                Type.INT_TYPE, Type.INT_TYPE }, 3);
+
+        int slots = HeapPage.slotsPerPage(Utility.getTupleDesc(2));
+        assertEquals((rows + slots - 1) / slots, one.length()
+                / BufferPool.PAGE_SIZE);
+        assertArrayEquals(TestUtil.readFileBytes(one.getAbsolutePath()),
+                TestUtil.readFileBytes(many.getAbsolutePath()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileEncoderTest.class);
+    }
+}
@@ -124,6 +124,72 @@ public class HeapFileReadTest extends SimpleDbTestBase {
 		it.close();
 	}
 
+	/**
+	 * Unit test for HeapFileIterator over a file with an empty page between
+	 * full ones, which the iterator moves past
+	 */
+	@Test
+	public void testIteratorEmptyPage() throws Exception {
+		HeapFile threePageFile = SystemTestUtil.createRandomHeapFile(2,
+				3 * 504, null, null);
+		assertEquals(3, threePageFile.numPages());
+		HeapPage middle = (HeapPage) threePageFile.readPage(new HeapPageId(
+				threePageFile.getId(), 1));
+		ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+		Iterator<Tuple> pageIt = middle.iterator();
+		while (pageIt.hasNext())
+			tuples.add(pageIt.next());
+		for (Tuple t : tuples)
+			middle.deleteTuple(t);
+		threePageFile.writePage(middle);
+
+		DbFileIterator it = threePageFile.iterator(tid);
+		it.open();
+		int count = 0;
+		while (it.hasNext()) {
+			it.next();
+			count++;
+		}
+		assertEquals(2 * 504, count);
+		it.close();
+	}
+
+	/**
+	 * Unit test for HeapFileIterator over page ranges of a file
+	 */
+	@Test
+	public void testIteratorPageRange() throws Exception {
+		HeapFile threePageFile = SystemTestUtil.createRandomHeapFile(2,
+				2 * 504 + 10, null, null);
+		assertEquals(3, threePageFile.numPages());
+
+		DbFileIterator it = threePageFile.iterator(tid, 1, 3);
+		it.open();
+		int count = 0;
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			assertTrue(t.getRecordId().getPageId().pageNumber() >= 1);
+			count++;
+		}
+		assertEquals(504 + 10, count);
+
+		// rewinding starts over at the first page of the range
+		it.rewind();
+		assertTrue(it.hasNext());
+		assertEquals(1, it.next().getRecordId().getPageId().pageNumber());
+		it.close();
+
+		// an empty range, and a range past the end of the file
+		for (int first : new int[] { 2, 3 }) {
+			it = threePageFile.iterator(tid, first, first);
+			it.open();
+			assertFalse(it.hasNext());
+			it.rewind();
+			assertFalse(it.hasNext());
+			it.close();
+		}
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -1,11 +1,17 @@
 package simpledb;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.ArrayList;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import static org.junit.Assert.*;
 import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SystemTestUtil;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
     private TransactionId tid;
@@ -43,6 +49,273 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.addTuple() into a slot freed by a delete
+     */
+    @Test public void addTupleReusesFreedSlot() throws Exception {
+        Tuple first = Utility.getHeapTuple(0, 2);
+        empty.insertTuple(tid, first);
+        for (int i = 1; i < 505; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(2, empty.numPages());
+
+        // the free-space map sends the next insert back to the first page
+        empty.deleteTuple(tid, first);
+        Tuple added = Utility.getHeapTuple(-1, 2);
+        empty.insertTuple(tid, added);
+        assertEquals(2, empty.numPages());
+        assertEquals(0, added.getRecordId().getPageId().pageNumber());
+    }
+
+    /**
+     * Unit test for HeapFile.addTuple() with a free-space map that marks
+     * full pages as free: probing them must not pin them, or a small buffer
+     * pool runs out of pages it can evict.
+     */
+    @Test public void addTupleWithStaleFreeSpaceMap() throws Exception {
+        HeapFile full = SystemTestUtil.createRandomHeapFile(2, 6 * 504, null,
+                null);
+        assertEquals(6, full.numPages());
+        full.freeSpace().setFree(0, 6, true);
+        Database.resetBufferPool(3);
+
+        Tuple added = Utility.getHeapTuple(-1, 2);
+        full.insertTuple(tid, added);
+        assertEquals(7, full.numPages());
+        assertEquals(6, added.getRecordId().getPageId().pageNumber());
+        // the full pages are all marked full now
+        assertEquals(6, full.freeSpace().findFree());
+    }
+
+    /**
+     * Unit test for HeapFile.addTuple() after the file is opened again
+     */
+    @Test public void addTupleAfterReopen() throws Exception {
+        for (int i = 0; i < 505; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        empty.close();
+        assertTrue(HeapFile.getFreeSpaceMapFile(empty.getFile()).exists());
+
+        HeapFile reopened = Utility.openHeapFile(2, empty.getFile());
+        Tuple added = Utility.getHeapTuple(-1, 2);
+        reopened.insertTuple(tid, added);
+        assertEquals(2, reopened.numPages());
+        assertEquals(1, added.getRecordId().getPageId().pageNumber());
+        reopened.close();
+        HeapFile.getFreeSpaceMapFile(empty.getFile()).delete();
+    }
+
+    /**
+     * @return n rows of 2 int fields
+     */
+    private static ArrayList<ArrayList<Integer>> rows(int n) {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < n; ++i) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(i);
+            row.add(-i);
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * @return a new temporary file, deleted on exit with its free-space map
+     */
+    private static File tempFile() throws IOException {
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFile.getFreeSpaceMapFile(f).deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Unit test for HeapFile.addTuple() after HeapFileEncoder regenerates the
+     * file: the free-space map of the old file is not used for the new one
+     */
+    @Test public void addTupleAfterConvert() throws Exception {
+        File f = tempFile();
+        HeapFileEncoder.convert(rows(3 * 504), f, BufferPool.PAGE_SIZE, 2);
+        HeapFile old = Utility.openHeapFile(2, f);
+        assertEquals(-1, old.freeSpace().findFree());
+        old.close();
+        assertTrue(HeapFile.getFreeSpaceMapFile(f).exists());
+
+        // as many pages as before, but with room on the last one
+        HeapFileEncoder.convert(rows(2 * 504 + 10), f, BufferPool.PAGE_SIZE, 2);
+        HeapFile regenerated = Utility.openHeapFile(2, f);
+        Tuple added = Utility.getHeapTuple(-1, 2);
+        regenerated.insertTuple(tid, added);
+        assertEquals(3, regenerated.numPages());
+        assertEquals(2, added.getRecordId().getPageId().pageNumber());
+        regenerated.close();
+    }
+
+    /**
+     * Unit test for reopening the free-space map: a map closed along with
+     * its file is used as it is, while one that was left open, as after a
+     * crash, is rebuilt from the page headers
+     */
+    @Test public void freeSpaceMapStamp() throws Exception {
+        File f = tempFile();
+        HeapFileEncoder.convert(rows(504 + 10), f, BufferPool.PAGE_SIZE, 2);
+
+        // the map loses the room on the second page
+        HeapFile first = Utility.openHeapFile(2, f);
+        assertEquals(1, first.freeSpace().findFree());
+        first.freeSpace().setFree(1, false);
+        first.close();
+
+        HeapFile closed = Utility.openHeapFile(2, f);
+        assertEquals(-1, closed.freeSpace().findFree());
+
+        // closed still has the map open
+        HeapFile crashed = Utility.openHeapFile(2, f);
+        assertEquals(1, crashed.freeSpace().findFree());
+        crashed.close();
+        closed.close();
+    }
+
+    /**
+     * Unit test for HeapFile.bulkInsert()
+     */
+    @Test public void bulkInsert() throws Exception {
+        int added = empty.bulkInsert(tid, new TestUtil.MockScan(0, 1100, 2));
+        assertEquals(1100, added);
+        // the tuples are appended after the empty first page
+        assertEquals(4, empty.numPages());
+        assertTrue(Database.getBufferPool().holdsLock(tid,
+                new HeapPageId(empty.getId(), 3)));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(1100, countTuples(empty, tid));
+
+        // once the first page is full, the last one has room for more
+        Tuple t = null;
+        for (int i = 0; i < 505; ++i) {
+            t = Utility.getHeapTuple(-i, 2);
+            empty.insertTuple(tid, t);
+        }
+        assertEquals(4, empty.numPages());
+        assertEquals(3, t.getRecordId().getPageId().pageNumber());
+    }
+
+    /**
+     * Unit test for HeapFile.bulkInsert() by a transaction that aborts
+     */
+    @Test public void bulkInsertAbort() throws Exception {
+        empty.bulkInsert(tid, new TestUtil.MockScan(0, 1100, 2));
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(0, countTuples(empty, tid));
+
+        // once the first page is full, the emptied pages are reused
+        Tuple t = null;
+        for (int i = 0; i < 505; ++i) {
+            t = Utility.getHeapTuple(-i, 2);
+            empty.insertTuple(tid, t);
+        }
+        assertEquals(4, empty.numPages());
+        assertEquals(1, t.getRecordId().getPageId().pageNumber());
+    }
+
+    private static int countTuples(HeapFile f, TransactionId tid)
+            throws Exception {
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    /**
+     * @return a page of the empty file holding n tuples
+     */
+    private HeapPage pageOf(int pgNo, int n) throws Exception {
+        HeapPage page = new HeapPage(new HeapPageId(empty.getId(), pgNo),
+                HeapPage.createEmptyPageData());
+        for (int i = 0; i < n; i++)
+            page.insertTuple(Utility.getHeapTuple(pgNo * 1000 + i, 2));
+        return page;
+    }
+
+    /**
+     * Unit test for HeapFile.writePage() and readPage() through the file's
+     * channel, before and after the file is closed
+     */
+    @Test public void writeReadPageRoundTrip() throws Exception {
+        HeapPage[] pages = { pageOf(0, 504), pageOf(1, 3), pageOf(2, 0) };
+        for (HeapPage page : pages)
+            empty.writePage(page);
+        assertEquals(3, empty.numPages());
+
+        for (int round = 0; round < 2; round++) {
+            for (HeapPage page : pages)
+                assertArrayEquals(page.getPageData(),
+                        empty.readPage(page.getId()).getPageData());
+            // closing the file reopens it on the next read
+            empty.close();
+        }
+
+        // rewriting a page in place
+        HeapPage rewritten = pageOf(1, 100);
+        empty.writePage(rewritten);
+        assertArrayEquals(rewritten.getPageData(),
+                empty.readPage(rewritten.getId()).getPageData());
+        assertEquals(3, empty.numPages());
+    }
+
+    /**
+     * Unit test for HeapFile reads interrupted by Thread.interrupt(), which
+     * close the file's channel: the interrupted read fails, and the file is
+     * open again for reads and writes after it
+     */
+    @Test public void readPageAfterInterrupt() throws Exception {
+        HeapPage page = pageOf(0, 10);
+        empty.writePage(page);
+
+        Thread.currentThread().interrupt();
+        try {
+            empty.readPage(page.getId());
+            fail("expected the interrupted read to fail");
+        } catch (IllegalArgumentException e) {
+        } finally {
+            // clear the interrupt
+            Thread.interrupted();
+        }
+        assertArrayEquals(page.getPageData(),
+                empty.readPage(page.getId()).getPageData());
+
+        // an interrupt of another thread's write does not break this thread
+        final HeapPage other = pageOf(1, 20);
+        final IOException[] thrown = new IOException[1];
+        Thread writer = new Thread() {
+            public void run() {
+                interrupt();
+                try {
+                    empty.writePage(other);
+                } catch (IOException e) {
+                    thrown[0] = e;
+                }
+            }
+        };
+        writer.start();
+        writer.join();
+        assertTrue(thrown[0] instanceof ClosedByInterruptException);
+        empty.writePage(other);
+        assertArrayEquals(other.getPageData(),
+                empty.readPage(other.getId()).getPageData());
+        assertArrayEquals(page.getPageData(),
+                empty.readPage(page.getId()).getPageData());
+    }
+
     /**
      * JUnit suite target
      */
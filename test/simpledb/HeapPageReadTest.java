@@ -6,6 +6,7 @@ import simpledb.systemtest.SystemTestUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import org.junit.Before;
@@ -100,6 +101,28 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.iterator(Predicate[])
+     */
+    @Test public void testFilteredIterator() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Predicate[] filter = new Predicate[] {
+            new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(30000)),
+            new Predicate(1, Predicate.Op.LESS_THAN, new IntField(50000)) };
+        Iterator<Tuple> it = page.iterator(filter);
+
+        for (int row = 0; row < EXAMPLE_VALUES.length; row++) {
+            if (EXAMPLE_VALUES[row][0] <= 30000 || EXAMPLE_VALUES[row][1] >= 50000)
+                continue;
+            assertTrue(it.hasNext());
+            Tuple tup = it.next();
+            assertEquals(new RecordId(pid, row), tup.getRecordId());
+            assertEquals(EXAMPLE_VALUES[row][0], ((IntField) tup.getField(0)).getValue());
+            assertEquals(EXAMPLE_VALUES[row][1], ((IntField) tup.getField(1)).getValue());
+        }
+        assertFalse(it.hasNext());
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
@@ -122,6 +145,103 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * @return the bytes of a page with the given slots used, each holding a
+     *         tuple of its slot number
+     */
+    private static byte[] pageWithSlots(int... slots) {
+        TupleDesc td = Utility.getTupleDesc(2);
+        int headerSize = HeapPage.headerSize(HeapPage.slotsPerPage(td));
+        ByteBuffer buf = ByteBuffer.wrap(HeapPage.createEmptyPageData());
+        for (int slot : slots)
+            HeapPage.writeSlot(buf, 0, headerSize, slot, Utility.getHeapTuple(slot, 2));
+        return buf.array();
+    }
+
+    /**
+     * Unit test for the slot header around the boundaries of its 64-slot words
+     */
+    @Test public void slotWordBoundaries() throws Exception {
+        int[] used = new int[] { 0, 62, 63, 64, 65, 127, 128, 503 };
+        HeapPage page = new HeapPage(pid, pageWithSlots(used));
+        assertEquals(504 - used.length, page.getNumEmptySlots());
+
+        Set<Integer> usedSet = new HashSet<Integer>();
+        for (int slot : used)
+            usedSet.add(slot);
+        for (int i = 0; i < 504; ++i)
+            assertEquals(usedSet.contains(i), page.isSlotUsed(i));
+
+        Iterator<Tuple> it = page.iterator();
+        for (int slot : used) {
+            assertTrue(it.hasNext());
+            Tuple tup = it.next();
+            assertEquals(new RecordId(pid, slot), tup.getRecordId());
+            assertEquals(slot, ((IntField) tup.getField(0)).getValue());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Unit test for finding the first empty slot across a word boundary and in
+     * the last slot of the page
+     */
+    @Test public void insertAtWordBoundaries() throws Exception {
+        int[] first = new int[64];
+        for (int i = 0; i < first.length; ++i)
+            first[i] = i;
+        HeapPage page = new HeapPage(pid, pageWithSlots(first));
+        Tuple t = Utility.getHeapTuple(1, 2);
+        page.insertTuple(t);
+        assertEquals(new RecordId(pid, 64), t.getRecordId());
+
+        // delete and refill the last slot of the first word
+        Iterator<Tuple> it = page.iterator();
+        for (int i = 0; i < 63; ++i)
+            it.next();
+        page.deleteTuple(it.next());
+        assertFalse(page.isSlotUsed(63));
+        assertTrue(page.isSlotUsed(64));
+        t = Utility.getHeapTuple(2, 2);
+        page.insertTuple(t);
+        assertEquals(new RecordId(pid, 63), t.getRecordId());
+
+        int[] allButLast = new int[503];
+        for (int i = 0; i < allButLast.length; ++i)
+            allButLast[i] = i;
+        page = new HeapPage(pid, pageWithSlots(allButLast));
+        assertEquals(1, page.getNumEmptySlots());
+        assertFalse(page.isSlotUsed(503));
+        t = Utility.getHeapTuple(3, 2);
+        page.insertTuple(t);
+        assertEquals(new RecordId(pid, 503), t.getRecordId());
+        assertEquals(0, page.getNumEmptySlots());
+        assertEquals((byte) 0xff, page.getPageData()[62]);
+        try {
+            page.insertTuple(Utility.getHeapTuple(4, 2));
+            throw new Exception("page should be full; expected DbException");
+        } catch (DbException e) {
+            // explicitly ignored
+        }
+    }
+
+    /**
+     * Unit test for header bits past the last slot, which are not slots
+     */
+    @Test public void headerPadding() throws Exception {
+        // 337 slots of three ints, so the last header byte holds one slot
+        HeapPageId pid3 = new HeapPageId(-2, 0);
+        Database.getCatalog().addTable(new SkeletonFile(-2, Utility.getTupleDesc(3)), SystemTestUtil.getUUID());
+        assertEquals(337, HeapPage.slotsPerPage(Utility.getTupleDesc(3)));
+
+        byte[] data = HeapPage.createEmptyPageData();
+        data[42] = (byte) 0xff;
+        HeapPage page = new HeapPage(pid3, data);
+        assertEquals(336, page.getNumEmptySlots());
+        assertTrue(page.isSlotUsed(336));
+        assertFalse(page.isSlotUsed(335));
+    }
+
     /**
      * JUnit suite target
      */
@@ -1,9 +1,12 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -126,6 +129,110 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getBeforeImage() and setBeforeImage()
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        byte[] example = HeapPageReadTest.EXAMPLE_DATA.clone();
+
+        page.insertTuple(Utility.getHeapTuple(1, 2));
+        assertTrue(Arrays.equals(example, page.getBeforeImage().getPageData()));
+        // the page never writes the array it was created from
+        assertTrue(Arrays.equals(example, HeapPageReadTest.EXAMPLE_DATA));
+
+        page.setBeforeImage();
+        byte[] inserted = page.getPageData().clone();
+        page.insertTuple(Utility.getHeapTuple(2, 2));
+        assertTrue(Arrays.equals(inserted, page.getBeforeImage().getPageData()));
+        assertFalse(Arrays.equals(inserted, page.getPageData()));
+    }
+
+    /**
+     * Unit test for HeapPage.getPageData() after inserts and deletes: the
+     * bytes changed in place match those of a page written from scratch
+     */
+    @Test public void pageDataInPlace() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        Tuple[] added = new Tuple[10];
+        for (int i = 0; i < added.length; ++i) {
+            added[i] = Utility.getHeapTuple(i + 1, 2);
+            page.insertTuple(added[i]);
+        }
+        page.deleteTuple(added[3]);
+        page.deleteTuple(added[7]);
+
+        int headerSize = HeapPage.headerSize(HeapPage.slotsPerPage(Utility.getTupleDesc(2)));
+        ByteBuffer expected = ByteBuffer.wrap(HeapPage.createEmptyPageData());
+        for (int i = 0; i < added.length; ++i) {
+            if (i != 3 && i != 7)
+                HeapPage.writeSlot(expected, 0, headerSize, i, Utility.getHeapTuple(i + 1, 2));
+        }
+        assertTrue(Arrays.equals(expected.array(), page.getPageData()));
+
+        // the bytes read back as the same page
+        HeapPage reread = new HeapPage(pid, page.getPageData().clone());
+        assertEquals(page.getNumEmptySlots(), reread.getNumEmptySlots());
+        Iterator<Tuple> it = page.iterator();
+        Iterator<Tuple> rit = reread.iterator();
+        while (it.hasNext()) {
+            Tuple tup = it.next();
+            Tuple read = rit.next();
+            assertTrue(TestUtil.compareTuples(tup, read));
+            assertEquals(tup.getRecordId(), read.getRecordId());
+        }
+        assertFalse(rit.hasNext());
+    }
+
+    /**
+     * Unit test for HeapPage.deleteTuple(): the slot is cleared in place, and
+     * a tuple read from it keeps its values once the slot is reused
+     */
+    @Test public void deleteThenReuseSlot() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator();
+        for (int i = 0; i < 5; ++i)
+            it.next();
+        Tuple old = it.next();
+        assertEquals(new RecordId(pid, 5), old.getRecordId());
+
+        page.deleteTuple(old);
+        int headerSize = HeapPage.headerSize(HeapPage.slotsPerPage(Utility.getTupleDesc(2)));
+        byte[] data = page.getPageData();
+        for (int i = 0; i < 8; ++i)
+            assertEquals(0, data[headerSize + 5 * 8 + i]);
+        assertEquals(0, data[0] & (1 << 5));
+
+        Tuple addition = Utility.getHeapTuple(7, 2);
+        page.insertTuple(addition);
+        assertEquals(new RecordId(pid, 5), addition.getRecordId());
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[5][0], ((IntField) old.getField(0)).getValue());
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[5][1], ((IntField) old.getField(1)).getValue());
+    }
+
+    /**
+     * Unit test for a HeapPage read from part of a larger buffer: the buffer
+     * is left as it was, and getPageData() returns just the page
+     */
+    @Test public void pageFromBufferSlice() throws Exception {
+        byte[] example = HeapPageReadTest.EXAMPLE_DATA;
+        ByteBuffer buf = ByteBuffer.allocate(example.length + 100);
+        buf.position(100);
+        buf.put(example);
+        buf.position(100);
+
+        HeapPage page = new HeapPage(pid, buf);
+        assertEquals(100, buf.position());
+        assertTrue(Arrays.equals(example, page.getPageData()));
+
+        page.insertTuple(Utility.getHeapTuple(1, 2));
+        byte[] inBuffer = new byte[example.length];
+        buf.duplicate().get(inBuffer);
+        assertTrue(Arrays.equals(example, inBuffer));
+        assertFalse(Arrays.equals(example, page.getPageData()));
+        assertTrue(Arrays.equals(example, page.getBeforeImage().getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
@@ -178,6 +178,90 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test IntegerAggregator over enough groups to grow its group table, for
+   * every aggregate, with negative group-by values and values whose sum
+   * does not fit in an int
+   */
+  @Test public void manyGroups() throws Exception {
+    int groups = 5000;
+    int rows = 4 * groups;
+    int[] data = new int[2 * rows];
+    for (int i = 0; i < rows; i++) {
+      data[2 * i] = (i % groups) - groups / 2;
+      data[2 * i + 1] = i < groups ? i : Integer.MAX_VALUE - i;
+    }
+
+    for (Aggregator.Op op : Aggregator.Op.values()) {
+      IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, op);
+      DbIterator scan = TestUtil.createTupleList(width1, data);
+      scan.open();
+      while (scan.hasNext())
+        agg.mergeTupleIntoGroup(scan.next());
+
+      DbIterator it = agg.iterator();
+      it.open();
+      int n = 0;
+      while (it.hasNext()) {
+        Tuple t = it.next();
+        int g = ((IntField) t.getField(0)).getValue() + groups / 2;
+        // groups come out in the order they were first seen
+        assertEquals(n++, g);
+        long min = g, max = Integer.MAX_VALUE - (groups + g), sum = g;
+        for (int i = groups + g; i < rows; i += groups)
+          sum += Integer.MAX_VALUE - i;
+        long expected = 0;
+        switch (op) {
+        case MIN: expected = min; break;
+        case MAX: expected = max; break;
+        case SUM: expected = (int) sum; break;
+        case AVG: expected = sum / 4; break;
+        case COUNT: expected = 4; break;
+        }
+        assertEquals(op.toString(), expected,
+            ((IntField) t.getField(1)).getValue());
+      }
+      assertEquals(groups, n);
+    }
+  }
+
+  /**
+   * Test IntegerAggregator.mergePartial() of aggregators of two halves of
+   * scan1, one of whose groups is in both halves, for every aggregate
+   */
+  @Test public void mergePartial() throws Exception {
+    for (Aggregator.Op op : Aggregator.Op.values()) {
+      IntegerAggregator whole = new IntegerAggregator(0, Type.INT_TYPE, 1, op);
+      IntegerAggregator first = new IntegerAggregator(0, Type.INT_TYPE, 1, op);
+      IntegerAggregator second = new IntegerAggregator(0, Type.INT_TYPE, 1, op);
+      scan1.open();
+      for (int i = 0; scan1.hasNext(); i++) {
+        Tuple t = scan1.next();
+        whole.mergeTupleIntoGroup(t);
+        (i < 4 ? first : second).mergeTupleIntoGroup(t);
+      }
+      scan1.close();
+
+      first.mergePartial(second);
+      assertEquals(3, first.numGroups());
+      DbIterator expected = whole.iterator();
+      expected.open();
+      DbIterator it = first.iterator();
+      it.open();
+      TestUtil.matchAllTuples(expected, it);
+    }
+  }
+
+  /**
+   * Test that IntegerAggregator.mergePartial() refuses an aggregator of
+   * another aggregate
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void mergePartialOfOtherOp() throws Exception {
+    IntegerAggregator sum = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+    sum.mergePartial(new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG));
+  }
+
   /**
    * JUnit suite target
    */
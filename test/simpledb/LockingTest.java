@@ -187,6 +187,45 @@ public class LockingTest extends TestUtil.CreateHeapFile {
     bp.getPage(tid1, p1, Permissions.READ_WRITE);
   }
 
+  /**
+   * Unit test for BufferPool.getPage() assuming locking.
+   * A transaction blocked on a lock gets it as soon as the holder completes.
+   */
+  @Test public void acquireAfterHolderCompletes() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+
+    TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid2, p0,
+        Permissions.READ_ONLY);
+    t.start();
+    Thread.sleep(TIMEOUT / 2);
+    assertEquals(false, t.acquired());
+
+    bp.transactionComplete(tid1);
+    t.join(TIMEOUT);
+    assertEquals(true, t.acquired());
+    assertNull(t.getError());
+  }
+
+  /**
+   * Unit test for BufferPool.getPage() assuming locking.
+   * A transaction that waits long for a lock, without a deadlock, is not
+   * aborted.
+   */
+  @Test public void longWaitIsNotAborted() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+
+    TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid2, p0,
+        Permissions.READ_WRITE);
+    t.start();
+    Thread.sleep(TIMEOUT * 5);
+    assertEquals(false, t.acquired());
+    assertNull(t.getError());
+
+    bp.transactionComplete(tid1);
+    t.join(TIMEOUT);
+    assertEquals(true, t.acquired());
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,129 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class MappedHeapFileTest extends SimpleDbTestBase {
+	private ArrayList<ArrayList<Integer>> tuples;
+	private HeapFile hf;
+	private MappedHeapFile mapped;
+	private TransactionId tid;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before
+	public void setUp() throws Exception {
+		tuples = new ArrayList<ArrayList<Integer>>();
+		File f = SystemTestUtil.createRandomHeapFileUnopened(2, 2000, 1000,
+				null, tuples);
+		hf = new HeapFile(f, Utility.getTupleDesc(2));
+		mapped = new MappedHeapFile(f, Utility.getTupleDesc(2));
+		Database.getCatalog().addTable(mapped, UUID.randomUUID().toString());
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+		mapped.close();
+		hf.close();
+	}
+
+	/**
+	 * Pages read through the mapping hold the same bytes as pages read
+	 * through the file's channel.
+	 */
+	@Test
+	public void readPageMatchesHeapFile() throws Exception {
+		assertEquals(4, mapped.numPages());
+		for (int i = 0; i < mapped.numPages(); i++) {
+			HeapPageId pid = new HeapPageId(mapped.getId(), i);
+			assertTrue(Arrays.equals(hf.readPage(pid).getPageData(),
+					mapped.readPage(pid).getPageData()));
+		}
+	}
+
+	/**
+	 * A scan through the BufferPool returns all the tuples of the file.
+	 */
+	@Test
+	public void scan() throws Exception {
+		SystemTestUtil.matchTuples(mapped, tid, tuples);
+	}
+
+	/**
+	 * A page appended to the file after it was mapped can be read.
+	 */
+	@Test
+	public void readAppendedPage() throws Exception {
+		mapped.readPage(new HeapPageId(mapped.getId(), 0));
+
+		HeapPage page = new HeapPage(new HeapPageId(mapped.getId(), 4),
+				HeapPage.createEmptyPageData());
+		page.insertTuple(Utility.getHeapTuple(7, 2));
+		mapped.writePage(page);
+
+		assertEquals(5, mapped.numPages());
+		HeapPage read = (HeapPage) mapped.readPage(page.getId());
+		assertEquals(page.getNumEmptySlots(), read.getNumEmptySlots());
+		assertTrue(Arrays.equals(page.getPageData(), read.getPageData()));
+	}
+
+	/**
+	 * Pages read from the mapping are not copies, yet a tuple read before its
+	 * page is written back keeps its values, and so does the page it was
+	 * read from.
+	 */
+	@Test
+	public void tupleKeepsValuesAfterWriteBack() throws Exception {
+		HeapPageId pid = new HeapPageId(mapped.getId(), 0);
+		byte[] original = hf.readPage(pid).getPageData().clone();
+		HeapPage page = (HeapPage) mapped.readPage(pid);
+		assertFalse(page.data.hasArray());
+		Tuple old = page.iterator().next();
+
+		// a newer version of the page replaces the first tuple
+		HeapPage newer = (HeapPage) mapped.readPage(pid);
+		newer.deleteTuple(newer.iterator().next());
+		Tuple added = Utility.getHeapTuple(new int[] { -1, -2 });
+		newer.insertTuple(added);
+		assertEquals(0, added.getRecordId().tupleno());
+		mapped.writePage(newer);
+
+		assertEquals(tuples.get(0).get(0).intValue(),
+				((IntField) old.getField(0)).getValue());
+		assertEquals(tuples.get(0).get(1).intValue(),
+				((IntField) old.getField(1)).getValue());
+		assertTrue(Arrays.equals(original, page.getPageData()));
+		assertTrue(Arrays.equals(original, page.getBeforeImage().getPageData()));
+
+		Tuple read = ((HeapPage) mapped.readPage(pid)).iterator().next();
+		assertEquals(-1, ((IntField) read.getField(0)).getValue());
+		assertEquals(-2, ((IntField) read.getField(1)).getValue());
+	}
+
+	/**
+	 * Pages beyond the end of the file cannot be read.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void readPastEnd() throws Exception {
+		mapped.readPage(new HeapPageId(mapped.getId(), 4));
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(MappedHeapFileTest.class);
+	}
+}
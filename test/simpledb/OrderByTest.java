@@ -0,0 +1,123 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  /**
+   * @return rows tuples of 2 fields: a random key below maxKey, and the
+   *         position of the tuple
+   */
+  private static DbIterator randomTuples(int rows, int maxKey) {
+    Random r = new Random(rows);
+    int[] data = new int[2 * rows];
+    for (int i = 0; i < rows; i++) {
+      data[2 * i] = r.nextInt(maxKey);
+      data[2 * i + 1] = i;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  /**
+   * Reads all the tuples of a sort, checking that they are in order and that
+   * tuples with equal keys keep the order they came in.
+   *
+   * @return the number of tuples
+   */
+  private static int checkSorted(OrderBy op, boolean asc) throws Exception {
+    int n = 0;
+    int lastKey = 0, lastPos = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      int key = ((IntField) t.getField(0)).getValue();
+      int pos = ((IntField) t.getField(1)).getValue();
+      if (n > 0) {
+        assertTrue(asc ? key >= lastKey : key <= lastKey);
+        if (key == lastKey)
+          assertTrue(pos > lastPos);
+      }
+      lastKey = key;
+      lastPos = pos;
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * @return the number of tuples of 2 int fields that take budget bytes
+   */
+  private static int tuplesIn(long budget) {
+    return (int) (budget / (Utility.getTupleDesc(2).getSize()
+        + OrderBy.TUPLE_OVERHEAD));
+  }
+
+  /**
+   * Unit test for OrderBy of an input that fits in memory
+   */
+  @Test public void sortInMemory() throws Exception {
+    OrderBy op = new OrderBy(0, true, randomTuples(1000, 100));
+    op.open();
+    assertEquals(1000, checkSorted(op, true));
+    assertEquals(0, op.getSpilledRuns());
+    op.rewind();
+    assertEquals(1000, checkSorted(op, true));
+    op.close();
+  }
+
+  /**
+   * Unit test for OrderBy of an input 10 times larger than its memory
+   * budget, in both orders
+   */
+  @Test public void sortExternal() throws Exception {
+    long budget = 256 << 10;
+    int rows = 10 * tuplesIn(budget);
+    for (boolean asc : new boolean[] { true, false }) {
+      OrderBy op = new OrderBy(0, asc, randomTuples(rows, 1000), budget);
+      op.open();
+      assertEquals(rows, checkSorted(op, asc));
+      // 10 runs, of which 4 can be read at once within the budget: merged
+      // into 3 runs first
+      assertEquals(10 + 3, op.getSpilledRuns());
+      assertTrue(op.getSpilledBytes() > 0);
+      op.rewind();
+      assertEquals(rows, checkSorted(op, asc));
+      op.close();
+    }
+  }
+
+  /**
+   * Unit test for OrderBy of an input with more runs than its memory budget
+   * can merge at once, which are merged in several passes
+   */
+  @Test public void sortMultiPass() throws Exception {
+    long budget = 8 << 10;
+    int rows = 10 * tuplesIn(budget);
+    OrderBy op = new OrderBy(0, true, randomTuples(rows, 50), budget);
+    op.open();
+    assertEquals(rows, checkSorted(op, true));
+    // 10 runs, merged two at a time into 5, 3 then 2 runs
+    assertEquals(10 + 5 + 3 + 2, op.getSpilledRuns());
+    op.close();
+
+    // opening again sorts the child again
+    op.open();
+    assertEquals(rows, checkSorted(op, true));
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
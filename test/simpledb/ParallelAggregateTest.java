@@ -0,0 +1,78 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ParallelAggregateTest extends SimpleDbTestBase {
+
+  HeapFile table;
+  TransactionId tid;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTable() throws Exception {
+    table = SystemTestUtil.createRandomHeapFile(2, 20000, 500, null, null);
+    tid = new TransactionId();
+  }
+
+  private static ArrayList<String> results(DbIterator op) throws Exception {
+    ArrayList<String> results = new ArrayList<String>();
+    op.open();
+    while (op.hasNext())
+      results.add(op.next().toString());
+    op.close();
+    Collections.sort(results);
+    return results;
+  }
+
+  /**
+   * Unit test for ParallelAggregate over page ranges of a heap file, with
+   * and without grouping, for every aggregate, which must match Aggregate
+   * over a scan of the whole file
+   */
+  @Test public void matchesAggregate() throws Exception {
+    for (int gfield : new int[] { Aggregator.NO_GROUPING, 0 }) {
+      for (Aggregator.Op aop : Aggregator.Op.values()) {
+        ArrayList<String> expected = results(new Aggregate(new SeqScan(tid,
+            table.getId(), "t"), 1, gfield, aop));
+        ArrayList<String> actual = results(new ParallelAggregate(
+            SeqScan.slices(tid, table.getId(), "t", 4), 1, gfield, aop));
+        assertEquals(aop.toString(), expected, actual);
+      }
+    }
+  }
+
+  /**
+   * Unit test for ParallelAggregate over more slices than the heap file has
+   * pages, some of which are empty, read by fewer threads than slices
+   */
+  @Test public void emptySlices() throws Exception {
+    int slices = table.numPages() + 3;
+    ArrayList<String> expected = results(new Aggregate(new SeqScan(tid,
+        table.getId(), "t"), 1, 0, Aggregator.Op.AVG));
+    ParallelAggregate agg = new ParallelAggregate(SeqScan.slices(tid,
+        table.getId(), "t", slices), 1, 0, Aggregator.Op.AVG, 2);
+    assertEquals(expected, results(agg));
+
+    // opening again aggregates the slices again
+    assertEquals(expected, results(agg));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ParallelAggregateTest.class);
+  }
+}
@@ -0,0 +1,287 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PrefetchTest extends SimpleDbTestBase {
+
+    /** Tuples of 2 int fields on a page */
+    private static final int TUPLES_PER_PAGE = 504;
+
+    /**
+     * Reads the pages of a small table twice, then scans a table several
+     * times larger than the pool with prefetching on, and checks that the
+     * pages of the small table are still resident.
+     */
+    private static void checkScanResistant(ReplacementPolicy.Kind kind)
+            throws Exception {
+        Database.reset();
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2,
+                4 * TUPLES_PER_PAGE, null, null);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2,
+                300 * TUPLES_PER_PAGE, null, null);
+        BufferPool bp = Database.resetBufferPool(64, 1, kind);
+        assertTrue(bp.getPrefetchPages() > 0);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2; i++) {
+            for (int pgNo = 0; pgNo < hot.numPages(); pgNo++)
+                bp.getPage(tid, new HeapPageId(hot.getId(), pgNo),
+                        Permissions.READ_ONLY);
+        }
+
+        SeqScan scan = new SeqScan(tid, big.getId(), "big");
+        scan.open();
+        while (scan.hasNext())
+            scan.next();
+        scan.close();
+        assertTrue(kind + ": nothing was prefetched",
+                bp.getPagesPrefetched() > 0);
+
+        for (int pgNo = 0; pgNo < hot.numPages(); pgNo++)
+            assertTrue(kind + ": hot page " + pgNo + " was evicted",
+                    bp.isResident(new HeapPageId(hot.getId(), pgNo)));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for the scan resistance of 2Q and LRU-K when the pages of
+     * the scan are prefetched: a prefetched page counts as referenced once,
+     * when the scan requests it, and so is evicted before hot pages.
+     */
+    @Test public void prefetchedScanIsNotHot() throws Exception {
+        checkScanResistant(ReplacementPolicy.Kind.TWO_Q);
+        checkScanResistant(ReplacementPolicy.Kind.LRU_K);
+    }
+
+    /**
+     * A heap file that counts its page reads, and can hold up its next read
+     * until the test lets it go on.
+     */
+    private static class SlowHeapFile extends HeapFile {
+        final AtomicInteger reads = new AtomicInteger();
+        private volatile CountDownLatch held;
+        private volatile CountDownLatch release;
+
+        SlowHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        /** Makes the next read wait for release() */
+        void holdNextRead() {
+            held = new CountDownLatch(1);
+            release = new CountDownLatch(1);
+        }
+
+        /** Waits until the held read has started */
+        void awaitHeld() throws InterruptedException {
+            assertTrue(held.await(10, TimeUnit.SECONDS));
+        }
+
+        void release() {
+            release.countDown();
+        }
+
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            CountDownLatch r = release;
+            if (r != null && held.getCount() > 0) {
+                held.countDown();
+                try {
+                    r.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    /**
+     * Runs a prefetch of a page of a partition on its own thread.
+     */
+    private static class Prefetch extends Thread {
+        final BufferPoolPartition partition;
+        final PageId pid;
+        volatile Boolean added;
+
+        Prefetch(BufferPoolPartition partition, PageId pid) {
+            this.partition = partition;
+            this.pid = pid;
+            start();
+        }
+
+        public void run() {
+            added = partition.prefetchPage(pid);
+        }
+    }
+
+    /**
+     * @return a table of 4 pages whose reads can be held up
+     */
+    private static SlowHeapFile slowTable() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2,
+                4 * TUPLES_PER_PAGE, null, null);
+        SlowHeapFile slow = new SlowHeapFile(f.getFile(), f.getTupleDesc());
+        Database.getCatalog().addTable(slow, "slow");
+        return slow;
+    }
+
+    /**
+     * Unit test for prefetching a page while the partition writes or
+     * discards a page: the prefetched copy may be stale, so it is dropped.
+     */
+    @Test public void prefetchDroppedAfterWrite() throws Exception {
+        SlowHeapFile table = slowTable();
+        BufferPoolPartition partition = new BufferPoolPartition(4,
+                ReplacementPolicy.Kind.LRU);
+        PageId p0 = new HeapPageId(table.getId(), 0);
+        PageId p1 = new HeapPageId(table.getId(), 1);
+
+        table.holdNextRead();
+        Prefetch prefetch = new Prefetch(partition, p0);
+        table.awaitHeld();
+        partition.discardPage(p1);
+        table.release();
+        prefetch.join();
+        assertEquals(Boolean.FALSE, prefetch.added);
+        assertFalse(partition.isResident(p0));
+
+        // without a write in between, the page is added
+        prefetch = new Prefetch(partition, p0);
+        prefetch.join();
+        assertEquals(Boolean.TRUE, prefetch.added);
+        assertTrue(partition.isResident(p0));
+    }
+
+    /**
+     * Unit test for requesting a page that is being prefetched: the request
+     * waits for the prefetch instead of reading the page a second time.
+     */
+    @Test public void getPageWaitsForPrefetch() throws Exception {
+        SlowHeapFile table = slowTable();
+        final BufferPoolPartition partition = new BufferPoolPartition(4,
+                ReplacementPolicy.Kind.LRU);
+        final PageId p0 = new HeapPageId(table.getId(), 0);
+
+        table.holdNextRead();
+        Prefetch prefetch = new Prefetch(partition, p0);
+        table.awaitHeld();
+        final Page[] requested = new Page[1];
+        Thread request = new Thread() {
+            public void run() {
+                try {
+                    requested[0] = partition.getPage(p0, false);
+                } catch (DbException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        request.start();
+        // the request blocks until the prefetch is done
+        long deadline = System.currentTimeMillis() + 10000;
+        while (request.getState() != Thread.State.WAITING) {
+            assertTrue(request.isAlive()
+                    && System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+
+        table.release();
+        prefetch.join();
+        request.join();
+        assertEquals(Boolean.TRUE, prefetch.added);
+        assertEquals(1, table.reads.get());
+        assertSame(partition.getResidentPage(p0), requested[0]);
+    }
+
+    /**
+     * Unit test for interrupting a request that waits for a prefetch: it
+     * stops waiting, and the thread stays interrupted.
+     */
+    @Test public void interruptedWaitKeepsInterrupt() throws Exception {
+        SlowHeapFile table = slowTable();
+        final BufferPoolPartition partition = new BufferPoolPartition(4,
+                ReplacementPolicy.Kind.LRU);
+        final PageId p0 = new HeapPageId(table.getId(), 0);
+
+        table.holdNextRead();
+        Prefetch prefetch = new Prefetch(partition, p0);
+        table.awaitHeld();
+        final boolean[] interrupted = new boolean[1];
+        Thread request = new Thread() {
+            public void run() {
+                try {
+                    partition.getPage(p0, false);
+                } catch (Exception e) {
+                    // the read of an interrupted thread may fail
+                } finally {
+                    interrupted[0] = isInterrupted();
+                }
+            }
+        };
+        request.start();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (request.getState() != Thread.State.WAITING) {
+            assertTrue(request.isAlive()
+                    && System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+
+        // the request gives up waiting while the prefetch is still held
+        request.interrupt();
+        request.join(10000);
+        assertFalse(request.isAlive());
+        assertTrue(interrupted[0]);
+
+        table.release();
+        prefetch.join();
+    }
+
+    /**
+     * Unit test for prefetching into a full partition: a prefetch never
+     * evicts a dirty or pinned page, and is not done instead.
+     */
+    @Test public void prefetchKeepsDirtyAndPinnedPages() throws Exception {
+        SlowHeapFile table = slowTable();
+        BufferPoolPartition partition = new BufferPoolPartition(2,
+                ReplacementPolicy.Kind.LRU);
+        PageId p0 = new HeapPageId(table.getId(), 0);
+        PageId p1 = new HeapPageId(table.getId(), 1);
+        PageId p2 = new HeapPageId(table.getId(), 2);
+        TransactionId tid = new TransactionId();
+
+        partition.getPage(p0, true);
+        partition.getPage(p1, false).markDirty(true, tid);
+        assertFalse(partition.prefetchPage(p2));
+        assertTrue(partition.isResident(p0));
+        assertTrue(partition.isResident(p1));
+        assertFalse(partition.isResident(p2));
+
+        // once p0 is unpinned it may make room for the prefetch
+        partition.completeTransaction(p0, tid, true);
+        assertTrue(partition.prefetchPage(p2));
+        assertFalse(partition.isResident(p0));
+        assertTrue(partition.isResident(p1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PrefetchTest.class);
+    }
+}
@@ -0,0 +1,167 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    /** Reports every page as evictable except the ones in pinned */
+    private static class TestFrames implements ReplacementPolicy.Frames {
+        final Set<PageId> pinned = new HashSet<PageId>();
+
+        public boolean isEvictable(PageId pid) {
+            return !pinned.contains(pid);
+        }
+    }
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /** Adds pages 0 to n-1 to the policy */
+    private static void addPages(ReplacementPolicy policy, int n) {
+        for (int i = 0; i < n; i++)
+            policy.pageAdded(pid(i));
+    }
+
+    /**
+     * Unit test for LRU: the least recently used page is the victim.
+     */
+    @Test public void lru() {
+        ReplacementPolicy policy = ReplacementPolicy.Kind.LRU.create(4);
+        addPages(policy, 4);
+        policy.pageAccessed(pid(0));
+        assertEquals(pid(1), policy.chooseVictim(new TestFrames()));
+    }
+
+    /**
+     * Unit test for CLOCK: a page that was hit gets a second chance.
+     */
+    @Test public void clock() {
+        ReplacementPolicy policy = ReplacementPolicy.Kind.CLOCK.create(4);
+        addPages(policy, 4);
+        TestFrames frames = new TestFrames();
+        // the first sweep clears all reference bits
+        PageId victim = policy.chooseVictim(frames);
+        policy.pageRemoved(victim);
+        policy.pageAdded(pid(4));
+        policy.pageAccessed(pid(1));
+        policy.pageAccessed(pid(2));
+        assertEquals(pid(3), policy.chooseVictim(frames));
+    }
+
+    /**
+     * Unit test for LRU-K: pages referenced only once go before pages
+     * referenced twice, even if those were used longer ago.
+     */
+    @Test public void lruK() {
+        ReplacementPolicy policy = ReplacementPolicy.Kind.LRU_K.create(4);
+        policy.pageAdded(pid(0));
+        policy.pageAccessed(pid(0));
+        policy.pageAdded(pid(1));
+        policy.pageAdded(pid(2));
+        policy.pageAccessed(pid(2));
+        policy.pageAdded(pid(3));
+        assertEquals(pid(1), policy.chooseVictim(new TestFrames()));
+
+        // with both pages seen once gone, the older second reference loses
+        policy.pageRemoved(pid(1));
+        policy.pageRemoved(pid(3));
+        assertEquals(pid(0), policy.chooseVictim(new TestFrames()));
+    }
+
+    /**
+     * Unit test for 2Q: a page evicted from the FIFO queue and read again is
+     * kept over pages that are streamed through the pool.
+     */
+    @Test public void twoQueue() {
+        ReplacementPolicy policy = ReplacementPolicy.Kind.TWO_Q.create(8);
+        TestFrames frames = new TestFrames();
+        addPages(policy, 8);
+        PageId victim = policy.chooseVictim(frames);
+        assertEquals(pid(0), victim);
+        policy.pageRemoved(victim);
+        // page 0 is read again and becomes hot
+        policy.pageAdded(pid(0));
+
+        // a scan of new pages only ever replaces pages seen once
+        for (int i = 8; i < 40; i++) {
+            victim = policy.chooseVictim(frames);
+            assertEquals(false, victim.equals(pid(0)));
+            policy.pageRemoved(victim);
+            policy.pageAdded(pid(i));
+        }
+    }
+
+    /**
+     * Unit test for prefetched pages under 2Q and LRU-K: a page that is
+     * prefetched and requested once is not hot, and prefetching a page
+     * again after its eviction does not promote it either.
+     */
+    @Test public void prefetchedPagesAreNotHot() {
+        ReplacementPolicy.Kind[] kinds = { ReplacementPolicy.Kind.TWO_Q,
+                ReplacementPolicy.Kind.LRU_K };
+        for (ReplacementPolicy.Kind kind : kinds) {
+            ReplacementPolicy policy = kind.create(8);
+            TestFrames frames = new TestFrames();
+            Set<PageId> resident = new HashSet<PageId>();
+            // page 0 is hot
+            policy.pageAdded(pid(0));
+            policy.pageAccessed(pid(0));
+            resident.add(pid(0));
+            // pages 1 to 40 are prefetched and requested once, then
+            // prefetched again without being requested
+            for (int pass = 0; pass < 2; pass++) {
+                for (int i = 1; i <= 40; i++) {
+                    if (resident.contains(pid(i)))
+                        continue;
+                    if (resident.size() == 8) {
+                        PageId victim = policy.chooseVictim(frames);
+                        assertEquals(kind.toString(), false,
+                                victim.equals(pid(0)));
+                        policy.pageRemoved(victim);
+                        resident.remove(victim);
+                    }
+                    policy.pageLoaded(pid(i));
+                    if (pass == 0)
+                        policy.pageAccessed(pid(i));
+                    resident.add(pid(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Every policy skips pages that cannot be evicted, and gives up if there
+     * is none.
+     */
+    @Test public void skipsUnevictable() {
+        for (ReplacementPolicy.Kind kind : ReplacementPolicy.Kind.values()) {
+            ReplacementPolicy policy = kind.create(3);
+            addPages(policy, 3);
+            TestFrames frames = new TestFrames();
+            frames.pinned.add(pid(0));
+            frames.pinned.add(pid(1));
+            assertEquals(kind.toString(), pid(2), policy.chooseVictim(frames));
+
+            frames.pinned.add(pid(2));
+            assertNull(kind.toString(), policy.chooseVictim(frames));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,219 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+  DbIterator gtJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 7, 8,
+                    3, 4,
+                    5, 6,
+                    1, 2,
+                    3, 9 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 4, 5, 6,
+                    3, 0, 0,
+                    1, 2, 3,
+                    5, 6, 7,
+                    2, 3, 4,
+                    3, 4, 5 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    3, 4, 3, 0, 0,
+                    5, 6, 5, 6, 7,
+                    3, 9, 3, 4, 5,
+                    3, 9, 3, 0, 0 });
+    this.gtJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] {
+                    3, 4, 1, 2, 3, // 1, 2 < 3
+                    3, 4, 2, 3, 4,
+                    3, 9, 1, 2, 3,
+                    3, 9, 2, 3, 4,
+                    5, 6, 1, 2, 3, // 1, 2, 3, 3, 4 < 5
+                    5, 6, 2, 3, 4,
+                    5, 6, 3, 4, 5,
+                    5, 6, 3, 0, 0,
+                    5, 6, 4, 5, 6,
+                    7, 8, 1, 2, 3, // 1, 2, 3, 3, 4, 5 < 7
+                    7, 8, 2, 3, 4,
+                    7, 8, 3, 4, 5,
+                    7, 8, 3, 0, 0,
+                    7, 8, 4, 5, 6,
+                    7, 8, 5, 6, 7 });
+  }
+
+  /**
+   * @return the results of a join, as sorted strings
+   */
+  private static ArrayList<String> results(DbIterator op) throws Exception {
+    ArrayList<String> results = new ArrayList<String>();
+    op.open();
+    while (op.hasNext())
+      results.add(op.next().toString());
+    op.close();
+    Collections.sort(results);
+    return results;
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+    TupleDesc actual = op.getTupleDesc();
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+
+    eqJoin.open();
+    Tuple expected = eqJoin.next();
+    Tuple actual = op.next();
+    assertTrue(TestUtil.compareTuples(expected, actual));
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using a &gt; predicate
+   */
+  @Test public void gtJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    gtJoin.open();
+    TestUtil.matchAllTuples(gtJoin, op);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using an = predicate, with
+   * duplicate keys on both sides
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() with every predicate it supports,
+   * against the nested loops Join
+   */
+  @Test public void allOps() throws Exception {
+    Random r = new Random(42);
+    int[] data1 = new int[200 * width1];
+    int[] data2 = new int[150 * width2];
+    for (int i = 0; i < data1.length; i++)
+      data1[i] = r.nextInt(50);
+    for (int i = 0; i < data2.length; i++)
+      data2[i] = r.nextInt(50);
+
+    Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN,
+        Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.LESS_THAN,
+        Predicate.Op.LESS_THAN_OR_EQ };
+    for (Predicate.Op op : ops) {
+      JoinPredicate pred = new JoinPredicate(1, op, 2);
+      ArrayList<String> expected = results(new Join(pred,
+          TestUtil.createTupleList(width1, data1),
+          TestUtil.createTupleList(width2, data2)));
+      ArrayList<String> actual = results(new SortMergeJoin(pred,
+          TestUtil.createTupleList(width1, data1),
+          TestUtil.createTupleList(width2, data2)));
+      assertTrue(expected.size() > 0);
+      assertEquals(op.toString(), expected, actual);
+    }
+  }
+
+  /**
+   * Unit test for SortMergeJoin with an input already sorted on its join
+   * field, which is not sorted again
+   */
+  @Test public void sortedInput() throws Exception {
+    OrderBy sorted1 = new OrderBy(0, true, scan1);
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, sorted1, scan2);
+    assertSame(sorted1, op.child1);
+    assertTrue(op.child2 instanceof OrderBy);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+
+    // a less-than join needs both inputs in descending order
+    pred = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+    op = new SortMergeJoin(pred, sorted1, scan2);
+    assertTrue(op.child1 != sorted1);
+  }
+
+  /**
+   * Unit test for SortMergeJoin with a sort memory budget that both inputs
+   * outgrow, which are sorted externally within it
+   */
+  @Test public void sortBudget() throws Exception {
+    Random r = new Random(7);
+    int[] data1 = new int[2000 * width1];
+    int[] data2 = new int[1500 * width2];
+    for (int i = 0; i < data1.length; i++)
+      data1[i] = r.nextInt(1000);
+    for (int i = 0; i < data2.length; i++)
+      data2[i] = r.nextInt(1000);
+
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+    ArrayList<String> expected = results(new Join(pred,
+        TestUtil.createTupleList(width1, data1),
+        TestUtil.createTupleList(width2, data2)));
+    long budget = 8 << 10;
+    SortMergeJoin op = new SortMergeJoin(pred,
+        TestUtil.createTupleList(width1, data1),
+        TestUtil.createTupleList(width2, data2), budget);
+    assertEquals(budget, op.getSortMemoryBudget());
+    assertEquals(expected, results(op));
+    assertTrue(((OrderBy) op.child1).getSpilledRuns() > 0);
+    assertTrue(((OrderBy) op.child2).getSpilledRuns() > 0);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
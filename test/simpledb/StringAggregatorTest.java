@@ -105,6 +105,44 @@ public class StringAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test StringAggregator without grouping, and grouping on a string field
+   * with enough groups to grow its group table
+   */
+  @Test public void countStringGroups() throws Exception {
+    StringAggregator all = new StringAggregator(Aggregator.NO_GROUPING, null,
+        1, Aggregator.Op.COUNT);
+    StringAggregator agg = new StringAggregator(1, Type.STRING_TYPE, 1,
+        Aggregator.Op.COUNT);
+    int groups = 3000;
+    Object[] data = new Object[2 * 3 * groups];
+    for (int i = 0; i < 3 * groups; i++) {
+      data[2 * i] = i;
+      data[2 * i + 1] = "s" + (i % groups);
+    }
+    DbIterator scan = TestUtil.createTupleList(width1, data);
+    scan.open();
+    while (scan.hasNext()) {
+      Tuple t = scan.next();
+      all.mergeTupleIntoGroup(t);
+      agg.mergeTupleIntoGroup(t);
+    }
+
+    DbIterator it = all.iterator();
+    it.open();
+    assertEquals(3 * groups, ((IntField) it.next().getField(0)).getValue());
+
+    it = agg.iterator();
+    it.open();
+    int n = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      assertEquals(new StringField("s" + n++, Type.STRING_LEN), t.getField(0));
+      assertEquals(3, ((IntField) t.getField(1)).getValue());
+    }
+    assertEquals(groups, n);
+  }
+
   /**
    * JUnit suite target
    */
@@ -383,6 +383,7 @@ public class TestUtil {
                 throw new RuntimeException(e);
             }
             emptyFile.deleteOnExit();
+            HeapFile.getFreeSpaceMapFile(emptyFile).deleteOnExit();
         }
 
         protected void setUp() throws Exception {
@@ -1,6 +1,10 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
@@ -57,6 +61,80 @@ public class TupleTest extends SimpleDbTestBase {
 	}
     }
 
+    /** Schema of the tuples of the lazy decoding tests */
+    private static final TupleDesc MIXED = new TupleDesc(new Type[] {
+            Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+
+    /**
+     * @return a tuple of MIXED built field by field
+     */
+    private static Tuple eager(int a, String b, int c) {
+        Tuple t = new Tuple(MIXED);
+        t.setField(0, new IntField(a));
+        t.setField(1, new StringField(b, Type.STRING_LEN));
+        t.setField(2, new IntField(c));
+        return t;
+    }
+
+    /**
+     * @return a tuple decoded lazily from the bytes t is written to, at an
+     *         offset that is not 0
+     */
+    private static Tuple lazy(Tuple t) {
+        ByteBuffer buf = ByteBuffer.allocate(MIXED.getSize() + 13);
+        t.write(buf, 13);
+        return new Tuple(MIXED, buf, 13);
+    }
+
+    private static void assertSameFields(Tuple expected, Tuple actual) {
+        for (int i = 0; i < MIXED.numFields(); i++)
+            assertEquals(expected.getField(i), actual.getField(i));
+        assertEquals(((IntField) expected.getField(0)).getValue(),
+                actual.getInt(0));
+        assertEquals(((IntField) expected.getField(2)).getValue(),
+                actual.getInt(2));
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    /**
+     * Unit test for a Tuple decoded lazily from serialized bytes: its
+     * fields equal those of the tuple it was serialized from
+     */
+    @Test public void lazyFields() {
+        Tuple[] tuples = { eager(-1, "", Integer.MAX_VALUE),
+                eager(Integer.MIN_VALUE, "abc", 0),
+                eager(42, "x\ty", -7) };
+        for (Tuple t : tuples) {
+            // read getInt before getField, so it reads the bytes
+            Tuple l = lazy(t);
+            assertEquals(((IntField) t.getField(0)).getValue(), l.getInt(0));
+            assertSameFields(t, l);
+        }
+    }
+
+    /**
+     * Unit test for Tuple.setField() on a lazily decoded tuple: set fields
+     * replace the stored ones, for getField, getInt and when the tuple is
+     * written out again, while the others are still decoded from the bytes
+     */
+    @Test public void setFieldOnLazyTuple() {
+        Tuple l = lazy(eager(1, "one", 2));
+        l.setField(1, new StringField("two", Type.STRING_LEN));
+        l.setField(2, new IntField(3));
+        Tuple expected = eager(1, "two", 3);
+        assertSameFields(expected, l);
+        assertSameFields(expected, lazy(l));
+
+        // once detached, the tuple no longer reads its bytes
+        Tuple d = lazy(eager(4, "four", 5));
+        ByteBuffer buf = d.data;
+        d.setField(0, new IntField(6));
+        d.detach();
+        assertNull(d.data);
+        buf.putInt(13 + MIXED.getOffset(2), 99);
+        assertSameFields(eager(6, "four", 5), d);
+    }
+
     /**
      * JUnit suite target
      */
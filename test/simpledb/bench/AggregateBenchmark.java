@@ -0,0 +1,64 @@
+package simpledb.bench;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures SUM(b) GROUP BY a and COUNT(b) GROUP BY a over tables of random
+ * 2-column rows whose values are drawn from 10 up to 1M distinct values,
+ * i.e. with up to as many groups, and SUM(b) GROUP BY a again with a memory
+ * budget that only holds a quarter of the groups, which spills the tuples of
+ * the others to disk.
+ * <p>
+ * Run with: ant runbench -Dbench=AggregateBenchmark
+ * [-Dbench.args="rows [groups...]"]
+ */
+public class AggregateBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int[] groups = { 10, 100, 1000, 10000, 100000, 1000000 };
+		if (args.length > 1) {
+			groups = new int[args.length - 1];
+			for (int i = 1; i < args.length; i++)
+				groups[i - 1] = Integer.parseInt(args[i]);
+		}
+
+		System.out.println("rows\tgroups\top\tbudgetKB\tms\tresults\tspilledKB\tpartitions");
+		for (int g : groups) {
+			Database.reset();
+			HeapFile t = SystemTestUtil.createRandomHeapFile(2, rows, g,
+					null, null);
+			Database.resetBufferPool(rows / 500 + 10);
+
+			Aggregator.Op[] ops = { Aggregator.Op.SUM, Aggregator.Op.COUNT,
+					Aggregator.Op.SUM };
+			for (int run = 0; run < ops.length; run++) {
+				Aggregator.Op op = ops[run];
+				long budget = run < 2 ? Aggregate.DEFAULT_MEMORY_BUDGET
+						: (long) g * (Type.INT_TYPE.getLen()
+								+ Aggregate.GROUP_OVERHEAD) / 4;
+				TransactionId tid = new TransactionId();
+				long start = System.nanoTime();
+				Aggregate agg = new Aggregate(new SeqScan(tid, t.getId(), "t"),
+						1, 0, op, budget);
+				agg.open();
+				long results = 0;
+				while (agg.hasNext()) {
+					agg.next();
+					results++;
+				}
+				long spilled = agg.getSpilledBytes();
+				int partitions = agg.getSpilledPartitions();
+				agg.close();
+				double ms = (System.nanoTime() - start) / 1e6;
+				Database.getBufferPool().transactionComplete(tid);
+
+				System.out.println(rows + "\t" + g + "\t" + op + "\t"
+						+ (budget >> 10) + "\t" + String.format("%.0f", ms)
+						+ "\t" + results + "\t" + (spilled >> 10) + "\t"
+						+ partitions);
+			}
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package simpledb.bench;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures not-equal joins of two tables of random 2-column rows, on their
+ * first columns, with the nested loops Join and with BlockNestedLoopJoin
+ * over a buffer pool too small to hold the inner table, so that every scan
+ * of the inner table reads it from disk.
+ * <p>
+ * Run with: ant runbench -Dbench=BlockJoinBenchmark
+ * [-Dbench.args="poolPages rows..."]
+ */
+public class BlockJoinBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+		int[] sizes = { 1000, 5000 };
+		if (args.length > 1) {
+			sizes = new int[args.length - 1];
+			for (int i = 1; i < args.length; i++)
+				sizes[i - 1] = Integer.parseInt(args[i]);
+		}
+
+		System.out.println("rows\toperator\tms\tresults\tinnerScans");
+		for (int rows : sizes) {
+			Database.reset();
+			HeapFile t1 = SystemTestUtil.createRandomHeapFile(2, rows, rows,
+					null, null);
+			HeapFile t2 = SystemTestUtil.createRandomHeapFile(2, 20 * rows,
+					rows, null, null);
+			Database.resetBufferPool(poolPages);
+
+			for (int op = 0; op < 2; op++) {
+				TransactionId tid = new TransactionId();
+				SeqScan s1 = new SeqScan(tid, t1.getId(), "t1");
+				SeqScan s2 = new SeqScan(tid, t2.getId(), "t2");
+				JoinPredicate p = new JoinPredicate(0, Predicate.Op.NOT_EQUALS,
+						0);
+				DbIterator join = op == 0 ? new Join(p, s1, s2)
+						: new BlockNestedLoopJoin(p, s1, s2);
+
+				long start = System.nanoTime();
+				join.open();
+				long results = 0;
+				while (join.hasNext()) {
+					join.next();
+					results++;
+				}
+				join.close();
+				double ms = (System.nanoTime() - start) / 1e6;
+				Database.getBufferPool().transactionComplete(tid);
+
+				String scans = op == 0 ? String.valueOf(rows)
+						: String.valueOf(((BlockNestedLoopJoin) join)
+								.getInnerScans());
+				System.out.println(rows + "\t"
+						+ join.getClass().getSimpleName() + "\t"
+						+ String.format("%.0f", ms) + "\t" + results + "\t"
+						+ scans);
+			}
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package simpledb.bench;
+
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures the latency of BufferPool.getPage hits as the pool grows. Every
+ * pool is filled to capacity with pages of an in-memory table, then a fixed
+ * number of random hits is timed. With a hash-indexed frame table the cost
+ * per hit should stay flat from 50 to 100k pages.
+ * <p>
+ * Run with: ant runbench -Dbench=BufferPoolBenchmark
+ */
+public class BufferPoolBenchmark {
+
+	private static final int[] POOL_SIZES = { 50, 500, 5000, 50000, 100000 };
+	private static final int HITS = 2000000;
+
+	public static void main(String[] args) throws Exception {
+		System.out.println("pages\tns/hit");
+		for (int numPages : POOL_SIZES) {
+			// run twice and report the second run, so the JIT has warmed up
+			measure(numPages);
+			System.out.println(numPages + "\t" + measure(numPages));
+		}
+	}
+
+	/** @return the average latency of a getPage hit, in nanoseconds */
+	static double measure(int numPages) throws Exception {
+		Database.reset();
+		MemoryFile table = new MemoryFile(Utility.getTupleDesc(1));
+		Database.getCatalog().addTable(table);
+		BufferPool bp = Database.resetBufferPool(numPages);
+		TransactionId tid = new TransactionId();
+
+		PageId[] pids = new PageId[numPages];
+		for (int i = 0; i < numPages; i++) {
+			pids[i] = new HeapPageId(table.getId(), i);
+			bp.getPage(tid, pids[i], Permissions.READ_ONLY);
+		}
+
+		Random r = new Random(42);
+		int[] order = new int[HITS];
+		for (int i = 0; i < HITS; i++)
+			order[i] = r.nextInt(numPages);
+
+		long start = System.nanoTime();
+		for (int i = 0; i < HITS; i++)
+			bp.getPage(tid, pids[order[i]], Permissions.READ_ONLY);
+		long elapsed = System.nanoTime() - start;
+
+		bp.transactionComplete(tid);
+		if (table.reads != numPages)
+			throw new IllegalStateException("expected only hits, but "
+					+ (table.reads - numPages) + " pages were re-read");
+		return (double) elapsed / HITS;
+	}
+
+	/**
+	 * A table whose pages are fabricated in memory, so that the benchmark
+	 * measures the buffer pool rather than the disk.
+	 */
+	static class MemoryFile extends TestUtil.SkeletonFile {
+		int reads = 0;
+
+		MemoryFile(TupleDesc td) {
+			super(new Random().nextInt(), td);
+		}
+
+		public Page readPage(PageId pid) {
+			reads++;
+			return new MemoryPage(pid);
+		}
+	}
+
+	/** A page that carries no data. */
+	static class MemoryPage implements Page {
+		private final PageId pid;
+		private TransactionId dirtier;
+
+		MemoryPage(PageId pid) {
+			this.pid = pid;
+		}
+
+		public PageId getId() {
+			return pid;
+		}
+
+		public TransactionId isDirty() {
+			return dirtier;
+		}
+
+		public void markDirty(boolean dirty, TransactionId tid) {
+			dirtier = dirty ? tid : null;
+		}
+
+		public byte[] getPageData() {
+			return new byte[BufferPool.PAGE_SIZE];
+		}
+
+		public Page getBeforeImage() {
+			return this;
+		}
+
+		public void setBeforeImage() {
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package simpledb.bench;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.*;
+
+/**
+ * Measures getPage throughput of concurrent readers. Each reader thread runs
+ * its own transaction and repeatedly scans its own in-memory table, so the
+ * threads only share the buffer pool. A pool with a single partition (one
+ * latch for the whole pool, like the pool before partitioning) is compared
+ * against a partitioned pool for 1 to 16 threads.
+ * <p>
+ * Run with: ant runbench -Dbench=BufferPoolThroughputBenchmark
+ * [-Dbench.args=numPartitions], 16 partitions by default.
+ */
+public class BufferPoolThroughputBenchmark {
+
+	private static final int[] THREADS = { 1, 2, 4, 8, 16 };
+	private static final int PAGES_PER_TABLE = 1000;
+	private static final long RUN_MILLIS = 1000;
+
+	public static void main(String[] args) throws Exception {
+		int pages = PAGES_PER_TABLE * THREADS[THREADS.length - 1];
+		int partitions = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+
+		System.out.println("threads\t1 partition (pages/s)\t" + partitions
+				+ " partitions (pages/s)");
+		for (int threads : THREADS) {
+			// warm up both configurations before measuring
+			measure(threads, pages, 1);
+			measure(threads, pages, partitions);
+			System.out.println(threads + "\t" + measure(threads, pages, 1)
+					+ "\t" + measure(threads, pages, partitions));
+		}
+	}
+
+	/** @return the number of getPage calls per second over all threads */
+	static long measure(int threads, int pages, int partitions)
+			throws Exception {
+		Database.reset();
+		Database.resetBufferPool(pages, partitions);
+
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicLong total = new AtomicLong();
+		final long[] deadline = new long[1];
+		Thread[] readers = new Thread[threads];
+
+		for (int t = 0; t < threads; t++) {
+			BufferPoolBenchmark.MemoryFile table = new BufferPoolBenchmark.MemoryFile(
+					Utility.getTupleDesc(1));
+			Database.getCatalog().addTable(table);
+			final int tableId = table.getId();
+
+			readers[t] = new Thread() {
+				public void run() {
+					try {
+						start.await();
+						BufferPool bp = Database.getBufferPool();
+						TransactionId tid = new TransactionId();
+						long n = 0;
+						while (System.currentTimeMillis() < deadline[0]) {
+							for (int i = 0; i < PAGES_PER_TABLE; i++)
+								bp.getPage(tid, new HeapPageId(tableId, i),
+										Permissions.READ_ONLY);
+							n += PAGES_PER_TABLE;
+						}
+						bp.transactionComplete(tid);
+						total.addAndGet(n);
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			readers[t].start();
+		}
+
+		deadline[0] = System.currentTimeMillis() + RUN_MILLIS;
+		start.countDown();
+		for (Thread reader : readers)
+			reader.join();
+		return total.get() * 1000 / RUN_MILLIS;
+	}
+}
@@ -0,0 +1,54 @@
+package simpledb.bench;
+
+import java.io.File;
+
+import simpledb.*;
+
+/**
+ * Compares loading rows into an empty 2-column table with the Insert
+ * operator, which adds them one at a time through BufferPool.insertTuple,
+ * and with BufferPool.bulkInsert. Each load runs in one transaction, which is
+ * committed; the time includes the commit.
+ * <p>
+ * Run with: ant runbench -Dbench=BulkInsertBenchmark [-Dbench.args=numRows]
+ */
+public class BulkInsertBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int numRows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		// the Insert operator keeps all the pages it dirties in the pool
+		int poolPages = 2 * numRows / 504 + 100;
+
+		System.out.println("method\trows\tms\trows/s\tpages");
+		for (int bulk = 0; bulk < 2; bulk++) {
+			Database.reset();
+			File f = File.createTempFile("bulk", ".dat");
+			HeapFile table = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+			BufferPool bp = Database.resetBufferPool(poolPages);
+			bp.setPrefetchPages(0);
+
+			long start = System.nanoTime();
+			TransactionId tid = new TransactionId();
+			DbIterator rows = new TestUtil.MockScan(0, numRows, 2);
+			rows.open();
+			if (bulk == 1) {
+				bp.bulkInsert(tid, table.getId(), rows);
+			} else {
+				Insert insert = new Insert(tid, rows, table.getId());
+				insert.open();
+				insert.next();
+				insert.close();
+			}
+			bp.transactionComplete(tid);
+			double secs = (System.nanoTime() - start) / 1e9;
+
+			System.out.println((bulk == 1 ? "bulkInsert" : "Insert") + "\t"
+					+ numRows + "\t" + String.format("%.0f", secs * 1000)
+					+ "\t" + String.format("%.0f", numRows / secs) + "\t"
+					+ table.numPages());
+			table.close();
+			f.delete();
+			HeapFile.getFreeSpaceMapFile(f).delete();
+		}
+	}
+}
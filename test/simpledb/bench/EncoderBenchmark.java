@@ -0,0 +1,83 @@
+package simpledb.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures HeapFileEncoder.convert on a generated comma separated file of
+ * random rows of COLUMNS int fields, with each of the given numbers of
+ * parsing threads.
+ * <p>
+ * Run with: ant runbench -Dbench=EncoderBenchmark
+ * [-Dbench.args="sizeMB threads..."]
+ */
+public class EncoderBenchmark {
+
+	private static final int COLUMNS = 4;
+
+	public static void main(String[] args) throws Exception {
+		long size = (args.length > 0 ? Long.parseLong(args[0]) : 2048) << 20;
+		int[] threads;
+		if (args.length > 1) {
+			threads = new int[args.length - 1];
+			for (int i = 1; i < args.length; i++)
+				threads[i - 1] = Integer.parseInt(args[i]);
+		} else {
+			threads = new int[] { 1, Runtime.getRuntime().availableProcessors() };
+		}
+
+		File in = File.createTempFile("encode", ".txt");
+		in.deleteOnExit();
+		long rows = generate(in, size);
+		File out = File.createTempFile("encode", ".dat");
+		out.deleteOnExit();
+
+		Type[] types = new Type[COLUMNS];
+		for (int i = 0; i < COLUMNS; i++)
+			types[i] = Type.INT_TYPE;
+
+		System.out.println(in.length() + " bytes, " + rows + " rows");
+		System.out.println("threads\tms\tMB/s\tpages");
+		for (int n : threads) {
+			long start = System.nanoTime();
+			HeapFileEncoder.convert(in, out, BufferPool.PAGE_SIZE, COLUMNS,
+					types, n);
+			double secs = (System.nanoTime() - start) / 1e9;
+			System.out.println(n + "\t" + String.format("%.0f", secs * 1000)
+					+ "\t" + String.format("%.1f", in.length() / secs / 1e6)
+					+ "\t" + out.length() / BufferPool.PAGE_SIZE);
+		}
+		in.delete();
+		out.delete();
+	}
+
+	/**
+	 * Writes random rows into f until it holds at least size bytes.
+	 *
+	 * @return the number of rows written
+	 */
+	static long generate(File f, long size) throws Exception {
+		Random r = new Random(0);
+		BufferedWriter w = new BufferedWriter(new FileWriter(f), 1 << 16);
+		long bytes = 0, rows = 0;
+		StringBuilder line = new StringBuilder();
+		while (bytes < size) {
+			line.setLength(0);
+			for (int i = 0; i < COLUMNS; i++) {
+				if (i > 0)
+					line.append(',');
+				line.append(r.nextInt());
+			}
+			line.append('\n');
+			w.write(line.toString());
+			bytes += line.length();
+			rows++;
+		}
+		w.close();
+		return rows;
+	}
+}
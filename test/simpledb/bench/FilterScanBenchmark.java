@@ -0,0 +1,123 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.NoSuchElementException;
+
+import simpledb.*;
+
+/**
+ * Measures how much a selective scan allocates: a Filter that keeps about 1%
+ * of the tuples of a 10-column table, over a SeqScan. The BufferPool is much
+ * smaller than the table and read ahead is off, so every scan reads every
+ * page into a new HeapPage, as a scan of a large table does.
+ * <p>
+ * The scan runs twice: once with the Filter directly over the SeqScan, and
+ * once over an operator that hides the SeqScan from the Filter, so the
+ * predicate is applied to materialized tuples. Allocation is the number of
+ * bytes allocated by the scanning thread, as counted by the JVM, per tuple
+ * of the table.
+ * <p>
+ * Run with: ant runbench -Dbench=FilterScanBenchmark [-Dbench.args=numPages]
+ */
+public class FilterScanBenchmark {
+
+	private static final int COLUMNS = 10;
+	private static final int POOL_PAGES = 100;
+	private static final int SCANS = 5;
+
+	public static void main(String[] args) throws Exception {
+		int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		int tuplesPerPage = BufferPool.PAGE_SIZE * 8 / (COLUMNS * 4 * 8 + 1);
+		long numTuples = (long) numPages * tuplesPerPage;
+		File f = PrefetchBenchmark.createTable(numPages, COLUMNS);
+
+		Database.reset();
+		HeapFile table = new HeapFile(f, Utility.getTupleDesc(COLUMNS));
+		Database.getCatalog().addTable(table);
+		BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+		bp.setPrefetchPages(0);
+
+		System.out.println(numPages + " pages, " + numTuples + " tuples of "
+				+ COLUMNS + " columns");
+		System.out.println("child\tmatches\tbytes/tuple\tns/tuple");
+		for (boolean opaque : new boolean[] { false, true, false, true }) {
+			long matches = 0;
+			long bytes = 0;
+			long nanos = 0;
+			for (int i = 0; i < SCANS; i++) {
+				long startBytes = allocatedBytes();
+				long start = System.nanoTime();
+				matches = scan(table, opaque);
+				nanos += System.nanoTime() - start;
+				bytes += allocatedBytes() - startBytes;
+			}
+			System.out.println((opaque ? "opaque" : "SeqScan") + "\t" + matches
+					+ "\t" + String.format("%.1f", (double) bytes / SCANS / numTuples)
+					+ "\t" + String.format("%.1f", (double) nanos / SCANS / numTuples));
+		}
+		table.close();
+		f.delete();
+	}
+
+	/** @return the number of tuples that pass the filter */
+	static long scan(HeapFile table, boolean opaque) throws Exception {
+		TransactionId tid = new TransactionId();
+		DbIterator child = new SeqScan(tid, table.getId(), "t");
+		if (opaque)
+			child = new Opaque(child);
+		// the first tuple of every page
+		Filter filter = new Filter(new Predicate(0, Predicate.Op.EQUALS,
+				new IntField(0)), child);
+		long n = 0;
+		filter.open();
+		while (filter.hasNext()) {
+			filter.next();
+			n++;
+		}
+		filter.close();
+		Database.getBufferPool().transactionComplete(tid);
+		return n;
+	}
+
+	static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean()).getThreadAllocatedBytes(Thread
+				.currentThread().getId());
+	}
+
+	/** Passes the tuples of its child through unchanged. */
+	static class Opaque implements DbIterator {
+		private final DbIterator child;
+
+		Opaque(DbIterator child) {
+			this.child = child;
+		}
+
+		public void open() throws DbException, TransactionAbortedException {
+			child.open();
+		}
+
+		public boolean hasNext() throws DbException,
+				TransactionAbortedException {
+			return child.hasNext();
+		}
+
+		public Tuple next() throws DbException, TransactionAbortedException,
+				NoSuchElementException {
+			return child.next();
+		}
+
+		public void rewind() throws DbException, TransactionAbortedException {
+			child.rewind();
+		}
+
+		public TupleDesc getTupleDesc() {
+			return child.getTupleDesc();
+		}
+
+		public void close() {
+			child.close();
+		}
+	}
+}
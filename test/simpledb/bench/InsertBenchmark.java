@@ -0,0 +1,58 @@
+package simpledb.bench;
+
+import java.io.File;
+
+import simpledb.*;
+
+/**
+ * Measures the throughput of BufferPool.insertTuple into a large table whose
+ * pages are all full, so that finding room for a tuple is the expensive part
+ * of an insert. Tuples are inserted in transactions of TUPLES_PER_COMMIT
+ * tuples each. The first insert is reported separately, as it may set up
+ * state for the table.
+ * <p>
+ * Run with: ant runbench -Dbench=InsertBenchmark
+ * [-Dbench.args="numPages numInserts"]
+ */
+public class InsertBenchmark {
+
+	private static final int POOL_PAGES = 1000;
+	private static final int TUPLES_PER_COMMIT = 100;
+
+	public static void main(String[] args) throws Exception {
+		int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int numInserts = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		File f = PrefetchBenchmark.createTable(numPages);
+
+		Database.reset();
+		HeapFile table = new HeapFile(f, Utility.getTupleDesc(2));
+		Database.getCatalog().addTable(table);
+		BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+		bp.setPrefetchPages(0);
+
+		System.out.println(numPages + " full pages, " + numInserts + " inserts");
+		long start = System.nanoTime();
+		TransactionId tid = new TransactionId();
+		bp.insertTuple(tid, table.getId(), Utility.getHeapTuple(0, 2));
+		double first = (System.nanoTime() - start) / 1e6;
+
+		start = System.nanoTime();
+		for (int i = 1; i < numInserts; i++) {
+			if (i % TUPLES_PER_COMMIT == 0) {
+				bp.transactionComplete(tid);
+				tid = new TransactionId();
+			}
+			bp.insertTuple(tid, table.getId(), Utility.getHeapTuple(i, 2));
+		}
+		bp.transactionComplete(tid);
+		double secs = (System.nanoTime() - start) / 1e9;
+
+		System.out.println("first insert ms\tinserts/s\tpages");
+		System.out.println(String.format("%.1f", first) + "\t"
+				+ String.format("%.0f", (numInserts - 1) / secs) + "\t"
+				+ table.numPages());
+		table.close();
+		f.delete();
+		HeapFile.getFreeSpaceMapFile(f).delete();
+	}
+}
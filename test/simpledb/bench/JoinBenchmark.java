@@ -0,0 +1,74 @@
+package simpledb.bench;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures equality joins of two tables of random 2-column rows, on their
+ * first columns, whose values are drawn from as many distinct values as
+ * there are rows. For each size, HashJoin is timed, and so is the nested
+ * loops Join as long as the tables have at most maxLoopRows rows, and so is
+ * a HashJoin whose memory budget only holds a quarter of its build input,
+ * which spills the rest to disk.
+ * <p>
+ * Run with: ant runbench -Dbench=JoinBenchmark
+ * [-Dbench.args="maxLoopRows rows..."]
+ */
+public class JoinBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int maxLoopRows = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int[] sizes = { 1000, 10000, 100000 };
+		if (args.length > 1) {
+			sizes = new int[args.length - 1];
+			for (int i = 1; i < args.length; i++)
+				sizes[i - 1] = Integer.parseInt(args[i]);
+		}
+
+		System.out.println("rows\toperator\tbudget\tms\tresults\tspilledKB\tpartitions");
+		for (int rows : sizes) {
+			Database.reset();
+			HeapFile t1 = SystemTestUtil.createRandomHeapFile(2, rows, rows,
+					null, null);
+			HeapFile t2 = SystemTestUtil.createRandomHeapFile(2, rows, rows,
+					null, null);
+			Database.resetBufferPool(2 * (rows / 500 + 10));
+
+			for (int op = 0; op < 3; op++) {
+				if (op == 0 && rows > maxLoopRows)
+					continue;
+				TransactionId tid = new TransactionId();
+				SeqScan s1 = new SeqScan(tid, t1.getId(), "t1");
+				SeqScan s2 = new SeqScan(tid, t2.getId(), "t2");
+				JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+				long budget = op < 2 ? HashJoin.DEFAULT_MEMORY_BUDGET : (long) rows
+						* (t2.getTupleDesc().getSize() + HashJoin.TUPLE_OVERHEAD) / 4;
+				DbIterator join = op == 0 ? new Join(p, s1, s2)
+						: new HashJoin(p, s1, s2, budget);
+
+				long start = System.nanoTime();
+				join.open();
+				long results = 0;
+				while (join.hasNext()) {
+					join.next();
+					results++;
+				}
+				join.close();
+				double ms = (System.nanoTime() - start) / 1e6;
+				Database.getBufferPool().transactionComplete(tid);
+
+				long spilled = 0;
+				int partitions = 0;
+				if (join instanceof HashJoin) {
+					spilled = ((HashJoin) join).getSpilledBytes();
+					partitions = ((HashJoin) join).getSpilledPartitions();
+				}
+				System.out.println(rows + "\t"
+						+ join.getClass().getSimpleName() + "\t"
+						+ (op == 0 ? "-" : String.valueOf(budget >> 10) + "K")
+						+ "\t" + String.format("%.0f", ms) + "\t" + results
+						+ "\t" + (spilled >> 10) + "\t" + partitions);
+			}
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package simpledb.bench;
+
+import java.io.File;
+
+import simpledb.*;
+
+/**
+ * Compares repeated full scans of a large table stored as a MappedHeapFile,
+ * whose pages are decoded from a memory mapping of the file, against a plain
+ * HeapFile, which reads every page with a call on its FileChannel.
+ * <p>
+ * The BufferPool is kept small and read ahead is off, so every page of every
+ * scan is read from the file; once the first scan has brought the table into
+ * the OS page cache, the difference is the cost of the read call and the copy
+ * into a fresh array. The table size is given in MB (1024 by default).
+ * <p>
+ * Run with: ant runbench -Dbench=MappedScanBenchmark [-Dbench.args=sizeInMB]
+ */
+public class MappedScanBenchmark {
+
+	private static final int SCANS = 3;
+	private static final int POOL_PAGES = 1000;
+
+	public static void main(String[] args) throws Exception {
+		int mb = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+		int numPages = mb * (1 << 20) / BufferPool.PAGE_SIZE;
+		File f = PrefetchBenchmark.createTable(numPages);
+
+		System.out.println(mb + " MB, " + numPages + " pages");
+		System.out.println("mode\tscan\tMB/s");
+		for (boolean mapped : new boolean[] { false, true, false, true }) {
+			for (int i = 0; i < SCANS; i++) {
+				long start = System.nanoTime();
+				scan(f, mapped);
+				double secs = (System.nanoTime() - start) / 1e9;
+				System.out.println((mapped ? "mmap" : "FileChannel") + "\t" + i
+						+ "\t" + String.format("%.1f", mb / secs));
+			}
+		}
+		f.delete();
+	}
+
+	static void scan(File f, boolean mapped) throws Exception {
+		Database.reset();
+		TupleDesc td = Utility.getTupleDesc(2);
+		HeapFile table = mapped ? new MappedHeapFile(f, td) : new HeapFile(f, td);
+		Database.getCatalog().addTable(table);
+		BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+		bp.setPrefetchPages(0);
+
+		TransactionId tid = new TransactionId();
+		SeqScan scan = new SeqScan(tid, table.getId(), "t");
+		scan.open();
+		while (scan.hasNext())
+			scan.next();
+		scan.close();
+		bp.transactionComplete(tid);
+		table.close();
+	}
+}
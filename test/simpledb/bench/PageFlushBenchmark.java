@@ -0,0 +1,100 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+import simpledb.*;
+
+/**
+ * Measures the cost of serializing HeapPages while loading a table: a
+ * transaction inserts tuples one by one through the BufferPool into an empty
+ * 2-column table, and commits, which flushes its pages. All of the loaded
+ * pages are then marked dirty and flushed again, repeatedly, to measure the
+ * flush path on its own.
+ * <p>
+ * For both phases the throughput, the bytes allocated by the benchmark
+ * thread (as counted by the JVM) and the collections run by the garbage
+ * collectors are reported.
+ * <p>
+ * Run with: ant runbench -Dbench=PageFlushBenchmark [-Dbench.args=numTuples]
+ */
+public class PageFlushBenchmark {
+
+	private static final int POOL_PAGES = 1000;
+	private static final int FLUSH_ROUNDS = 200;
+
+	public static void main(String[] args) throws Exception {
+		int numTuples = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+
+		Database.reset();
+		File f = File.createTempFile("flush", ".dat");
+		f.deleteOnExit();
+		HeapFile table = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+		BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+		bp.setPrefetchPages(0);
+
+		System.out.println("phase\tops\tops/s\tbytes/op\tGCs\tGC ms");
+
+		// load the table
+		Stats stats = new Stats();
+		TransactionId tid = new TransactionId();
+		for (int i = 0; i < numTuples; i++)
+			bp.insertTuple(tid, table.getId(), Utility.getHeapTuple(i, 2));
+		bp.transactionComplete(tid);
+		stats.print("insert", numTuples);
+
+		// flush all of its pages again and again
+		int numPages = table.numPages();
+		stats = new Stats();
+		tid = new TransactionId();
+		for (int r = 0; r < FLUSH_ROUNDS; r++) {
+			for (int p = 0; p < numPages; p++)
+				bp.getPage(tid, new HeapPageId(table.getId(), p),
+						Permissions.READ_WRITE).markDirty(true, tid);
+			bp.flushPages(tid);
+		}
+		bp.transactionComplete(tid);
+		stats.print("flush", (long) FLUSH_ROUNDS * numPages);
+
+		table.close();
+		f.delete();
+	}
+
+	/** Time, allocation and collections since construction. */
+	static class Stats {
+		final long start = System.nanoTime();
+		final long bytes = allocatedBytes();
+		final long gcs = collections();
+		final long gcMillis = collectionMillis();
+
+		void print(String phase, long ops) {
+			double secs = (System.nanoTime() - start) / 1e9;
+			System.out.println(phase + "\t" + ops + "\t"
+					+ String.format("%.0f", ops / secs) + "\t"
+					+ String.format("%.1f", (double) (allocatedBytes() - bytes) / ops)
+					+ "\t" + (collections() - gcs) + "\t"
+					+ (collectionMillis() - gcMillis));
+		}
+	}
+
+	static long allocatedBytes() {
+		return FilterScanBenchmark.allocatedBytes();
+	}
+
+	static long collections() {
+		long n = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory
+				.getGarbageCollectorMXBeans())
+			n += gc.getCollectionCount();
+		return n;
+	}
+
+	static long collectionMillis() {
+		long ms = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory
+				.getGarbageCollectorMXBeans())
+			ms += gc.getCollectionTime();
+		return ms;
+	}
+}
@@ -0,0 +1,77 @@
+package simpledb.bench;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures COUNT(b), SUM(b) and AVG(b) GROUP BY a over a table of random
+ * 2-column rows with 1000 distinct values of a, computed by an Aggregate
+ * over a scan of the whole table and by a ParallelAggregate over as many
+ * page ranges of the table as it has threads, for 1 up to 8 threads. Each
+ * query reads the table from the buffer pool, which holds all of it.
+ * <p>
+ * Run with: ant runbench -Dbench=ParallelAggregateBenchmark
+ * [-Dbench.args="rows [threads...]"]
+ */
+public class ParallelAggregateBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+		int[] threads = { 1, 2, 4, 8 };
+		if (args.length > 1) {
+			threads = new int[args.length - 1];
+			for (int i = 1; i < args.length; i++)
+				threads[i - 1] = Integer.parseInt(args[i]);
+		}
+
+		Database.reset();
+		HeapFile t = SystemTestUtil.createRandomHeapFile(2, rows, 1000, null,
+				null);
+		Database.resetBufferPool(t.numPages() + 10);
+		// warm up the buffer pool and the JIT
+		run(t, 0, Aggregator.Op.COUNT);
+
+		System.out.println("rows\top\tthreads\tms\tresults");
+		Aggregator.Op[] ops = { Aggregator.Op.COUNT, Aggregator.Op.SUM,
+				Aggregator.Op.AVG };
+		for (Aggregator.Op op : ops) {
+			// 0 threads: the serial Aggregate
+			int[] runs = new int[threads.length + 1];
+			System.arraycopy(threads, 0, runs, 1, threads.length);
+			for (int n : runs) {
+				long start = System.nanoTime();
+				long results = run(t, n, op);
+				double ms = (System.nanoTime() - start) / 1e6;
+				System.out.println(rows + "\t" + op + "\t"
+						+ (n == 0 ? "serial" : "" + n) + "\t"
+						+ String.format("%.0f", ms) + "\t" + results);
+			}
+		}
+	}
+
+	/**
+	 * Runs op(b) GROUP BY a over t with threads threads, or with the serial
+	 * Aggregate if threads is 0.
+	 * 
+	 * @return the number of results
+	 */
+	private static long run(HeapFile t, int threads, Aggregator.Op op)
+			throws Exception {
+		TransactionId tid = new TransactionId();
+		DbIterator agg;
+		if (threads == 0)
+			agg = new Aggregate(new SeqScan(tid, t.getId(), "t"), 1, 0, op);
+		else
+			agg = new ParallelAggregate(SeqScan.slices(tid, t.getId(), "t",
+					threads), 1, 0, op);
+		agg.open();
+		long results = 0;
+		while (agg.hasNext()) {
+			agg.next();
+			results++;
+		}
+		agg.close();
+		Database.getBufferPool().transactionComplete(tid);
+		return results;
+	}
+}
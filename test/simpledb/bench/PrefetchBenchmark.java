@@ -0,0 +1,105 @@
+package simpledb.bench;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+
+import simpledb.*;
+
+/**
+ * Measures sequential scan throughput of a large table against the prefetch
+ * depth, i.e. how many pages HeapFileIterator asks the BufferPool to read
+ * ahead of the page it is on. The table is written once into a temporary
+ * file; every depth then scans it end to end through a SeqScan.
+ * <p>
+ * Prefetching only pays off when reading a page takes real I/O, so the table
+ * should be larger than the memory available to the OS page cache; the size
+ * is given in MB (256 by default).
+ * <p>
+ * Run with: ant runbench -Dbench=PrefetchBenchmark [-Dbench.args=sizeInMB]
+ */
+public class PrefetchBenchmark {
+
+	private static final int[] DEPTHS = { 0, 1, 4, 16, 64 };
+	private static final int POOL_PAGES = 1000;
+
+	public static void main(String[] args) throws Exception {
+		int mb = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+		int numPages = mb * (1 << 20) / BufferPool.PAGE_SIZE;
+		File table = createTable(numPages);
+
+		System.out.println(mb + " MB, " + numPages + " pages");
+		System.out.println("depth\tMB/s\tpages prefetched");
+		// warm up the JIT (and the page cache, as far as it goes)
+		scan(table, 0);
+		for (int depth : DEPTHS) {
+			long start = System.nanoTime();
+			long prefetched = scan(table, depth);
+			double secs = (System.nanoTime() - start) / 1e9;
+			System.out.println(depth + "\t" + String.format("%.1f", mb / secs)
+					+ "\t" + prefetched);
+		}
+		table.delete();
+	}
+
+	/** @return the number of pages prefetched during the scan */
+	static long scan(File f, int depth) throws Exception {
+		Database.reset();
+		HeapFile table = new HeapFile(f, Utility.getTupleDesc(2));
+		Database.getCatalog().addTable(table);
+		BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+		bp.setPrefetchPages(depth);
+
+		TransactionId tid = new TransactionId();
+		SeqScan scan = new SeqScan(tid, table.getId(), "t");
+		scan.open();
+		while (scan.hasNext())
+			scan.next();
+		scan.close();
+		bp.transactionComplete(tid);
+		return bp.getPagesPrefetched();
+	}
+
+	/** Writes a table of numPages full pages of 2-column tuples. */
+	static File createTable(int numPages) throws Exception {
+		return createTable(numPages, 2);
+	}
+
+	/**
+	 * Writes a table of numPages full pages of tuples with the given number
+	 * of int columns. The first column of the i-th tuple of every page is i,
+	 * all other columns are -i.
+	 */
+	static File createTable(int numPages, int columns) throws Exception {
+		// encode one full page, then repeat it
+		int tuplesPerPage = BufferPool.PAGE_SIZE * 8 / (columns * 4 * 8 + 1);
+		ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+		for (int i = 0; i < tuplesPerPage; i++) {
+			ArrayList<Integer> tuple = new ArrayList<Integer>();
+			tuple.add(i);
+			for (int j = 1; j < columns; j++)
+				tuple.add(-i);
+			tuples.add(tuple);
+		}
+		File onePage = File.createTempFile("prefetch", ".page");
+		onePage.deleteOnExit();
+		HeapFileEncoder.convert(tuples, onePage, BufferPool.PAGE_SIZE, columns);
+		byte[] page = new byte[BufferPool.PAGE_SIZE];
+		FileInputStream in = new FileInputStream(onePage);
+		if (in.read(page) != page.length)
+			throw new IllegalStateException("short page");
+		in.close();
+
+		File f = File.createTempFile("prefetch", ".dat");
+		f.deleteOnExit();
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(f),
+				1 << 20);
+		for (int i = 0; i < numPages; i++)
+			out.write(page);
+		out.close();
+		return f;
+	}
+}
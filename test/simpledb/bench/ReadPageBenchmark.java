@@ -0,0 +1,108 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures the latency of HeapFile.readPage, reading through the HeapFile's
+ * persistent FileChannel, against the previous implementation, which opened
+ * a RandomAccessFile for every page and read it one byte at a time.
+ * <p>
+ * Like a JMH average-time benchmark, every variant runs warmup iterations
+ * before the measured ones, and the mean time per page is reported. Pages are
+ * read in random order from a file of 64 MB by default. The cold cache runs
+ * drop the OS page cache before every iteration, which needs root; where that
+ * is not possible they are reported as warm.
+ * <p>
+ * Run with: ant runbench -Dbench=ReadPageBenchmark [-Dbench.args=sizeInMB]
+ */
+public class ReadPageBenchmark {
+
+	private static final int WARMUP_ITERATIONS = 2;
+	private static final int ITERATIONS = 5;
+	private static final int READS_PER_ITERATION = 2000;
+
+	public static void main(String[] args) throws Exception {
+		int mb = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		int numPages = mb * (1 << 20) / BufferPool.PAGE_SIZE;
+		File f = PrefetchBenchmark.createTable(numPages);
+		TupleDesc td = Utility.getTupleDesc(2);
+
+		HeapFile channelFile = new HeapFile(f, td);
+		HeapFile legacyFile = new RandomAccessHeapFile(f, td);
+		// both share the id of the file, and pages look up their schema
+		Database.getCatalog().addTable(channelFile);
+		boolean canDrop = dropCaches();
+
+		System.out.println(mb + " MB, " + numPages + " pages"
+				+ (canDrop ? "" : " (cannot drop OS cache: cold runs are warm)"));
+		System.out.println("variant\tcache\tus/page");
+		for (boolean cold : new boolean[] { false, true }) {
+			String cache = cold && canDrop ? "cold" : "warm";
+			System.out.println("per-call RandomAccessFile\t" + cache + "\t"
+					+ measure(legacyFile, numPages, cold && canDrop));
+			System.out.println("FileChannel\t" + cache + "\t"
+					+ measure(channelFile, numPages, cold && canDrop));
+		}
+		channelFile.close();
+		f.delete();
+	}
+
+	/** @return the mean latency of readPage, in microseconds */
+	static String measure(HeapFile file, int numPages, boolean cold)
+			throws IOException {
+		Random r = new Random(42);
+		long total = 0;
+		for (int i = 0; i < WARMUP_ITERATIONS + ITERATIONS; i++) {
+			if (cold)
+				dropCaches();
+			long start = System.nanoTime();
+			for (int j = 0; j < READS_PER_ITERATION; j++)
+				file.readPage(new HeapPageId(file.getId(), r.nextInt(numPages)));
+			if (i >= WARMUP_ITERATIONS)
+				total += System.nanoTime() - start;
+		}
+		return String.format("%.2f", total / 1e3
+				/ (ITERATIONS * READS_PER_ITERATION));
+	}
+
+	/** @return true if the OS page cache could be dropped */
+	static boolean dropCaches() {
+		try {
+			Runtime.getRuntime().exec(new String[] { "sync" }).waitFor();
+			FileWriter w = new FileWriter("/proc/sys/vm/drop_caches");
+			w.write("3");
+			w.close();
+			return true;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	/** HeapFile.readPage as it was before the file was kept open. */
+	static class RandomAccessHeapFile extends HeapFile {
+		RandomAccessHeapFile(File f, TupleDesc td) {
+			super(f, td);
+		}
+
+		public Page readPage(PageId pid) {
+			int offset = pid.pageNumber() * BufferPool.PAGE_SIZE;
+			byte[] data = new byte[BufferPool.PAGE_SIZE];
+			try {
+				RandomAccessFile access = new RandomAccessFile(getFile(), "r");
+				access.seek(offset);
+				for (int i = 0; i < BufferPool.PAGE_SIZE; i++)
+					data[i] = access.readByte();
+				access.close();
+				return new HeapPage((HeapPageId) pid, data);
+			} catch (IOException e) {
+				throw new IllegalArgumentException();
+			}
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package simpledb.bench;
+
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures the hit ratio of every page replacement policy on a workload that
+ * mixes point lookups with full scans. Point lookups go to a small, skewed
+ * set of hot pages (a dimension table) that fits in the pool; every so often
+ * a large table that does not fit is scanned from start to end. A policy that
+ * is not scan resistant loses the hot pages to every scan.
+ * <p>
+ * Run with: ant runbench -Dbench=ReplacementPolicyBenchmark
+ */
+public class ReplacementPolicyBenchmark {
+
+	private static final int POOL_PAGES = 1000;
+	private static final int HOT_PAGES = 400;
+	private static final int SCAN_PAGES = 5000;
+	private static final int LOOKUPS = 2000000;
+	// one full scan after every SCAN_INTERVAL point lookups
+	private static final int SCAN_INTERVAL = 20000;
+
+	public static void main(String[] args) throws Exception {
+		System.out.println("policy\tlookup hit %\toverall hit %\tms");
+		for (ReplacementPolicy.Kind kind : ReplacementPolicy.Kind.values())
+			run(kind);
+	}
+
+	static void run(ReplacementPolicy.Kind kind) throws Exception {
+		Database.reset();
+		BufferPoolBenchmark.MemoryFile dim = new BufferPoolBenchmark.MemoryFile(
+				Utility.getTupleDesc(1));
+		BufferPoolBenchmark.MemoryFile fact = new BufferPoolBenchmark.MemoryFile(
+				Utility.getTupleDesc(1));
+		Database.getCatalog().addTable(dim);
+		Database.getCatalog().addTable(fact);
+		// a single partition, so that the hit ratio only depends on the policy
+		BufferPool bp = Database.resetBufferPool(POOL_PAGES, 1, kind);
+		TransactionId tid = new TransactionId();
+
+		Random r = new Random(42);
+		long lookups = 0;
+		long lookupMisses = 0;
+		long start = System.currentTimeMillis();
+		for (int i = 1; i <= LOOKUPS; i++) {
+			// skewed: low page numbers are much more popular
+			int pgNo = (int) (HOT_PAGES * Math.pow(r.nextDouble(), 3));
+			int reads = dim.reads;
+			bp.getPage(tid, new HeapPageId(dim.getId(), pgNo),
+					Permissions.READ_ONLY);
+			lookups++;
+			lookupMisses += dim.reads - reads;
+
+			if (i % SCAN_INTERVAL == 0) {
+				for (int p = 0; p < SCAN_PAGES; p++)
+					bp.getPage(tid, new HeapPageId(fact.getId(), p),
+							Permissions.READ_ONLY);
+			}
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		bp.transactionComplete(tid);
+
+		long scanned = (long) SCAN_PAGES * (LOOKUPS / SCAN_INTERVAL);
+		long requests = lookups + scanned;
+		long misses = lookupMisses + fact.reads;
+		System.out.println(kind + "\t"
+				+ percent(lookups - lookupMisses, lookups) + "\t"
+				+ percent(requests - misses, requests) + "\t" + elapsed);
+	}
+
+	private static String percent(long part, long whole) {
+		return String.format("%.2f", 100.0 * part / whole);
+	}
+}
@@ -0,0 +1,105 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.Iterator;
+
+import simpledb.*;
+
+/**
+ * Measures the HeapPage operations that work on the slot header, for tables
+ * of 1 to 20 int columns (from 992 down to 50 slots per page):
+ * <ul>
+ * <li>count: getNumEmptySlots on a half full page
+ * <li>scan: iterating over the tuples of a half full page, whose tuples have
+ * all been built before
+ * <li>fill: inserting tuples into an empty page until it is full, per insert
+ * </ul>
+ * Half full pages use every other slot. Times are in ns per operation, the
+ * mean of ITERATIONS runs after as many warmup runs.
+ * <p>
+ * Run with: ant runbench -Dbench=SlotHeaderBenchmark
+ */
+public class SlotHeaderBenchmark {
+
+	private static final int[] WIDTHS = { 1, 2, 4, 8, 12, 16, 20 };
+	private static final int ITERATIONS = 5;
+	private static final int OPS = 200000;
+
+	private static int sink;
+
+	public static void main(String[] args) throws Exception {
+		System.out.println("columns\tslots\tcount\tscan\tfill");
+		for (int width : WIDTHS) {
+			TupleDesc td = Utility.getTupleDesc(width);
+			// the file is never read; the table only needs to be in the catalog
+			HeapFile table = new HeapFile(new File("slots" + width + ".dat"), td);
+			Database.getCatalog().addTable(table);
+			HeapPageId pid = new HeapPageId(table.getId(), 0);
+
+			HeapPage half = new HeapPage(pid, HeapPage.createEmptyPageData());
+			int slots = half.getNumEmptySlots();
+			Tuple t = Utility.getHeapTuple(1, width);
+			for (int i = 0; i < slots; i++)
+				half.insertTuple(t);
+			for (int i = 0; i < slots; i += 2)
+				half.deleteTuple(tupleAt(half, i, td));
+
+			System.out.println(width + "\t" + slots + "\t"
+					+ measureCount(half) + "\t" + measureScan(half) + "\t"
+					+ measureFill(pid, t, slots));
+		}
+	}
+
+	/** @return a tuple naming the given slot of the page */
+	static Tuple tupleAt(HeapPage page, int slot, TupleDesc td) {
+		Tuple t = new Tuple(td);
+		t.setRecordId(new RecordId(page.getId(), slot));
+		return t;
+	}
+
+	static String measureCount(HeapPage page) {
+		long total = 0;
+		for (int i = 0; i < 2 * ITERATIONS; i++) {
+			long start = System.nanoTime();
+			for (int j = 0; j < OPS; j++)
+				sink += page.getNumEmptySlots();
+			if (i >= ITERATIONS)
+				total += System.nanoTime() - start;
+		}
+		return String.format("%.1f", (double) total / ITERATIONS / OPS);
+	}
+
+	static String measureScan(HeapPage page) {
+		int pages = OPS / 100;
+		long total = 0;
+		for (int i = 0; i < 2 * ITERATIONS; i++) {
+			long start = System.nanoTime();
+			for (int j = 0; j < pages; j++) {
+				Iterator<Tuple> it = page.iterator();
+				while (it.hasNext())
+					sink += it.next().hashCode();
+			}
+			if (i >= ITERATIONS)
+				total += System.nanoTime() - start;
+		}
+		return String.format("%.1f", (double) total / ITERATIONS / pages);
+	}
+
+	static String measureFill(HeapPageId pid, Tuple t, int slots)
+			throws Exception {
+		int pages = Math.max(1, OPS / slots);
+		long total = 0;
+		for (int i = 0; i < 2 * ITERATIONS; i++) {
+			long start = System.nanoTime();
+			for (int j = 0; j < pages; j++) {
+				HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+				for (int k = 0; k < slots; k++)
+					page.insertTuple(t);
+			}
+			if (i >= ITERATIONS)
+				total += System.nanoTime() - start;
+		}
+		return String.format("%.1f", (double) total / ITERATIONS / pages
+				/ slots);
+	}
+}
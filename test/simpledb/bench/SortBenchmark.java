@@ -0,0 +1,59 @@
+package simpledb.bench;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures an OrderBy on the first column of a table of random 2-column
+ * rows, with the default memory budget and with budgets that hold a tenth
+ * and a hundredth of the table, which sort it externally.
+ * <p>
+ * Run with: ant runbench -Dbench=SortBenchmark [-Dbench.args="rows..."]
+ */
+public class SortBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int[] sizes = { 100000, 1000000 };
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++)
+				sizes[i] = Integer.parseInt(args[i]);
+		}
+
+		System.out.println("rows\tbudgetKB\tms\truns\tspilledKB");
+		for (int rows : sizes) {
+			Database.reset();
+			HeapFile t = SystemTestUtil.createRandomHeapFile(2, rows, rows,
+					null, null);
+			Database.resetBufferPool(rows / 500 + 10);
+			long bytes = (long) rows
+					* (t.getTupleDesc().getSize() + OrderBy.TUPLE_OVERHEAD);
+			long[] budgets = { OrderBy.DEFAULT_MEMORY_BUDGET, bytes / 10,
+					bytes / 100 };
+
+			for (long budget : budgets) {
+				TransactionId tid = new TransactionId();
+				OrderBy sort = new OrderBy(0, true, new SeqScan(tid,
+						t.getId(), "t"), budget);
+
+				long start = System.nanoTime();
+				sort.open();
+				long results = 0;
+				while (sort.hasNext()) {
+					sort.next();
+					results++;
+				}
+				sort.close();
+				double ms = (System.nanoTime() - start) / 1e6;
+				Database.getBufferPool().transactionComplete(tid);
+				if (results != rows)
+					throw new RuntimeException("sorted " + results + " rows");
+
+				System.out.println(rows + "\t" + (budget >> 10) + "\t"
+						+ String.format("%.0f", ms) + "\t"
+						+ sort.getSpilledRuns() + "\t"
+						+ (sort.getSpilledBytes() >> 10));
+			}
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package simpledb.bench;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures joins of two tables of random 2-column rows on their first
+ * columns, whose values are drawn from 100 times as many distinct values as
+ * there are rows: a greater-than join with the nested loops Join and with
+ * SortMergeJoin, and an equality join with SortMergeJoin and HashJoin. The
+ * nested loops Join is only run for tables of at most maxLoopRows rows.
+ * <p>
+ * Run with: ant runbench -Dbench=SortMergeJoinBenchmark
+ * [-Dbench.args="maxLoopRows rows..."]
+ */
+public class SortMergeJoinBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int maxLoopRows = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		int[] sizes = { 1000, 5000, 20000 };
+		if (args.length > 1) {
+			sizes = new int[args.length - 1];
+			for (int i = 1; i < args.length; i++)
+				sizes[i - 1] = Integer.parseInt(args[i]);
+		}
+
+		System.out.println("rows\tpredicate\toperator\tms\tresults");
+		for (int rows : sizes) {
+			Database.reset();
+			HeapFile t1 = SystemTestUtil.createRandomHeapFile(2, rows,
+					100 * rows, null, null);
+			HeapFile t2 = SystemTestUtil.createRandomHeapFile(2, rows,
+					100 * rows, null, null);
+			Database.resetBufferPool(2 * (rows / 500 + 10));
+
+			for (int run = 0; run < 4; run++) {
+				if (run == 0 && rows > maxLoopRows)
+					continue;
+				TransactionId tid = new TransactionId();
+				SeqScan s1 = new SeqScan(tid, t1.getId(), "t1");
+				SeqScan s2 = new SeqScan(tid, t2.getId(), "t2");
+				Predicate.Op op = run < 2 ? Predicate.Op.GREATER_THAN
+						: Predicate.Op.EQUALS;
+				JoinPredicate p = new JoinPredicate(0, op, 0);
+				DbIterator join;
+				if (run == 0)
+					join = new Join(p, s1, s2);
+				else if (run < 3)
+					join = new SortMergeJoin(p, s1, s2);
+				else
+					join = new HashJoin(p, s1, s2);
+
+				long start = System.nanoTime();
+				join.open();
+				long results = 0;
+				while (join.hasNext()) {
+					join.next();
+					results++;
+				}
+				join.close();
+				double ms = (System.nanoTime() - start) / 1e6;
+				Database.getBufferPool().transactionComplete(tid);
+
+				System.out.println(rows + "\t" + op + "\t"
+						+ join.getClass().getSimpleName() + "\t"
+						+ String.format("%.0f", ms) + "\t" + results);
+			}
+		}
+	}
+}
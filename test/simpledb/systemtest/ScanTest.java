@@ -68,25 +68,28 @@ public class ScanTest extends SimpleDbTestBase {
         Database.getBufferPool().transactionComplete(tid);
     }
 
-    /** Verifies that the buffer pool is actually caching data.
-     * @throws TransactionAbortedException
-     * @throws DbException */
-    @Test public void testCache() throws IOException, DbException, TransactionAbortedException {
-        /** Counts the number of readPage operations. */
-        class InstrumentedHeapFile extends HeapFile {
-            public InstrumentedHeapFile(File f, TupleDesc td) {
-                super(f, td);
-            }
+    /** Counts the number of readPage operations. */
+    private static class InstrumentedHeapFile extends HeapFile {
+        public InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
 
-            @Override
-            public Page readPage(PageId pid) throws NoSuchElementException {
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            // pages may also be read by the prefetcher's threads
+            synchronized (this) {
                 readCount += 1;
-                return super.readPage(pid);
             }
-
-            public int readCount = 0;
+            return super.readPage(pid);
         }
 
+        public int readCount = 0;
+    }
+
+    /** Verifies that the buffer pool is actually caching data.
+     * @throws TransactionAbortedException
+     * @throws DbException */
+    @Test public void testCache() throws IOException, DbException, TransactionAbortedException {
         // Create the table
         final int PAGES = 30;
         ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
@@ -105,6 +108,47 @@ public class ScanTest extends SimpleDbTestBase {
         assertEquals(0, table.readCount);
     }
 
+    /** Verifies that a bulk read scan of a table larger than the buffer pool
+     * leaves the pages cached in the pool alone. */
+    @Test public void testBulkReadKeepsCache() throws IOException, DbException, TransactionAbortedException {
+        final int PAGES = 30;
+        final int BULK_PAGES = 100;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992*PAGES, 1000, null, tuples);
+        TupleDesc td = Utility.getTupleDesc(1);
+        InstrumentedHeapFile table = new InstrumentedHeapFile(f, td);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+        ArrayList<ArrayList<Integer>> bulkTuples = new ArrayList<ArrayList<Integer>>();
+        File bf = SystemTestUtil.createRandomHeapFileUnopened(1, 992*BULK_PAGES, 1000, null, bulkTuples);
+        InstrumentedHeapFile bulk = new InstrumentedHeapFile(bf, td);
+        Database.getCatalog().addTable(bulk, SystemTestUtil.getUUID());
+
+        // cache the small table
+        SystemTestUtil.matchTuples(table, tuples);
+        assertEquals(PAGES, table.readCount);
+        table.readCount = 0;
+
+        // scan the large table through a ring
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, bulk.getId(), "bulk", true);
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(bulkTuples.size(), count);
+        assertEquals(BULK_PAGES, bulk.readCount);
+        assertEquals(BULK_PAGES, Database.getBufferPool().getRingPagesServed());
+
+        // the small table is still cached
+        SystemTestUtil.matchTuples(table, tuples);
+        assertEquals(0, table.readCount);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(ScanTest.class);